@@ -0,0 +1,52 @@
+package org.example.profiler.agent;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Options passed to the agent on the command line, e.g.
+ * {@code -javaagent:profiler.jar=source=jfr,thresholdMs=5}.
+ */
+public class AgentOptions {
+
+    private final Map<String, String> values;
+
+    private AgentOptions(Map<String, String> values) {
+        this.values = values;
+    }
+
+    public static AgentOptions parse(String args) {
+        Map<String, String> values = new HashMap<>();
+        if (args == null || args.isBlank()) {
+            return new AgentOptions(values);
+        }
+
+        for (String pair : args.split(",")) {
+            int eq = pair.indexOf('=');
+            if (eq < 0) {
+                values.put(pair.trim(), "true");
+            } else {
+                values.put(pair.substring(0, eq).trim(), pair.substring(eq + 1).trim());
+            }
+        }
+        return new AgentOptions(values);
+    }
+
+    public String get(String key, String defaultValue) {
+        return values.getOrDefault(key, defaultValue);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = values.get(key);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+
+    public boolean getBoolean(String key) {
+        return Boolean.parseBoolean(values.get(key));
+    }
+
+    /** @return "mxbean" (default) or "jfr" */
+    public String source() {
+        return get("source", "mxbean");
+    }
+}
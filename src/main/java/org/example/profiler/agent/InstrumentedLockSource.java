@@ -0,0 +1,62 @@
+package org.example.profiler.agent;
+
+import org.example.profiler.monitor.LockEvent;
+import org.example.profiler.monitor.LockType;
+import org.example.profiler.monitor.ThreadSnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains the waits and holds buffered by the instrumented AQS (see {@link JucLockTransformer}).
+ */
+public class InstrumentedLockSource implements SnapshotSource {
+
+    @Override
+    public void poll(SampleSink sink) {
+        if (!LockTimingRecorder.isEnabled()) return;
+
+        long nowMillis = System.currentTimeMillis();
+        long nowNanos = System.nanoTime();
+        List<LockTiming> timings = new ArrayList<>();
+
+        LockTimingRecorder.drain((threadId, threadName, kind, lockClassName, lockHash, durationNanos, endNanos) -> {
+            long timestamp = nowMillis - TimeUnit.NANOSECONDS.toMillis(nowNanos - endNanos);
+            boolean wait = kind == LockTimingRecorder.WAIT;
+
+            LockEvent lock = new LockEvent(
+                    LockEvent.idOf(lockClassName, lockHash),
+                    lockClassName,
+                    LockType.SYNCHRONIZER,
+                    -1,
+                    null,
+                    new StackTraceElement[0],
+                    timestamp,
+                    wait
+            );
+            ThreadSnapshot thread = new ThreadSnapshot(
+                    threadId,
+                    threadName,
+                    wait ? Thread.State.WAITING : Thread.State.RUNNABLE,
+                    new StackTraceElement[0],
+                    List.of(),
+                    List.of(),
+                    wait ? lock : null,
+                    timestamp
+            );
+
+            timings.add(new LockTiming(
+                    wait ? LockTiming.Kind.WAIT : LockTiming.Kind.HOLD,
+                    lock,
+                    thread,
+                    TimeUnit.NANOSECONDS.toMillis(durationNanos),
+                    timestamp
+            ));
+        });
+
+        if (!timings.isEmpty()) {
+            sink.onTimings(this, timings);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package org.example.profiler.agent;
+
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingStream;
+import org.example.profiler.monitor.LockEvent;
+import org.example.profiler.monitor.LockType;
+import org.example.profiler.monitor.ThreadSnapshot;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.AbstractQueuedLongSynchronizer;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+
+/**
+ * Contention source built on the JFR event stream.
+ * Every jdk.JavaMonitorEnter / jdk.ThreadPark event carries its exact duration, so short
+ * stalls between two ThreadMXBean samples are not lost and no safepoint-heavy
+ * dumpAllThreads(true, true) is needed.
+ *
+ * Only waits for a lock count: jdk.JavaMonitorWait is not subscribed, since Object.wait()
+ * gives the monitor up and waits for a notify, and a park counts only when its blocker is an
+ * AbstractQueuedSynchronizer (ReentrantLock, ReentrantReadWriteLock, Semaphore, ...). Parks on
+ * a Condition, e.g. idle pool workers in LinkedBlockingQueue.take(), and on anything else
+ * (futures, SynchronousQueue, ...) are waits for work, not contention.
+ *
+ * Events are buffered as they arrive and handed over as one batch per poll; at most
+ * {@value #MAX_PENDING} wait for a poll, later ones are dropped and counted. JFR reports the
+ * monitor address rather than its identity hash, so monitor ids from this source do not
+ * match the ones from sampled dumps.
+ */
+public class JfrContentionSource implements SnapshotSource {
+
+    public static final String MONITOR_ENTER = "jdk.JavaMonitorEnter";
+    public static final String THREAD_PARK = "jdk.ThreadPark";
+
+    private static final int MAX_STACK_DEPTH = 64;
+    private static final int MAX_PENDING = 65_536;
+
+    private final Duration threshold;
+    // Parked-on class name to whether it is an AbstractQueuedSynchronizer
+    private final Map<String, Boolean> synchronizerClasses = new ConcurrentHashMap<>();
+    private ClassLoader loader;
+    private final ArrayBlockingQueue<LockTiming> pending = new ArrayBlockingQueue<>(MAX_PENDING);
+    // written only by the JFR dispatch thread
+    private volatile long dropped;
+    private RecordingStream stream;
+
+    /**
+     * @param threshold minimum event duration recorded by JFR
+     */
+    public JfrContentionSource(Duration threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (stream != null) return;
+
+        ClassLoader context = Thread.currentThread().getContextClassLoader();
+        loader = context != null ? context : ClassLoader.getSystemClassLoader();
+
+        stream = new RecordingStream();
+        for (String event : List.of(MONITOR_ENTER, THREAD_PARK)) {
+            stream.enable(event).withThreshold(threshold).withStackTrace();
+            stream.onEvent(event, this::onEvent);
+        }
+        stream.setReuse(true);
+        stream.startAsync();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (stream == null) return;
+        stream.close();
+        stream = null;
+    }
+
+    @Override
+    public void poll(SampleSink sink) {
+        List<LockTiming> batch = new ArrayList<>();
+        for (LockTiming timing; (timing = pending.poll()) != null; ) {
+            batch.add(timing);
+        }
+        if (!batch.isEmpty()) {
+            sink.onTimings(this, batch);
+        }
+    }
+
+    /** @return events dropped because nobody polled before the buffer filled */
+    public long getDroppedEvents() {
+        return dropped;
+    }
+
+    @Override
+    public boolean measuresBlocking() {
+        return true;
+    }
+
+    private void onEvent(RecordedEvent event) {
+        RecordedThread thread = event.getThread();
+        if (thread == null) return;
+
+        String type = event.getEventType().getName();
+        RecordedClass lockClass;
+        RecordedThread owner;
+        Thread.State state;
+
+        switch (type) {
+            case MONITOR_ENTER -> {
+                lockClass = event.getClass("monitorClass");
+                owner = event.getThread("previousOwner");
+                state = Thread.State.BLOCKED;
+            }
+            case THREAD_PARK -> {
+                lockClass = event.getClass("parkedClass");
+                owner = null;
+                state = Thread.State.WAITING;
+                // Parks without a blocker, or on a Condition or anything but a lock, are idle waits
+                if (lockClass == null || !isSynchronizer(lockClass.getName())) return;
+            }
+            default -> {
+                return;
+            }
+        }
+        if (lockClass == null) return;
+
+        long endTime = event.getEndTime().toEpochMilli();
+        long durationMillis = event.getDuration().toMillis();
+        StackTraceElement[] stack = toStackTrace(event.getStackTrace());
+
+        LockEvent lock = new LockEvent(
+                LockEvent.idOf(lockClass.getName(), event.getLong("address")),
+                lockClass.getName(),
+                type.equals(THREAD_PARK) ? LockType.SYNCHRONIZER : LockType.MONITOR,
+                owner != null ? owner.getJavaThreadId() : -1,
+                owner != null ? owner.getJavaName() : null,
+                stack,
+                event.getStartTime().toEpochMilli(),
+                true
+        );
+
+        ThreadSnapshot waiter = new ThreadSnapshot(
+                thread.getJavaThreadId(),
+                thread.getJavaName(),
+                state,
+                stack,
+                List.of(),
+                List.of(),
+                lock,
+                endTime
+        );
+
+        if (!pending.offer(new LockTiming(LockTiming.Kind.WAIT, lock, waiter, durationMillis, endTime))) {
+            dropped = dropped + 1;
+        }
+    }
+
+    /**
+     * JFR only names the parked-on class, so it is resolved without initializing it; a class
+     * that cannot be loaded from here is not counted. ConditionObject is not an
+     * AbstractQueuedSynchronizer itself, so condition waits are left out.
+     */
+    private boolean isSynchronizer(String className) {
+        return synchronizerClasses.computeIfAbsent(className, name -> {
+            try {
+                Class<?> type = Class.forName(name, false, loader);
+                return AbstractQueuedSynchronizer.class.isAssignableFrom(type)
+                        || AbstractQueuedLongSynchronizer.class.isAssignableFrom(type);
+            } catch (ClassNotFoundException | LinkageError e) {
+                return false;
+            }
+        });
+    }
+
+    static StackTraceElement[] toStackTrace(RecordedStackTrace trace) {
+        if (trace == null) return new StackTraceElement[0];
+
+        List<RecordedFrame> frames = trace.getFrames();
+        int depth = Math.min(frames.size(), MAX_STACK_DEPTH);
+        StackTraceElement[] stack = new StackTraceElement[depth];
+
+        for (int i = 0; i < depth; i++) {
+            RecordedFrame frame = frames.get(i);
+            stack[i] = new StackTraceElement(
+                    frame.getMethod().getType().getName(),
+                    frame.getMethod().getName(),
+                    null,
+                    frame.getLineNumber()
+            );
+        }
+        return stack;
+    }
+}
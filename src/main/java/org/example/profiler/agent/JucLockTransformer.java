@@ -0,0 +1,168 @@
+package org.example.profiler.agent;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.AdviceAdapter;
+import org.objectweb.asm.commons.Method;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.security.ProtectionDomain;
+import java.util.List;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Retransforms AbstractQueuedSynchronizer so that every contended acquire and every
+ * matching release of a j.u.c. lock reports exact timings to {@link LockTimingRecorder}.
+ *
+ * Only the slow acquire path {@code acquire(Node, int, boolean, boolean, boolean, long)} is
+ * timed, so uncontended lock/unlock pays nothing but the release callback.
+ */
+public class JucLockTransformer implements ClassFileTransformer {
+
+    private static final String AQS = "java/util/concurrent/locks/AbstractQueuedSynchronizer";
+    private static final String SLOW_ACQUIRE_DESC =
+            "(Ljava/util/concurrent/locks/AbstractQueuedSynchronizer$Node;IZZZJ)I";
+    // Not LockTimingRecorder.class: that would load it through the app loader before
+    // it is on the bootstrap search path
+    private static final Type RECORDER = Type.getObjectType("org/example/profiler/agent/LockTimingRecorder");
+
+    // The recorder and its nested classes; only these go on the bootstrap class path
+    private static final List<String> BOOTSTRAP_CLASSES = List.of(
+            "org/example/profiler/agent/LockTimingRecorder.class",
+            "org/example/profiler/agent/LockTimingRecorder$Sink.class",
+            "org/example/profiler/agent/LockTimingRecorder$RingBuffer.class"
+    );
+
+    /**
+     * Put the recorder on the bootstrap class path, then retransform AQS.
+     */
+    public static void install(Instrumentation inst, int bufferCapacity)
+            throws IOException, UnmodifiableClassException {
+        // java.base can only see classes from the bootstrap loader
+        inst.appendToBootstrapClassLoaderSearch(bootstrapJar());
+        LockTimingRecorder.enable(bufferCapacity);
+
+        inst.addTransformer(new JucLockTransformer(), true);
+        inst.retransformClasses(AbstractQueuedSynchronizer.class);
+    }
+
+    /**
+     * Copy the recorder classes into a temporary jar. Appending the whole agent jar would make
+     * the bootstrap loader define agent classes the app loader has already loaded.
+     */
+    private static JarFile bootstrapJar() throws IOException {
+        File file = File.createTempFile("profiler-bootstrap", ".jar");
+        file.deleteOnExit();
+
+        ClassLoader loader = JucLockTransformer.class.getClassLoader();
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+            for (String name : BOOTSTRAP_CLASSES) {
+                try (InputStream in = loader.getResourceAsStream(name)) {
+                    if (in == null) throw new IOException("missing " + name);
+                    out.putNextEntry(new JarEntry(name));
+                    in.transferTo(out);
+                    out.closeEntry();
+                }
+            }
+        }
+        return new JarFile(file);
+    }
+
+    @Override
+    public byte[] transform(Module module, ClassLoader loader, String className,
+                            Class<?> classBeingRedefined, ProtectionDomain protectionDomain,
+                            byte[] classfileBuffer) {
+        if (!AQS.equals(className)) return null;
+
+        try {
+            ClassReader reader = new ClassReader(classfileBuffer);
+            // COMPUTE_MAXS only: frames are kept up to date by AdviceAdapter, and
+            // COMPUTE_FRAMES would need to load classes from inside java.base
+            ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+            reader.accept(new AqsVisitor(writer), ClassReader.EXPAND_FRAMES);
+            return writer.toByteArray();
+        } catch (Throwable t) {
+            System.err.println("[ProfilerAgent] AQS instrumentation failed: " + t);
+            return null;
+        }
+    }
+
+    private static class AqsVisitor extends ClassVisitor {
+
+        AqsVisitor(ClassVisitor cv) {
+            super(Opcodes.ASM9, cv);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor,
+                                         String signature, String[] exceptions) {
+            MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+
+            if (name.equals("acquire") && descriptor.equals(SLOW_ACQUIRE_DESC)) {
+                return new SlowAcquireAdapter(mv, access, name, descriptor);
+            }
+            if (name.equals("release") && descriptor.equals("(I)Z")) {
+                return new ReleaseAdapter(mv, access, name, descriptor);
+            }
+            return mv;
+        }
+    }
+
+    /** start = System.nanoTime(); ... LockTimingRecorder.onAcquire(result, this, shared, start) */
+    private static class SlowAcquireAdapter extends AdviceAdapter {
+
+        private int startLocal;
+
+        SlowAcquireAdapter(MethodVisitor mv, int access, String name, String descriptor) {
+            super(Opcodes.ASM9, mv, access, name, descriptor);
+        }
+
+        @Override
+        protected void onMethodEnter() {
+            startLocal = newLocal(Type.LONG_TYPE);
+            invokeStatic(Type.getType(System.class), Method.getMethod("long nanoTime()"));
+            storeLocal(startLocal);
+        }
+
+        @Override
+        protected void onMethodExit(int opcode) {
+            if (opcode != IRETURN) return;
+
+            dup();          // result
+            loadThis();
+            loadArg(2);     // shared
+            loadLocal(startLocal);
+            invokeStatic(RECORDER, new Method("onAcquire", "(ILjava/lang/Object;ZJ)V"));
+        }
+    }
+
+    /** ... LockTimingRecorder.onRelease(released, this) */
+    private static class ReleaseAdapter extends AdviceAdapter {
+
+        ReleaseAdapter(MethodVisitor mv, int access, String name, String descriptor) {
+            super(Opcodes.ASM9, mv, access, name, descriptor);
+        }
+
+        @Override
+        protected void onMethodExit(int opcode) {
+            if (opcode != IRETURN) return;
+
+            dup();          // released
+            loadThis();
+            invokeStatic(RECORDER, new Method("onRelease", "(ZLjava/lang/Object;)V"));
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.example.profiler.agent;
+
+import org.example.profiler.monitor.LockEvent;
+import org.example.profiler.monitor.ThreadSnapshot;
+
+/**
+ * A measured wait for, or hold of, a lock.
+ *
+ * @param thread    the waiting or holding thread
+ * @param timestamp end of the wait or hold, epoch millis
+ */
+public record LockTiming(
+        Kind kind,
+        LockEvent lock,
+        ThreadSnapshot thread,
+        long durationMillis,
+        long timestamp
+) {
+    public enum Kind { WAIT, HOLD }
+}
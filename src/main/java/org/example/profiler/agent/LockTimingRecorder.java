@@ -0,0 +1,285 @@
+package org.example.profiler.agent;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Receives callbacks from the instrumented AbstractQueuedSynchronizer and stores them in
+ * per-thread single-producer/single-consumer ring buffers that the sampler drains in batches.
+ *
+ * This class is loaded by the bootstrap class loader (it is called from java.base), so it
+ * must only depend on java.base. Only threads that went through a contended acquire get a
+ * buffer. After a thread's buffer exists the hot path allocates nothing; when nobody
+ * drains, new events are dropped and counted instead of growing memory. Buffers hold lock
+ * class names rather than classes, so they never keep a class loader alive. Buffers of
+ * terminated threads are removed on each drain and whenever a new thread registers: at once
+ * if empty, otherwise once more than {@value #MAX_TERMINATED} wait to be drained, oldest
+ * first and with their events counted as dropped, so thread churn without a drainer does
+ * not pile them up.
+ */
+public final class LockTimingRecorder {
+
+    /** Time spent in the AQS slow acquire path */
+    public static final int WAIT = 0;
+    /** Time between a contended exclusive acquire and its release */
+    public static final int HOLD = 1;
+
+    private static final int MAX_HELD = 8;
+    private static final long NOT_HELD = Long.MIN_VALUE;
+    private static final int MAX_TERMINATED = 1024;
+
+    private static volatile boolean enabled;
+    private static volatile int capacity = 256;
+
+    private static final ConcurrentLinkedQueue<RingBuffer> buffers = new ConcurrentLinkedQueue<>();
+    // Set on a thread's first contended acquire; releases alone never create a buffer
+    private static final ThreadLocal<RingBuffer> current = new ThreadLocal<>();
+    // Events left in buffers of terminated threads that were removed before being drained
+    private static final AtomicLong droppedTerminated = new AtomicLong();
+
+    private LockTimingRecorder() {}
+
+    /** Receives drained events on the sampler thread. */
+    public interface Sink {
+        void accept(long threadId, String threadName, int kind,
+                    String lockClassName, int lockHash, long durationNanos, long endNanos);
+    }
+
+    /**
+     * @param bufferCapacity events kept per thread between drains, rounded up to a power of two
+     */
+    public static void enable(int bufferCapacity) {
+        capacity = Integer.highestOneBit(Math.max(2, bufferCapacity - 1)) << 1;
+        enabled = true;
+    }
+
+    public static void disable() {
+        enabled = false;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /* ------------------------
+       Called from instrumented AQS code
+       ------------------------ */
+
+    /**
+     * Exit of {@code AbstractQueuedSynchronizer.acquire(Node, int, boolean, boolean, boolean, long)},
+     * the slow path every contended acquire goes through.
+     *
+     * @param result positive if acquired, 0 on timeout, negative if interrupted
+     */
+    public static void onAcquire(int result, Object lock, boolean shared, long startNanos) {
+        if (!enabled) return;
+
+        long now = System.nanoTime();
+        RingBuffer buffer = current.get();
+        if (buffer == null) {
+            buffer = RingBuffer.register();
+            current.set(buffer);
+        }
+        int lockHash = System.identityHashCode(lock);
+
+        buffer.write(WAIT, lock.getClass().getName(), lockHash, now - startNanos, now);
+        if (result > 0 && !shared) {
+            buffer.pushHeld(lockHash, now);
+        }
+    }
+
+    /**
+     * Exit of {@code AbstractQueuedSynchronizer.release(int)}.
+     *
+     * @param released true when the lock became free (the outermost reentrant release)
+     */
+    public static void onRelease(boolean released, Object lock) {
+        if (!enabled || !released) return;
+
+        RingBuffer buffer = current.get();
+        if (buffer == null || buffer.heldDepth == 0) return;
+
+        long now = System.nanoTime();
+        int lockHash = System.identityHashCode(lock);
+        long since = buffer.popHeld(lockHash);
+        if (since != NOT_HELD) {
+            buffer.write(HOLD, lock.getClass().getName(), lockHash, now - since, now);
+        }
+    }
+
+    /* ------------------------
+       Consumer side
+       ------------------------ */
+
+    /**
+     * Drain every thread's buffer into {@code sink}. Buffers of terminated threads are
+     * removed once empty.
+     *
+     * @return number of events drained
+     */
+    public static synchronized int drain(Sink sink) {
+        int drained = 0;
+        for (Iterator<RingBuffer> it = buffers.iterator(); it.hasNext(); ) {
+            RingBuffer buffer = it.next();
+            boolean terminated = buffer.isTerminated();
+
+            drained += buffer.drain(sink);
+            if (terminated) {
+                it.remove();
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * @return events dropped because a buffer was full, across live threads, plus the events
+     *         of terminated threads' buffers removed before they were drained
+     */
+    public static long droppedEvents() {
+        long dropped = droppedTerminated.get();
+        for (RingBuffer buffer : buffers) {
+            dropped += buffer.dropped;
+        }
+        return dropped;
+    }
+
+    private static final class RingBuffer {
+
+        private final WeakReference<Thread> owner;
+        private final long threadId;
+        private final String threadName;
+
+        private final int mask;
+        private final int[] kinds;
+        // Class.getName() caches its result, so this stores a reference, not a copy
+        private final String[] lockClassNames;
+        private final int[] lockHashes;
+        private final long[] durations;
+        private final long[] endTimes;
+
+        // head is written only by the owning thread, tail only by the drainer
+        private volatile long head;
+        private volatile long tail;
+        private volatile long dropped;
+
+        // contended exclusive locks currently held by the owning thread
+        private final int[] heldHashes = new int[MAX_HELD];
+        private final long[] heldSince = new long[MAX_HELD];
+        private int heldDepth;
+
+        private RingBuffer(Thread thread, int capacity) {
+            this.owner = new WeakReference<>(thread);
+            this.threadId = thread.getId();
+            this.threadName = thread.getName();
+            this.mask = capacity - 1;
+            this.kinds = new int[capacity];
+            this.lockClassNames = new String[capacity];
+            this.lockHashes = new int[capacity];
+            this.durations = new long[capacity];
+            this.endTimes = new long[capacity];
+        }
+
+        private static RingBuffer register() {
+            pruneTerminated();
+
+            RingBuffer buffer = new RingBuffer(Thread.currentThread(), capacity);
+            buffers.add(buffer);
+            return buffer;
+        }
+
+        /**
+         * Remove drained buffers of terminated threads, and the oldest undrained ones beyond
+         * {@value #MAX_TERMINATED}. Plain loops, not lambdas: linking one here could itself
+         * go through AQS.
+         */
+        private static void pruneTerminated() {
+            int undrained = 0;
+            for (Iterator<RingBuffer> it = buffers.iterator(); it.hasNext(); ) {
+                RingBuffer buffer = it.next();
+                if (!buffer.isTerminated()) continue;
+                if (buffer.head == buffer.tail) {
+                    it.remove();
+                } else {
+                    undrained++;
+                }
+            }
+
+            if (undrained <= MAX_TERMINATED) return;
+
+            // under drain()'s lock, so that a buffer is never both drained and counted as dropped
+            synchronized (LockTimingRecorder.class) {
+                // count again: another registering thread may have evicted some meanwhile
+                undrained = 0;
+                for (RingBuffer buffer : buffers) {
+                    if (buffer.isTerminated() && buffer.head != buffer.tail) undrained++;
+                }
+                for (Iterator<RingBuffer> it = buffers.iterator(); undrained > MAX_TERMINATED && it.hasNext(); ) {
+                    RingBuffer buffer = it.next();
+                    if (!buffer.isTerminated() || buffer.head == buffer.tail) continue;
+                    it.remove();
+                    droppedTerminated.addAndGet(buffer.head - buffer.tail);
+                    undrained--;
+                }
+            }
+        }
+
+        private boolean isTerminated() {
+            Thread thread = owner.get();
+            return thread == null || !thread.isAlive();
+        }
+
+        private void write(int kind, String lockClassName, int lockHash, long duration, long endTime) {
+            long h = head;
+            if (h - tail > mask) {
+                dropped = dropped + 1;
+                return;
+            }
+
+            int i = (int) (h & mask);
+            kinds[i] = kind;
+            lockClassNames[i] = lockClassName;
+            lockHashes[i] = lockHash;
+            durations[i] = duration;
+            endTimes[i] = endTime;
+            head = h + 1; // publish
+        }
+
+        private int drain(Sink sink) {
+            long start = tail;
+            long h = head;
+            for (long t = start; t < h; t++) {
+                int i = (int) (t & mask);
+                sink.accept(threadId, threadName, kinds[i],
+                        lockClassNames[i], lockHashes[i], durations[i], endTimes[i]);
+            }
+            tail = h;
+            return (int) (h - start);
+        }
+
+        private void pushHeld(int lockHash, long since) {
+            if (heldDepth == MAX_HELD) {
+                // forget the oldest entry rather than grow
+                System.arraycopy(heldHashes, 1, heldHashes, 0, MAX_HELD - 1);
+                System.arraycopy(heldSince, 1, heldSince, 0, MAX_HELD - 1);
+                heldDepth--;
+            }
+            heldHashes[heldDepth] = lockHash;
+            heldSince[heldDepth++] = since;
+        }
+
+        private long popHeld(int lockHash) {
+            for (int d = heldDepth - 1; d >= 0; d--) {
+                if (heldHashes[d] != lockHash) continue;
+
+                long since = heldSince[d];
+                System.arraycopy(heldHashes, d + 1, heldHashes, d, heldDepth - d - 1);
+                System.arraycopy(heldSince, d + 1, heldSince, d, heldDepth - d - 1);
+                heldDepth--;
+                return since;
+            }
+            return NOT_HELD;
+        }
+    }
+}
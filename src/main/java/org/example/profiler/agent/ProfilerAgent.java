@@ -9,16 +9,33 @@ import java.util.concurrent.*;
 public class ProfilerAgent {
 
     public static void premain(String args, Instrumentation inst) {
-        start();
+        start(AgentOptions.parse(args), inst);
     }
 
     public static void agentmain(String args, Instrumentation inst) {
-        start();
+        start(AgentOptions.parse(args), inst);
     }
 
-    private static void start() {
-        ProfilerSampler.start();
-        System.out.println("[ProfilerAgent] started");
+    private static void start(AgentOptions options, Instrumentation inst) {
+        // Must run before the sampler touches LockTimingRecorder
+        if (options.getBoolean("instrumentJuc")) {
+            instrumentJuc(options, inst);
+        }
+
+        ProfilerSampler.start(options);
+        System.out.println("[ProfilerAgent] started (source=" + options.source() + ")");
     }
-}
 
+    /**
+     * Opt-in ({@code instrumentJuc=true,ringBufferSize=256}): time every contended
+     * java.util.concurrent lock acquisition and its hold.
+     */
+    private static void instrumentJuc(AgentOptions options, Instrumentation inst) {
+        try {
+            JucLockTransformer.install(inst, (int) options.getLong("ringBufferSize", 256));
+            System.out.println("[ProfilerAgent] java.util.concurrent lock instrumentation enabled");
+        } catch (Exception e) {
+            System.err.println("[ProfilerAgent] could not instrument java.util.concurrent locks: " + e);
+        }
+    }
+}
@@ -1,12 +1,15 @@
 package org.example.profiler.agent;
 
 import org.example.profiler.analysis.ContentionAnalyzer;
-import org.example.profiler.monitor.ThreadSnapshot;
+import org.example.profiler.analysis.ContentionRecord;
+import org.example.profiler.monitor.LockType;
+import org.example.profiler.monitor.SnapshotDelta;
 
 import java.lang.management.ManagementFactory;
-import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -20,32 +23,105 @@ public class ProfilerSampler {
     private static final ScheduledExecutorService scheduler =
             Executors.newSingleThreadScheduledExecutor();
 
-    private static volatile ProfilerStats latestStats;
+    private static final ContentionAnalyzer analyzer = new ContentionAnalyzer();
+
+    // The analyzer already ingests every delta; the overview is built only when asked for
+    private static volatile SnapshotDelta latestFrame;
+    // Built by readers under the class lock, which the sampler never takes
+    private static ProfilerStats latestStats;
+    private static SnapshotDelta statsFrame;
+    private static volatile SamplingBudgetController budget =
+            new SamplingBudgetController(0.01, 50, 5000, 1000);
+    private static volatile SamplingPipeline pipeline;
 
     public static void start() {
+        start(AgentOptions.parse(null));
+    }
+
+    /**
+     * Start sampling. With {@code source=jfr} block events come from the JFR
+     * event stream and the periodic dump is kept only for the thread overview.
+     * {@code mode=targeted,maxDepth=N} limits deep dumps to contended threads.
+     * {@code budget=0.01,minIntervalMs=50,maxIntervalMs=5000} bound the sampling cost,
+     * {@code jitter=poisson} randomizes the delay between samples.
+     * {@code virtualThreads=true,pinThresholdMs=20} reports virtual threads pinned to their carrier.
+     */
+    public static void start(AgentOptions options) {
         mxBean.setThreadContentionMonitoringEnabled(true);
 
-        scheduler.scheduleAtFixedRate(
-                ProfilerSampler::sample,
-                0, 1, TimeUnit.SECONDS
+        List<SnapshotSource> sources = new ArrayList<>();
+        sources.add(new ThreadMXBeanSnapshotSource(new ThreadDumper(
+                mxBean,
+                ThreadDumper.Mode.valueOf(options.get("mode", "full").toUpperCase()),
+                (int) options.getLong("maxDepth", Integer.MAX_VALUE)
+        )));
+
+        if (LockTimingRecorder.isEnabled()) {
+            // j.u.c. waits come from the instrumented AQS, only sample monitors
+            analyzer.setSampledLockTypes(EnumSet.of(LockType.MONITOR));
+            sources.add(new InstrumentedLockSource());
+        }
+
+        if ("jfr".equals(options.source())) {
+            sources.add(new JfrContentionSource(
+                    Duration.ofMillis(options.getLong("thresholdMs", 1))
+            ));
+        }
+
+        if (options.getBoolean("virtualThreads")) {
+            sources.add(new VirtualThreadPinningSource(
+                    Duration.ofMillis(options.getLong("pinThresholdMs", 20))
+            ));
+        }
+
+        budget = new SamplingBudgetController(
+                Double.parseDouble(options.get("budget", "0.01")),
+                options.getLong("minIntervalMs", 50),
+                options.getLong("maxIntervalMs", 5000),
+                options.getLong("intervalMs", 1000),
+                "poisson".equals(options.get("jitter", "none"))
         );
+
+        pipeline = new SamplingPipeline(sources, analyzer, budget);
+        pipeline.addFrameListener(frame -> latestFrame = frame);
+        pipeline.start();
+
+        scheduler.schedule(ProfilerSampler::sample, 0, TimeUnit.MILLISECONDS);
     }
 
     private static void sample() {
-        ThreadInfo[] infos = mxBean.dumpAllThreads(true, true);
-        long sampleTime = System.currentTimeMillis(); // capture current sample time
+        long delayMs = budget.nextDelayMs();
+        try {
+            delayMs = pipeline.runCycle();
+        } finally {
+            scheduler.schedule(ProfilerSampler::sample, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
 
-        List<ThreadSnapshot> snapshots = new ArrayList<>();
+    /** @return overview of the latest sample, materialized on the first call after each sample */
+    public static synchronized ProfilerStats getLatestStats() {
+        SnapshotDelta frame = latestFrame;
+        if (frame == null) return null;
 
-        for (ThreadInfo info : infos) {
-            snapshots.add(ThreadSnapshot.from(info, sampleTime)); // pass sampleTime
+        ProfilerStats stats = latestStats;
+        if (statsFrame != frame) {
+            stats = ContentionAnalyzer.analyze(frame.expand());
+            latestStats = stats;
+            statsFrame = frame;
         }
+        return stats;
+    }
 
-        latestStats = ContentionAnalyzer.analyze(snapshots);
+    public static SamplingBudgetStats getBudgetStats() {
+        return budget.stats();
     }
 
+    /** @return time the last sampling cycle spent inside the thread dump, in nanoseconds */
+    public static long getLastPauseNanos() {
+        return pipeline != null ? pipeline.getLastPauseNanos() : 0;
+    }
 
-    public static ProfilerStats getLatestStats() {
-        return latestStats;
+    public static List<ContentionRecord> getContentionRecords(int topK) {
+        return analyzer.topRecords(topK);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,28 @@
+package org.example.profiler.agent;
+
+import org.example.profiler.monitor.SnapshotDelta;
+
+import java.util.Iterator;
+
+/**
+ * Replays recorded frames, one per tick, e.g. to re-run analysis over a stored session.
+ */
+public class ReplaySnapshotSource implements SnapshotSource {
+
+    private final Iterator<SnapshotDelta> frames;
+
+    public ReplaySnapshotSource(Iterable<SnapshotDelta> frames) {
+        this.frames = frames.iterator();
+    }
+
+    @Override
+    public synchronized void poll(SampleSink sink) {
+        if (frames.hasNext()) {
+            sink.onFrame(this, frames.next());
+        }
+    }
+
+    public synchronized boolean isExhausted() {
+        return !frames.hasNext();
+    }
+}
@@ -0,0 +1,17 @@
+package org.example.profiler.agent;
+
+import org.example.profiler.monitor.SnapshotDelta;
+
+import java.util.List;
+
+/**
+ * Receives the batches pushed by a {@link SnapshotSource}.
+ */
+public interface SampleSink {
+
+    /** One sample of all threads, delta-encoded against the source's previous frame */
+    void onFrame(SnapshotSource source, SnapshotDelta frame);
+
+    /** Waits and holds measured exactly since the previous tick */
+    void onTimings(SnapshotSource source, List<LockTiming> timings);
+}
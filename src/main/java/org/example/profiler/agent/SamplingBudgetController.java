@@ -0,0 +1,160 @@
+package org.example.profiler.agent;
+
+import org.example.profiler.monitor.SnapshotDelta;
+import org.example.profiler.monitor.ThreadSnapshot;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Adapts the sampling interval so the profiler stays within a fraction of wall time.
+ *
+ * Each cycle reports how long it spent dumping threads, building snapshots and analysing them.
+ * The interval shrinks towards {@code minIntervalMs} while many threads are contended, grows
+ * towards {@code maxIntervalMs} while the system is quiet, and is never shorter than the
+ * smoothed cycle cost divided by the budget.
+ */
+public class SamplingBudgetController {
+
+    /** Share of sampled threads that must be contended before sampling speeds up */
+    private static final double HIGH_CONTENTION = 0.05;
+    /** Weight of the newest cycle in the smoothed cost */
+    private static final double SMOOTHING = 0.2;
+
+    private final double budgetFraction;
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private final boolean poisson;
+
+    private long intervalMs;
+    private double smoothedCostNanos;
+    private long lastDumpNanos;
+    private long lastSnapshotNanos;
+    private long lastAnalysisNanos;
+    private double lastContentionRatio;
+    private long cycles;
+
+    /**
+     * @param budgetFraction share of wall time the profiler may use, e.g. 0.01 for 1%
+     */
+    public SamplingBudgetController(double budgetFraction, long minIntervalMs,
+                                    long maxIntervalMs, long initialIntervalMs) {
+        this(budgetFraction, minIntervalMs, maxIntervalMs, initialIntervalMs, false);
+    }
+
+    /**
+     * @param poisson draw each delay from an exponential distribution around the current
+     *                interval, so sampling cannot lock step with periodic lock holders
+     */
+    public SamplingBudgetController(double budgetFraction, long minIntervalMs,
+                                    long maxIntervalMs, long initialIntervalMs, boolean poisson) {
+        this.poisson = poisson;
+        this.budgetFraction = budgetFraction;
+        this.minIntervalMs = minIntervalMs;
+        this.maxIntervalMs = Math.max(minIntervalMs, maxIntervalMs);
+        this.intervalMs = Math.max(minIntervalMs, Math.min(this.maxIntervalMs, initialIntervalMs));
+    }
+
+    /**
+     * Record the cost of one sampling cycle and compute the delay before the next one.
+     *
+     * @param contentionRatio share of sampled threads that were blocked or waiting on an owned lock
+     * @return delay before the next cycle, in milliseconds
+     */
+    public synchronized long onCycle(long dumpNanos, long snapshotNanos, long analysisNanos,
+                                     double contentionRatio) {
+        long costNanos = dumpNanos + snapshotNanos + analysisNanos;
+        smoothedCostNanos = cycles == 0
+                ? costNanos
+                : SMOOTHING * costNanos + (1 - SMOOTHING) * smoothedCostNanos;
+
+        lastDumpNanos = dumpNanos;
+        lastSnapshotNanos = snapshotNanos;
+        lastAnalysisNanos = analysisNanos;
+        lastContentionRatio = contentionRatio;
+        cycles++;
+
+        long next = intervalMs;
+        if (contentionRatio >= HIGH_CONTENTION) {
+            next = next / 2;
+        } else if (contentionRatio == 0) {
+            next = next + next / 2;
+        }
+
+        long budgetFloorMs = (long) Math.ceil(smoothedCostNanos / budgetFraction / 1_000_000);
+        // The budget wins over maxIntervalMs when a single cycle is that expensive
+        intervalMs = Math.max(budgetFloorMs, Math.min(maxIntervalMs, Math.max(minIntervalMs, next)));
+        return intervalMs;
+    }
+
+    /** @return mean delay between cycles, in milliseconds */
+    public synchronized long getIntervalMs() {
+        return intervalMs;
+    }
+
+    /**
+     * @return delay before the next cycle: the current interval, or an exponentially
+     *         distributed delay with that mean in Poisson mode
+     */
+    public synchronized long nextDelayMs() {
+        if (!poisson) return intervalMs;
+
+        // inverse CDF of Exp(1/intervalMs), capped to keep a single gap from dominating
+        double u = 1.0 - ThreadLocalRandom.current().nextDouble();
+        long delay = Math.round(-Math.log(u) * intervalMs);
+        return Math.max(1, Math.min(delay, intervalMs * 10));
+    }
+
+    public boolean isPoisson() {
+        return poisson;
+    }
+
+    public synchronized SamplingBudgetStats stats() {
+        return new SamplingBudgetStats(
+                budgetFraction,
+                smoothedCostNanos / 1_000_000 / Math.max(1, intervalMs),
+                intervalMs,
+                minIntervalMs,
+                maxIntervalMs,
+                lastDumpNanos / 1_000,
+                lastSnapshotNanos / 1_000,
+                lastAnalysisNanos / 1_000,
+                lastContentionRatio,
+                cycles
+        );
+    }
+
+    /**
+     * @return share of threads that are BLOCKED or waiting on a lock another thread owns
+     */
+    public static double contentionRatio(List<ThreadSnapshot> snapshots) {
+        if (snapshots.isEmpty()) return 0;
+
+        int contended = 0;
+        for (ThreadSnapshot snapshot : snapshots) {
+            if (isContended(snapshot)) contended++;
+        }
+        return (double) contended / snapshots.size();
+    }
+
+    /**
+     * Same as {@link #contentionRatio(List)} without expanding unchanged threads.
+     */
+    public static double contentionRatio(SnapshotDelta delta) {
+        if (delta.getThreadCount() == 0) return 0;
+
+        int contended = 0;
+        for (ThreadSnapshot snapshot : delta.getChanged()) {
+            if (isContended(snapshot)) contended++;
+        }
+        for (int i = 0; i < delta.getUnchangedCount(); i++) {
+            if (isContended(delta.getUnchangedBase(i))) contended++;
+        }
+        return (double) contended / delta.getThreadCount();
+    }
+
+    private static boolean isContended(ThreadSnapshot snapshot) {
+        return snapshot.isBlocked()
+                || (snapshot.getLockWaitingOn() != null && snapshot.getLockWaitingOn().isOwned());
+    }
+}
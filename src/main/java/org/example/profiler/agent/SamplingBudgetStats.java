@@ -0,0 +1,14 @@
+package org.example.profiler.agent;
+
+public record SamplingBudgetStats(
+        double budgetFraction,
+        double usedFraction,
+        long intervalMs,
+        long minIntervalMs,
+        long maxIntervalMs,
+        long lastDumpMicros,
+        long lastSnapshotMicros,
+        long lastAnalysisMicros,
+        double contentionRatio,
+        long cycles
+) {}
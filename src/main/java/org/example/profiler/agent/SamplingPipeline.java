@@ -0,0 +1,114 @@
+package org.example.profiler.agent;
+
+import org.example.profiler.analysis.ContentionAnalyzer;
+import org.example.profiler.monitor.SnapshotDelta;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * The one sampling hot path shared by the agent and the server: polls every
+ * {@link SnapshotSource} once per tick, feeds the batches to the analyzer and reports the
+ * cycle cost to the {@link SamplingBudgetController}.
+ *
+ * Frames are used to derive blocking only while no source measures it; otherwise they
+ * still reach the frame listeners for thread overviews.
+ */
+public class SamplingPipeline implements SampleSink {
+
+    private final List<SnapshotSource> sources;
+    private final ContentionAnalyzer analyzer;
+    private final SamplingBudgetController budget;
+    private final boolean deriveBlocking;
+    private final List<Consumer<SnapshotDelta>> frameListeners = new CopyOnWriteArrayList<>();
+
+    // Per-cycle bookkeeping, only touched by the sampling thread
+    private long analysisNanos;
+    private double contentionRatio;
+    private volatile long lastPauseNanos;
+
+    public SamplingPipeline(List<SnapshotSource> sources,
+                            ContentionAnalyzer analyzer,
+                            SamplingBudgetController budget) {
+        this.sources = List.copyOf(sources);
+        this.analyzer = analyzer;
+        this.budget = budget;
+        this.deriveBlocking = this.sources.stream().noneMatch(SnapshotSource::measuresBlocking);
+    }
+
+    /** Called for every frame, on the sampling thread. */
+    public void addFrameListener(Consumer<SnapshotDelta> listener) {
+        frameListeners.add(listener);
+    }
+
+    public void start() {
+        sources.forEach(SnapshotSource::start);
+    }
+
+    public void stop() {
+        sources.forEach(SnapshotSource::stop);
+    }
+
+    /**
+     * Run one tick.
+     *
+     * @return delay before the next tick, as decided by the budget controller
+     */
+    public synchronized long runCycle() {
+        analysisNanos = 0;
+        contentionRatio = 0;
+        long pauseNanos = 0;
+        long start = System.nanoTime();
+
+        for (SnapshotSource source : sources) {
+            source.poll(this);
+            pauseNanos += source.getLastPauseNanos();
+        }
+
+        long total = System.nanoTime() - start;
+        lastPauseNanos = pauseNanos;
+        budget.onCycle(
+                pauseNanos,
+                Math.max(0, total - pauseNanos - analysisNanos),
+                analysisNanos,
+                contentionRatio
+        );
+        return budget.nextDelayMs();
+    }
+
+    @Override
+    public void onFrame(SnapshotSource source, SnapshotDelta frame) {
+        long start = System.nanoTime();
+
+        for (Consumer<SnapshotDelta> listener : frameListeners) {
+            listener.accept(frame);
+        }
+        if (deriveBlocking) {
+            analyzer.ingest(frame, budget.getIntervalMs());
+        }
+        contentionRatio = Math.max(contentionRatio, SamplingBudgetController.contentionRatio(frame));
+
+        analysisNanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void onTimings(SnapshotSource source, List<LockTiming> timings) {
+        long start = System.nanoTime();
+
+        for (LockTiming timing : timings) {
+            if (timing.kind() == LockTiming.Kind.HOLD) {
+                analyzer.recordHold(timing.lock(), timing.durationMillis());
+            } else {
+                analyzer.recordBlock(timing.lock(), timing.thread(), timing.durationMillis(), timing.timestamp());
+            }
+        }
+
+        analysisNanos += System.nanoTime() - start;
+    }
+
+    /** @return time the last tick paused application threads, in nanoseconds */
+    public long getLastPauseNanos() {
+        return lastPauseNanos;
+    }
+}
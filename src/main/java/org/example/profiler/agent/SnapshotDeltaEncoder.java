@@ -0,0 +1,157 @@
+package org.example.profiler.agent;
+
+import org.example.profiler.monitor.SampleFrame;
+import org.example.profiler.monitor.SampleFramePool;
+import org.example.profiler.monitor.SnapshotDelta;
+import org.example.profiler.monitor.StackTable;
+import org.example.profiler.monitor.ThreadSnapshot;
+
+import java.lang.management.ThreadInfo;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns consecutive thread dumps into {@link SnapshotDelta}s. A per-thread fingerprint of
+ * state, top frames, awaited lock, held monitors and contention counts decides whether a
+ * ThreadSnapshot has to be built; stable threads only get a marker.
+ *
+ * Dumps are first captured into a pooled {@link SampleFrame}, so fingerprinting a stable
+ * thread creates no snapshot or lock objects. Threads are looked up by their position in the
+ * previous dump first, which keeps the same order, so a stable thread does not box its id
+ * either. Once warmed up, a cycle allocates the ThreadInfo copies of the dump itself, the
+ * snapshots of changed threads, and the delta it returns: the delta and its marker arrays
+ * are handed to listeners that may keep them, so they cannot be reused.
+ *
+ * Not thread-safe: meant to be owned by a single sampler.
+ */
+public class SnapshotDeltaEncoder {
+
+    /** Number of top frames included in the fingerprint */
+    private static final int FINGERPRINT_FRAMES = 8;
+
+    private static final long[] NONE_REMOVED = new long[0];
+
+    private static final class Entry {
+        final long threadId;
+        long fingerprint;
+        ThreadSnapshot snapshot;
+        long seenInCycle;
+
+        Entry(long threadId) {
+            this.threadId = threadId;
+        }
+    }
+
+    private final Map<Long, Entry> lastSeen = new HashMap<>();
+    private final SampleFramePool pool = new SampleFramePool(2);
+    private long cycle;
+
+    // Reused between cycles: frame index of each stable thread and its entry
+    private int[] stableIndex = new int[64];
+    private Entry[] stableEntries = new Entry[64];
+    // Entry of the thread at each frame position in the previous cycle
+    private Entry[] byPosition = new Entry[64];
+    private int previousThreads;
+
+    public SnapshotDelta encode(ThreadInfo[] infos, long sampleTime) {
+        SampleFrame frame = pool.acquire();
+        try {
+            return encode(frame.capture(infos, sampleTime));
+        } finally {
+            pool.release(frame);
+        }
+    }
+
+    public SnapshotDelta encode(SampleFrame frame) {
+        cycle++;
+        int threads = frame.getThreadCount();
+        if (stableIndex.length < threads) {
+            stableIndex = new int[threads];
+            stableEntries = new Entry[threads];
+            byPosition = Arrays.copyOf(byPosition, threads);
+        }
+
+        List<ThreadSnapshot> changed = null;
+        int stable = 0;
+
+        for (int t = 0; t < threads; t++) {
+            long fingerprint = fingerprint(frame, t);
+            Entry entry = byPosition[t];
+            if (entry == null || entry.threadId != frame.getThreadId(t)) {
+                entry = lastSeen.get(frame.getThreadId(t));
+                if (entry == null) {
+                    entry = new Entry(frame.getThreadId(t));
+                    lastSeen.put(entry.threadId, entry);
+                }
+                byPosition[t] = entry;
+            }
+            entry.seenInCycle = cycle;
+
+            if (entry.snapshot != null && entry.fingerprint == fingerprint) {
+                stableIndex[stable] = t;
+                stableEntries[stable] = entry;
+                stable++;
+            } else {
+                entry.fingerprint = fingerprint;
+                // counters or locks change far more often than the stack itself
+                int previousStack = entry.snapshot != null ? entry.snapshot.getStackId() : StackTable.NO_STACK;
+                entry.snapshot = frame.toSnapshot(t, previousStack);
+                if (changed == null) changed = new ArrayList<>();
+                changed.add(entry.snapshot);
+            }
+        }
+        // positions past this dump would pin entries of threads that are gone
+        Arrays.fill(byPosition, threads, Math.max(threads, previousThreads), null);
+        previousThreads = threads;
+
+        // forget threads that did not appear in this sample
+        long[] removed = NONE_REMOVED;
+        if (lastSeen.size() > threads) {
+            removed = new long[lastSeen.size() - threads];
+            int r = 0;
+            for (Iterator<Map.Entry<Long, Entry>> it = lastSeen.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Long, Entry> e = it.next();
+                if (e.getValue().seenInCycle != cycle) {
+                    removed[r++] = e.getKey();
+                    it.remove();
+                }
+            }
+        }
+
+        ThreadSnapshot[] unchanged = new ThreadSnapshot[stable];
+        long[] blockedTimes = new long[stable];
+        long[] waitedTimes = new long[stable];
+        for (int i = 0; i < stable; i++) {
+            unchanged[i] = stableEntries[i].snapshot;
+            blockedTimes[i] = frame.getBlockedTime(stableIndex[i]);
+            waitedTimes[i] = frame.getWaitedTime(stableIndex[i]);
+            stableEntries[i] = null;
+        }
+
+        return new SnapshotDelta(frame.getSampleTime(), changed != null ? changed : List.of(),
+                unchanged, blockedTimes, waitedTimes, removed);
+    }
+
+    private static long fingerprint(SampleFrame frame, int t) {
+        long h = frame.getState(t).ordinal();
+        h = 31 * h + frame.getLockOwnerId(t);
+        h = 31 * h + frame.getBlockedCount(t);
+        h = 31 * h + frame.getWaitedCount(t);
+        h = 31 * h + frame.getWaitingLockId(t);
+
+        for (int i = frame.getHeldStart(t); i < frame.getHeldEnd(t); i++) {
+            h = 31 * h + frame.getHeldLockId(i);
+        }
+
+        StackTraceElement[] stack = frame.getStack(t);
+        h = 31 * h + stack.length;
+        for (int i = 0; i < Math.min(stack.length, FINGERPRINT_FRAMES); i++) {
+            h = 31 * h + stack[i].hashCode();
+        }
+        return h;
+    }
+}
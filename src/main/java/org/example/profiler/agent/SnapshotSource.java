@@ -0,0 +1,33 @@
+package org.example.profiler.agent;
+
+/**
+ * A producer of contention data: periodic thread dumps, JFR events, instrumented locks or a
+ * recorded run.
+ *
+ * Sources are polled once per sampling tick by {@link SamplingPipeline} and push what they
+ * have for that tick as one batch: at most one frame and one list of measured timings.
+ * Lock ids must be built with {@link org.example.profiler.monitor.LockEvent#idOf} so data
+ * from different sources lands on the same accumulator.
+ */
+public interface SnapshotSource {
+
+    default void start() {}
+
+    /** Push this tick's batch to {@code sink}, or nothing when there is no new data. */
+    void poll(SampleSink sink);
+
+    default void stop() {}
+
+    /**
+     * @return true when this source measures block durations itself, so blocking must not
+     *         also be derived from sampled frames
+     */
+    default boolean measuresBlocking() {
+        return false;
+    }
+
+    /** @return time the last poll paused application threads, in nanoseconds */
+    default long getLastPauseNanos() {
+        return 0;
+    }
+}
@@ -0,0 +1,109 @@
+package org.example.profiler.agent;
+
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Captures ThreadInfo for all live threads and measures how long the capture paused the JVM.
+ *
+ * In {@link Mode#TARGETED} mode the dump is done in two phases: a cheap state scan without
+ * stacks or lock lists, then a deep dump restricted to contended threads and their lock owners.
+ */
+public class ThreadDumper {
+
+    public enum Mode {
+        /** dumpAllThreads with stacks and lock lists for every thread */
+        FULL,
+        /** state scan first, deep dump only for waiters and owners */
+        TARGETED
+    }
+
+    private final ThreadMXBean mxBean;
+    private final Mode mode;
+    private final int maxDepth;
+
+    private volatile long lastPauseNanos;
+    private volatile int lastDeepCount;
+
+    public ThreadDumper(ThreadMXBean mxBean, Mode mode, int maxDepth) {
+        this.mxBean = mxBean;
+        this.mode = mode;
+        this.maxDepth = maxDepth;
+    }
+
+    public ThreadInfo[] dump() {
+        long start = System.nanoTime();
+        ThreadInfo[] infos = mode == Mode.TARGETED ? targetedDump() : fullDump();
+        lastPauseNanos = System.nanoTime() - start;
+        return infos;
+    }
+
+    private ThreadInfo[] fullDump() {
+        ThreadInfo[] infos = mxBean.dumpAllThreads(true, true, maxDepth);
+        lastDeepCount = infos.length;
+        return infos;
+    }
+
+    private ThreadInfo[] targetedDump() {
+        // 1️⃣ Cheap scan: states and lock owners only, no stacks
+        long[] ids = mxBean.getAllThreadIds();
+        ThreadInfo[] infos = mxBean.getThreadInfo(ids, 0);
+
+        Map<Long, Integer> positions = new HashMap<>();
+        for (int i = 0; i < infos.length; i++) {
+            if (infos[i] != null) positions.put(infos[i].getThreadId(), i);
+        }
+
+        // waiters and the threads they wait on, mapped to their position in infos
+        Map<Long, Integer> targets = new LinkedHashMap<>();
+        for (ThreadInfo info : infos) {
+            if (info == null || !isContended(info)) continue;
+
+            targets.put(info.getThreadId(), positions.get(info.getThreadId()));
+
+            Integer ownerPosition = positions.get(info.getLockOwnerId());
+            if (ownerPosition != null) {
+                targets.put(info.getLockOwnerId(), ownerPosition);
+            }
+        }
+
+        lastDeepCount = targets.size();
+        if (targets.isEmpty()) return infos;
+
+        // 2️⃣ Deep dump only for the targeted threads
+        long[] targetIds = targets.keySet().stream().mapToLong(Long::longValue).toArray();
+        ThreadInfo[] deep = mxBean.getThreadInfo(targetIds, true, true, maxDepth);
+
+        for (int i = 0; i < deep.length; i++) {
+            if (deep[i] != null) {
+                infos[targets.get(targetIds[i])] = deep[i];
+            }
+        }
+        return infos;
+    }
+
+    private static boolean isContended(ThreadInfo info) {
+        return switch (info.getThreadState()) {
+            case BLOCKED -> true;
+            case WAITING, TIMED_WAITING -> info.getLockOwnerId() >= 0;
+            default -> false;
+        };
+    }
+
+    /** @return time spent inside the last dump, in nanoseconds */
+    public long getLastPauseNanos() {
+        return lastPauseNanos;
+    }
+
+    /** @return number of threads dumped with full stacks in the last cycle */
+    public int getLastDeepCount() {
+        return lastDeepCount;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+}
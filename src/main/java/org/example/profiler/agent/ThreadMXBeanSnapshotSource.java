@@ -0,0 +1,24 @@
+package org.example.profiler.agent;
+
+/**
+ * Samples all threads through {@link ThreadDumper} and pushes one delta-encoded frame per tick.
+ */
+public class ThreadMXBeanSnapshotSource implements SnapshotSource {
+
+    private final ThreadDumper dumper;
+    private final SnapshotDeltaEncoder encoder = new SnapshotDeltaEncoder();
+
+    public ThreadMXBeanSnapshotSource(ThreadDumper dumper) {
+        this.dumper = dumper;
+    }
+
+    @Override
+    public void poll(SampleSink sink) {
+        sink.onFrame(this, encoder.encode(dumper.dump(), System.currentTimeMillis()));
+    }
+
+    @Override
+    public long getLastPauseNanos() {
+        return dumper.getLastPauseNanos();
+    }
+}
@@ -0,0 +1,161 @@
+package org.example.profiler.agent;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingStream;
+import org.example.profiler.monitor.LockEvent;
+import org.example.profiler.monitor.LockType;
+import org.example.profiler.monitor.ThreadSnapshot;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Reports virtual threads that block while pinned to their carrier, from jdk.VirtualThreadPinned.
+ *
+ * Virtual threads are invisible to dumpAllThreads, so the sampled sources cannot see them. A
+ * pinned virtual thread holds its carrier for the whole wait; once every carrier is pinned,
+ * runnable virtual threads starve. Each event becomes a {@link LockType#CARRIER_STARVATION}
+ * wait charged to the pinning site: the innermost application frame of the pinned stack,
+ * since JFR does not name the monitor that caused the pin.
+ *
+ * Events wait for the next poll in a buffer of {@value #MAX_PENDING}; when it is full they are
+ * dropped and counted. The event only exists from JDK 21; on older runtimes the stream simply
+ * stays empty.
+ */
+public class VirtualThreadPinningSource implements SnapshotSource {
+
+    public static final String VIRTUAL_THREAD_PINNED = "jdk.VirtualThreadPinned";
+
+    private static final int MAX_PENDING = 65_536;
+
+    private final Duration threshold;
+    private final int carriers;
+    private final ArrayBlockingQueue<LockTiming> pending = new ArrayBlockingQueue<>(MAX_PENDING);
+    // written only by the JFR dispatch thread
+    private volatile long dropped;
+    private RecordingStream stream;
+
+    // Carrier view, updated on every poll
+    private long lastPollNanos = System.nanoTime();
+    private volatile double pinnedCarrierFraction;
+
+    /**
+     * @param threshold minimum pin duration recorded by JFR
+     */
+    public VirtualThreadPinningSource(Duration threshold) {
+        this.threshold = threshold;
+        // same default as the virtual thread scheduler
+        this.carriers = Integer.getInteger("jdk.virtualThreadScheduler.parallelism",
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    @Override
+    public synchronized void start() {
+        if (stream != null) return;
+
+        stream = new RecordingStream();
+        stream.enable(VIRTUAL_THREAD_PINNED).withThreshold(threshold).withStackTrace();
+        stream.onEvent(VIRTUAL_THREAD_PINNED, this::onEvent);
+        stream.setReuse(true);
+        stream.startAsync();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (stream == null) return;
+        stream.close();
+        stream = null;
+    }
+
+    @Override
+    public void poll(SampleSink sink) {
+        List<LockTiming> batch = new ArrayList<>();
+        long pinnedMillis = 0;
+        for (LockTiming timing; (timing = pending.poll()) != null; ) {
+            batch.add(timing);
+            pinnedMillis += timing.durationMillis();
+        }
+
+        long now = System.nanoTime();
+        double windowMillis = Math.max(1, (now - lastPollNanos) / 1_000_000.0);
+        lastPollNanos = now;
+        pinnedCarrierFraction = Math.min(1.0, pinnedMillis / (windowMillis * carriers));
+
+        if (!batch.isEmpty()) {
+            sink.onTimings(this, batch);
+        }
+    }
+
+    /**
+     * @return share of carrier time spent pinned during the last poll window; close to 1
+     *         means virtual threads were starved of carriers
+     */
+    public double getPinnedCarrierFraction() {
+        return pinnedCarrierFraction;
+    }
+
+    public int getCarrierCount() {
+        return carriers;
+    }
+
+    /** @return events dropped because nobody polled before the buffer filled */
+    public long getDroppedEvents() {
+        return dropped;
+    }
+
+    private void onEvent(RecordedEvent event) {
+        RecordedThread thread = event.getThread();
+        if (thread == null) return;
+
+        StackTraceElement[] stack = JfrContentionSource.toStackTrace(event.getStackTrace());
+        StackTraceElement site = pinningSite(stack);
+        String siteName = site != null
+                ? site.getClassName() + "." + site.getMethodName()
+                : "unknown";
+
+        // JDK 24+ also names the carrier and the reason for the pin
+        RecordedThread carrier = event.hasField("carrierThread") ? event.getThread("carrierThread") : null;
+        String reason = event.hasField("pinnedReason") ? event.getString("pinnedReason") : null;
+
+        long endTime = event.getEndTime().toEpochMilli();
+        LockEvent lock = new LockEvent(
+                LockEvent.pinningSiteIdOf(siteName, site != null ? site.getLineNumber() : 0),
+                reason != null ? siteName + " (" + reason + ")" : siteName,
+                LockType.CARRIER_STARVATION,
+                carrier != null ? carrier.getJavaThreadId() : -1,
+                carrier != null ? carrier.getJavaName() : null,
+                stack,
+                event.getStartTime().toEpochMilli(),
+                true
+        );
+
+        ThreadSnapshot waiter = new ThreadSnapshot(
+                thread.getJavaThreadId(),
+                thread.getJavaName(),
+                Thread.State.WAITING,
+                stack,
+                List.of(),
+                List.of(),
+                lock,
+                endTime
+        );
+
+        if (!pending.offer(new LockTiming(LockTiming.Kind.WAIT, lock, waiter, event.getDuration().toMillis(), endTime))) {
+            dropped = dropped + 1;
+        }
+    }
+
+    /** Innermost frame outside the JDK: where the application blocked while pinned */
+    private static StackTraceElement pinningSite(StackTraceElement[] stack) {
+        for (StackTraceElement frame : stack) {
+            String cls = frame.getClassName();
+            if (!cls.startsWith("java.") && !cls.startsWith("jdk.") && !cls.startsWith("sun.")) {
+                return frame;
+            }
+        }
+        return stack.length > 0 ? stack[0] : null;
+    }
+}
@@ -0,0 +1,181 @@
+package org.example.profiler.analysis;
+
+import org.example.profiler.monitor.LockEvent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-lock accumulators of a {@link ContentionAnalyzer} that forget old contention.
+ *
+ * Events go into the newest of a ring of time buckets, each with its own accumulators,
+ * per-thread totals and root blame; buckets that fall out of the span are dropped with
+ * everything in them, so a lock that stops contending disappears and memory is bounded by the
+ * locks and threads active within the span. A query merges the remaining buckets:
+ * <ul>
+ *   <li>sliding window: every bucket counts fully, so totals cover the last
+ *       {@code window}, give or take one bucket at the old end;</li>
+ *   <li>decaying: a bucket counts {@code 2^(-age / halfLife)}, its age taken at its end;
+ *       buckets are a quarter of a half-life and kept for {@value #DECAY_HALF_LIVES}
+ *       half-lives, past which a bucket would weigh less than 1/256.</li>
+ * </ul>
+ * Weighted times and counts are rounded per bucket, so decayed values are off by at most
+ * half a unit per bucket. Waiters, thread names and the longest single block or hold are
+ * merged unweighted: they are observations, not sums.
+ *
+ * Only the newest bucket is ever written, so a query takes a {@link #view} under the
+ * analyzer's lock, which copies just that bucket, and merges the buckets outside it.
+ *
+ * Not thread-safe; the analyzer serializes access.
+ */
+final class AccumulatorWindow {
+
+    static final int DECAY_HALF_LIVES = 8;
+    private static final int BUCKETS_PER_HALF_LIFE = 4;
+
+    private final long bucketMillis;
+    private final long spanMillis;
+    // 0 for a sliding window
+    private final long halfLifeMillis;
+
+    private final ArrayDeque<Bucket> buckets = new ArrayDeque<>();
+
+    private AccumulatorWindow(long bucketMillis, long spanMillis, long halfLifeMillis) {
+        this.bucketMillis = Math.max(1, bucketMillis);
+        this.spanMillis = spanMillis;
+        this.halfLifeMillis = halfLifeMillis;
+    }
+
+    static AccumulatorWindow sliding(long windowMillis, int bucketCount) {
+        if (windowMillis <= 0 || bucketCount <= 0) {
+            throw new IllegalArgumentException("window and bucket count must be positive");
+        }
+        return new AccumulatorWindow(windowMillis / bucketCount, windowMillis, 0);
+    }
+
+    static AccumulatorWindow decaying(long halfLifeMillis) {
+        if (halfLifeMillis <= 0) {
+            throw new IllegalArgumentException("half-life must be positive");
+        }
+        return new AccumulatorWindow(halfLifeMillis / BUCKETS_PER_HALF_LIFE,
+                halfLifeMillis * DECAY_HALF_LIVES, halfLifeMillis);
+    }
+
+    /** Start a new bucket if {@code now} is past the newest one, and drop expired buckets. */
+    void advance(long now) {
+        Bucket newest = buckets.peekLast();
+        if (newest == null || now >= newest.start + bucketMillis) {
+            buckets.addLast(new Bucket(now - Math.floorMod(now, bucketMillis)));
+        }
+        while (!buckets.isEmpty() && buckets.peekFirst().start + bucketMillis <= now - spanMillis) {
+            buckets.removeFirst();
+        }
+    }
+
+    /** @return the accumulator of {@code lock} in the newest bucket */
+    LockContentionAccumulator accumulatorFor(LockEvent lock) {
+        if (buckets.isEmpty()) advance(System.currentTimeMillis());
+
+        Bucket newest = buckets.peekLast();
+        return newest.locks.computeIfAbsent(lock.getLockId(), id ->
+                new LockContentionAccumulator(
+                        lock.getLockId(),
+                        lock.getLockName(),
+                        lock.getLockType())
+        );
+    }
+
+    /** @return the totals of {@code threadId} in the newest bucket */
+    ThreadTotals threadTotalsFor(long threadId) {
+        if (buckets.isEmpty()) advance(System.currentTimeMillis());
+
+        return buckets.peekLast().threads.computeIfAbsent(threadId, id -> new ThreadTotals());
+    }
+
+    /** @return the root blame of the newest bucket */
+    RootBlame rootBlame() {
+        if (buckets.isEmpty()) advance(System.currentTimeMillis());
+
+        return buckets.peekLast().roots;
+    }
+
+    /** @return the buckets as of {@code now}, with the newest one copied so that it can be merged later */
+    View view(long now) {
+        List<Bucket> current = new ArrayList<>(buckets);
+        if (!current.isEmpty()) {
+            current.set(current.size() - 1, current.get(current.size() - 1).copy());
+        }
+        return new View(current, now);
+    }
+
+    private double weight(long now, Bucket bucket) {
+        if (halfLifeMillis == 0) return 1;
+        long age = Math.max(0, now - (bucket.start + bucketMillis));
+        return Math.pow(0.5, (double) age / halfLifeMillis);
+    }
+
+    /** Buckets that no longer change, safe to merge without the analyzer's lock */
+    final class View {
+        private final List<Bucket> buckets;
+        private final long now;
+
+        private View(List<Bucket> buckets, long now) {
+            this.buckets = buckets;
+            this.now = now;
+        }
+
+        /** @return one accumulator per lock, merged over the buckets */
+        List<LockContentionAccumulator> merged() {
+            Map<String, LockContentionAccumulator> merged = new HashMap<>();
+            for (Bucket bucket : buckets) {
+                double weight = weight(now, bucket);
+                bucket.locks.forEach((lockId, acc) -> merged.computeIfAbsent(lockId, id ->
+                        new LockContentionAccumulator(id, acc.getLockName(), acc.getLockType())
+                ).merge(acc, weight));
+            }
+            return new ArrayList<>(merged.values());
+        }
+
+        /** @return per-thread totals, merged over the buckets */
+        Map<Long, ThreadTotals> mergedThreads() {
+            Map<Long, ThreadTotals> merged = new HashMap<>();
+            for (Bucket bucket : buckets) {
+                double weight = weight(now, bucket);
+                bucket.threads.forEach((threadId, totals) ->
+                        merged.computeIfAbsent(threadId, id -> new ThreadTotals()).merge(totals, weight));
+            }
+            return merged;
+        }
+
+        /** @return root blame, merged over the buckets */
+        RootBlame mergedRoots() {
+            RootBlame merged = new RootBlame();
+            for (Bucket bucket : buckets) {
+                merged.merge(bucket.roots, weight(now, bucket));
+            }
+            return merged;
+        }
+    }
+
+    private static final class Bucket {
+        final long start;
+        final Map<String, LockContentionAccumulator> locks = new HashMap<>();
+        final Map<Long, ThreadTotals> threads = new HashMap<>();
+        final RootBlame roots = new RootBlame();
+
+        Bucket(long start) {
+            this.start = start;
+        }
+
+        Bucket copy() {
+            Bucket copy = new Bucket(start);
+            locks.forEach((lockId, acc) -> copy.locks.put(lockId, acc.copy()));
+            threads.forEach((threadId, totals) -> copy.threads.put(threadId, totals.copy()));
+            copy.roots.merge(roots, 1);
+            return copy;
+        }
+    }
+}
@@ -3,48 +3,122 @@ package org.example.profiler.analysis;
 import org.example.profiler.agent.ProfilerStats;
 import org.example.profiler.monitor.HotLockRecord;
 import org.example.profiler.monitor.LockEvent;
+import org.example.profiler.monitor.LockType;
+import org.example.profiler.monitor.SnapshotDelta;
 import org.example.profiler.monitor.ThreadSnapshot;
 
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.LongAdder;
-
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Turns samples and lock events into per-lock contention records.
+ *
+ * Writers (the ingest and record methods) synchronize on the analyzer. Queries serialize on
+ * a separate lock and hold the analyzer's only briefly: to hand off what they need, such as
+ * the buckets of a window, or to build the records of live accumulators a chunk at a time,
+ * letting writers in between chunks.
+ */
 public class ContentionAnalyzer {
+
+    // Ascending by blocked time, ties by descending lock id, so that results never depend on
+    // the order in which locks were accumulated
+    private static final Comparator<ContentionRecord> RECORD_ORDER =
+            Comparator.comparingLong(ContentionRecord::totalBlockedTime)
+                    .thenComparing(ContentionRecord::lockId, Comparator.reverseOrder());
+    // Records built per hold of the writer lock when reporting live accumulators
+    private static final int RECORD_CHUNK = 1000;
+    private static final Comparator<HotLockRecord> HOT_LOCK_ORDER =
+            Comparator.comparingLong(HotLockRecord::totalBlockedTime)
+                    .thenComparing(HotLockRecord::lockId, Comparator.reverseOrder());
+
     private final ConcurrentHashMap<String, LockContentionAccumulator> lockMap = new ConcurrentHashMap<>();
+    private final Object queryLock = new Object();
+    private volatile Set<LockType> sampledLockTypes = EnumSet.allOf(LockType.class);
+    private final ContentionStream stream;
+    private final IncrementalWFG waitForGraph = new IncrementalWFG();
+    // Stall blamed on each root blocker, like the locks: since start, or capped at the locks
+    // tracked when approximate; null with a window, whose buckets hold it instead
+    private final RootBlame rootBlame;
+    private long lastDeltaTime = -1;
+    // Lock orders not seen for an hour are forgotten, and at most 10000 are kept
+    private final LockOrderGraph lockOrder = new LockOrderGraph(Duration.ofHours(1).toMillis(), 10_000);
+    // At most one is set; with neither, every lock is accumulated since start in lockMap
+    private final AccumulatorWindow window;
+    private final HeavyHitterLocks heavyHitters;
+
+    /** Accumulates contention since the analyzer was created. */
+    public ContentionAnalyzer() {
+        this(null, null);
+    }
 
-    public List<ContentionRecord> analyzeLockContention(Map<Long, ThreadHistory> threadHistories) {
-        Map<String, LockContentionAccumulator> lockMap = new HashMap<>();
+    private ContentionAnalyzer(AccumulatorWindow window, HeavyHitterLocks heavyHitters) {
+        this.window = window;
+        this.heavyHitters = heavyHitters;
+        this.rootBlame = window != null ? null : new RootBlame(heavyHitters != null ? heavyHitters.maxLocks() : 0);
+        this.stream = new ContentionStream(this::accumulatorFor, window != null ? window::threadTotalsFor : null);
+    }
 
-        // 1️⃣ Build LockContentionAccumulators from snapshots
-        for (ThreadHistory history : threadHistories.values()) {
-            List<ThreadSnapshot> snapshots = history.getSnapshots();
+    /**
+     * An analyzer whose {@link #topRecords} cover only the last {@code window}, kept as
+     * {@code buckets} buckets; locks drop out once their last bucket expires.
+     */
+    public static ContentionAnalyzer slidingWindow(Duration window, int buckets) {
+        return new ContentionAnalyzer(AccumulatorWindow.sliding(window.toMillis(), buckets), null);
+    }
 
-            for (int i = 1; i < snapshots.size(); i++) {
-                ThreadSnapshot prev = snapshots.get(i - 1);
-                ThreadSnapshot curr = snapshots.get(i);
+    /**
+     * An analyzer whose {@link #topRecords} weigh contention by {@code 2^(-age / halfLife)};
+     * locks drop out once they have not contended for {@value AccumulatorWindow#DECAY_HALF_LIVES}
+     * half-lives.
+     */
+    public static ContentionAnalyzer decaying(Duration halfLife) {
+        return new ContentionAnalyzer(AccumulatorWindow.decaying(halfLife.toMillis()), null);
+    }
 
-                if (!prev.isBlocked() || prev.getLockWaitingOn() == null) continue;
+    /**
+     * An analyzer in fixed memory that tracks at most {@code maxLocks} locks, as many root
+     * blockers, and {@code maxStacks} owners and stacks per lock, keeping the heaviest; records
+     * carry a bound of what was missed, see {@link HeavyHitterLocks}. A few times the top-K asked for
+     * is enough for that top-K to be accurate.
+     */
+    public static ContentionAnalyzer approximate(int maxLocks, int maxStacks) {
+        return new ContentionAnalyzer(null, new HeavyHitterLocks(maxLocks, maxStacks));
+    }
 
-                LockEvent lock = prev.getLockWaitingOn();
+    /**
+     * Restrict which lock types {@link #ingest} derives from samples, e.g. when another
+     * source already reports exact timings for java.util.concurrent locks.
+     */
+    public void setSampledLockTypes(Set<LockType> lockTypes) {
+        this.sampledLockTypes = EnumSet.copyOf(lockTypes);
+    }
 
-                LockContentionAccumulator acc =
-                        lockMap.computeIfAbsent(
-                                lock.getLockId(),
-                                id -> new LockContentionAccumulator(
-                                        lock.getLockId(),
-                                        lock.getLockName(),
-                                        lock.getLockType()
-                                )
-                        );
+    public List<ContentionRecord> analyzeLockContention(Map<Long, ThreadHistory> threadHistories) {
+        return analyzeLockContention(threadHistories, null);
+    }
 
-                acc.recordBlock(lock, prev, curr);
-            }
-        }
+    /**
+     * Like {@link #analyzeLockContention(Map)}, splitting the histories across {@code pool}.
+     * Each task accumulates its histories into per-lock partial states, which are then merged,
+     * so the records are exactly those of the sequential analysis.
+     *
+     * @param pool null to analyze in the calling thread
+     */
+    public List<ContentionRecord> analyzeLockContention(Map<Long, ThreadHistory> threadHistories,
+                                                        ForkJoinPool pool) {
+        // 1️⃣ Build LockContentionAccumulators from snapshots, one partial map per task
+        Map<String, LockContentionAccumulator> lockMap = ForkJoinReduce.reduce(
+                List.copyOf(threadHistories.values()),
+                pool,
+                HashMap::new,
+                ContentionAnalyzer::accumulateHistory,
+                ContentionAnalyzer::mergeAccumulators
+        );
 
         // 2️⃣ Use a max-heap to avoid full sort
-        PriorityQueue<ContentionRecord> pq = new PriorityQueue<>(
-                Comparator.comparingLong(ContentionRecord::totalBlockedTime)
-        );
+        PriorityQueue<ContentionRecord> pq = new PriorityQueue<>(RECORD_ORDER);
 
         for (LockContentionAccumulator acc : lockMap.values()) {
             ContentionRecord record = acc.toRecord();
@@ -61,84 +135,149 @@ public class ContentionAnalyzer {
         return records;
     }
 
-    public List<HotLockRecord> analyzeHotLocks(Map<String, LockHistory> lockHistories, long observationWindowMs) {
-        PriorityQueue<HotLockRecord> pq = new PriorityQueue<>(
-                Comparator.comparingLong(HotLockRecord::totalBlockedTime)
-        );
+    private static void accumulateHistory(Map<String, LockContentionAccumulator> lockMap, ThreadHistory history) {
+        List<ThreadSnapshot> snapshots = history.getSnapshots();
 
-        for (LockHistory history : lockHistories.values()) {
-            List<LockEvent> events = history.getEvents();
-            if (events.isEmpty()) continue;
+        for (int i = 1; i < snapshots.size(); i++) {
+            ThreadSnapshot prev = snapshots.get(i - 1);
+            ThreadSnapshot curr = snapshots.get(i);
 
-            Set<Long> blockedThreadIds = new HashSet<>();
-            Set<String> blockedThreadNames = new HashSet<>();
-            Map<Long, Integer> ownershipFrequency = new HashMap<>();
-            Map<StackTraceKey, Integer> blockingStacks = new HashMap<>();
+            LockEvent lock = blockingLock(prev, curr);
+            if (lock == null) continue;
 
-            long totalBlockedTime = 0;
-            long maxSingleBlock = 0;
-            int blockCount = 0;
-            long lastTimestamp = 0;
+            LockContentionAccumulator acc =
+                    lockMap.computeIfAbsent(
+                            lock.getLockId(),
+                            id -> new LockContentionAccumulator(
+                                    lock.getLockId(),
+                                    lock.getLockName(),
+                                    lock.getLockType()
+                            )
+                    );
 
-            for (int i = 1; i < events.size(); i++) {
-                LockEvent prev = events.get(i - 1);
-                LockEvent curr = events.get(i);
+            acc.recordBlock(lock, prev, curr);
+        }
+    }
 
-                if (!prev.isContended()) continue;
+    /** Merge the smaller partial map into the larger one */
+    private static Map<String, LockContentionAccumulator> mergeAccumulators(
+            Map<String, LockContentionAccumulator> a,
+            Map<String, LockContentionAccumulator> b
+    ) {
+        Map<String, LockContentionAccumulator> into = a.size() >= b.size() ? a : b;
+        Map<String, LockContentionAccumulator> from = into == a ? b : a;
+        from.forEach((lockId, acc) -> into.merge(lockId, acc, LockContentionAccumulator::merge));
+        return into;
+    }
 
-                long delta = curr.getAcquiredTime() - prev.getAcquiredTime();
-                totalBlockedTime += delta;
-                maxSingleBlock = Math.max(maxSingleBlock, delta);
-                blockCount++;
-                lastTimestamp = Math.max(lastTimestamp, curr.getAcquiredTime());
+    /**
+     * The lock to charge for the interval between two snapshots: the lock {@code prev} was
+     * blocked on, or, when the JVM counters show blocks the sampler did not see, the lock
+     * {@code curr} is blocked on.
+     */
+    static LockEvent blockingLock(ThreadSnapshot prev, ThreadSnapshot curr) {
+        if (prev.isBlocked() && prev.getLockWaitingOn() != null) {
+            return prev.getLockWaitingOn();
+        }
+        if (curr.isBlocked() && curr.getLockWaitingOn() != null
+                && curr.hasContentionCounters() && prev.hasContentionCounters()
+                && curr.getBlockedCount() > prev.getBlockedCount()) {
+            return curr.getLockWaitingOn();
+        }
+        return null;
+    }
 
-                blockedThreadIds.add(prev.getOwnerThreadId());
-                blockedThreadNames.add(prev.getOwnerThreadName());
+    public List<HotLockRecord> analyzeHotLocks(Map<String, LockHistory> lockHistories, long observationWindowMs) {
+        return analyzeHotLocks(lockHistories, observationWindowMs, null);
+    }
 
-                ownershipFrequency.merge(prev.getOwnerThreadId(), 1, Integer::sum);
+    /**
+     * Like {@link #analyzeHotLocks(Map, long)}, splitting the histories across {@code pool};
+     * every history is one lock, so partial results only need to be concatenated.
+     *
+     * @param pool null to analyze in the calling thread
+     */
+    public List<HotLockRecord> analyzeHotLocks(Map<String, LockHistory> lockHistories, long observationWindowMs,
+                                               ForkJoinPool pool) {
+        List<HotLockRecord> hotLocks = ForkJoinReduce.reduce(
+                List.copyOf(lockHistories.values()),
+                pool,
+                ArrayList::new,
+                (records, history) -> {
+                    HotLockRecord record = hotLockRecord(history, observationWindowMs);
+                    if (record != null) records.add(record);
+                },
+                (a, b) -> {
+                    a.addAll(b);
+                    return a;
+                }
+        );
 
-                StackTraceKey key = new StackTraceKey(List.of(prev.getStackTrace()));
-                blockingStacks.merge(key, 1, Integer::sum);
-            }
+        hotLocks.sort(HOT_LOCK_ORDER.reversed()); // largest totalBlockedTime first
+        return hotLocks;
+    }
 
-            if (totalBlockedTime > 0) {
-                long mainOwnerId = ownershipFrequency.entrySet().stream()
-                        .max(Map.Entry.comparingByValue())
-                        .map(Map.Entry::getKey)
-                        .orElse(-1L);
+    private static HotLockRecord hotLockRecord(LockHistory history, long observationWindowMs) {
+        List<LockEvent> events = history.getEvents();
+        if (events.isEmpty()) return null;
 
-                String mainOwnerName = null;
+        LongHashSet blockedThreadIds = new LongHashSet();
+        Set<String> blockedThreadNames = new HashSet<>();
+        LongIntHashMap ownershipFrequency = new LongIntHashMap();
+        LongIntHashMap blockingStacks = new LongIntHashMap();
 
-                HotLockRecord record = new HotLockRecord(
-                        history.getLockId(),
-                        history.getLockName(),
-                        history.getLockType(),
-                        mainOwnerId,
-                        mainOwnerName,
-                        List.copyOf(blockedThreadIds),
-                        List.copyOf(blockedThreadNames),
-                        blockCount,
-                        blockedThreadIds.size(),
-                        totalBlockedTime,
-                        maxSingleBlock,
-                        Map.copyOf(ownershipFrequency),
-                        lastTimestamp,
-                        Map.copyOf(blockingStacks),
-                        observationWindowMs
-                );
+        long totalBlockedTime = 0;
+        long maxSingleBlock = 0;
+        int blockCount = 0;
+        long lastTimestamp = 0;
 
-                pq.offer(record);
+        for (int i = 1; i < events.size(); i++) {
+            LockEvent prev = events.get(i - 1);
+            LockEvent curr = events.get(i);
+
+            if (!prev.isContended()) continue;
+
+            long delta = curr.getAcquiredTime() - prev.getAcquiredTime();
+            totalBlockedTime += delta;
+            maxSingleBlock = Math.max(maxSingleBlock, delta);
+            blockCount++;
+            lastTimestamp = Math.max(lastTimestamp, curr.getAcquiredTime());
+
+            if (blockedThreadIds.add(prev.getOwnerThreadId())) {
+                blockedThreadNames.add(prev.getOwnerThreadName());
             }
-        }
 
-        // Extract all records from heap in descending order
-        List<HotLockRecord> hotLocks = new ArrayList<>();
-        while (!pq.isEmpty()) {
-            hotLocks.add(pq.poll());
+            ownershipFrequency.addTo(prev.getOwnerThreadId(), 1);
+
+            blockingStacks.addTo(prev.getStackId(), 1);
         }
-        Collections.reverse(hotLocks); // largest totalBlockedTime first
 
-        return hotLocks;
+        if (totalBlockedTime > 0) {
+            long mainOwnerId = ownershipFrequency.maxKey(-1);
+
+            String mainOwnerName = null;
+
+            HotLockRecord record = new HotLockRecord(
+                    history.getLockId(),
+                    history.getLockName(),
+                    history.getLockType(),
+                    mainOwnerId,
+                    mainOwnerName,
+                    blockedThreadIds.toList(),
+                    List.copyOf(blockedThreadNames),
+                    blockCount,
+                    blockedThreadIds.size(),
+                    totalBlockedTime,
+                    maxSingleBlock,
+                    ownershipFrequency.toMap(),
+                    lastTimestamp,
+                    LockContentionAccumulator.stackKeys(blockingStacks),
+                    observationWindowMs
+            );
+
+            return record;
+        }
+        return null;
     }
 
     public static WFG buildWaitForGraph(List<ThreadSnapshot> snapshotBatch) {
@@ -168,116 +307,354 @@ public class ContentionAnalyzer {
         return wfg;
     }
 
+    /** Threads and locks of the latest snapshot of every thread in the batch, see {@link ResourceAllocationGraph}. */
+    public static ResourceAllocationGraph buildResourceAllocationGraph(List<ThreadSnapshot> snapshotBatch) {
+        return ResourceAllocationGraph.build(snapshotBatch);
+    }
+
+    /**
+     * Locks that different threads, over all ingested samples, took in conflicting orders, so
+     * that they can deadlock; see {@link LockOrderGraph}.
+     */
+    public synchronized List<LockOrderViolation> lockOrderViolations() {
+        return lockOrder.getViolations();
+    }
+
     public List<List<Long>> detectDeadBlocks(WFG wfg) {
         return wfg.getDeadBlocks();
     }
 
+    /**
+     * Deadlocks in the latest sample fed to {@link #ingest(SnapshotDelta, long)}, from a wait-for
+     * graph that each sample updates only where threads changed.
+     *
+     * @return rings of thread ids, each starting at its smallest id
+     */
+    public synchronized List<List<Long>> currentDeadlocks() {
+        return waitForGraph.getDeadlocks();
+    }
+
+    /** @return {@code threadId} and the chain of owners it waits on, as of the latest sample */
+    public synchronized List<Long> currentWaitChain(long threadId) {
+        return waitForGraph.chainOf(threadId);
+    }
+
+    /**
+     * Threads, or deadlock rings, at the ends of wait chains, ranked by the stall of all the
+     * threads waiting on them directly or transitively, over the samples fed to
+     * {@link #ingest(SnapshotDelta, long)}. Every sample costs time linear in its wait edges.
+     * Like {@link #topRecords}, stall covers the window or decay as configured, and an
+     * approximate analyzer keeps as many roots as locks, see {@link RootBlame}.
+     *
+     * @param topK number of root blockers to return, or 0 for all
+     * @return largest inducedStallTime first
+     */
+    public List<RootBlocker> topRootBlockers(int topK) {
+        synchronized (queryLock) {
+            AccumulatorWindow.View view = null;
+            List<RootBlocker> blockers = null;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                advance(now);
+                if (window != null) {
+                    view = window.view(now);
+                } else {
+                    blockers = rootBlame.values();
+                }
+            }
+            if (view != null) blockers = view.mergedRoots().values();
+            return ranked(blockers, topK);
+        }
+    }
+
+    private static List<RootBlocker> ranked(List<RootBlocker> blockers, int topK) {
+        blockers.sort(Comparator.comparingLong(RootBlocker::inducedStallTime).reversed()
+                .thenComparing(blocker -> blocker.threadIds().get(0)));
+        return topK > 0 && blockers.size() > topK ? new ArrayList<>(blockers.subList(0, topK)) : blockers;
+    }
+
+    /** Root blockers of a batch wait-for graph, see {@link WFG#rankRootBlockers(int)}. */
+    public List<RootBlocker> rankRootBlockers(WFG wfg, int topK) {
+        return wfg.rankRootBlockers(topK);
+    }
+
     public List<ContentionRecord> generateContentionRecords(List<ThreadSnapshot> snapshotBatch, int topK) {
+        ingest(snapshotBatch);
+        return topRecords(topK);
+    }
 
-        Map<Long, ThreadSnapshot> lastSnapshotPerThread = new HashMap<>();
+    /**
+     * Feed a batch of sampled snapshots into the accumulators.
+     * The batch is split into its samples by sample time, and each is ingested as a fully
+     * materialized {@link SnapshotDelta}, so consecutive batches from a periodic sampler are
+     * chained together. A thread missing from a sample is taken to be gone and forgotten.
+     */
+    public void ingest(List<ThreadSnapshot> snapshotBatch) {
+        ingest(snapshotBatch, 0);
+    }
 
-        // 1️⃣ Process each snapshot
+    /**
+     * Like {@link #ingest(List)}, additionally counting every observed waiter as one hit of
+     * the sample-count estimator.
+     *
+     * @param meanIntervalMs expected interval between samples, 0 to skip the estimator
+     */
+    public synchronized void ingest(List<ThreadSnapshot> snapshotBatch, long meanIntervalMs) {
+        // sample time -> the threads of that sample, oldest first
+        TreeMap<Long, List<ThreadSnapshot>> samples = new TreeMap<>();
         for (ThreadSnapshot snapshot : snapshotBatch) {
-            long threadId = snapshot.getThreadId();
-            ThreadSnapshot prevSnapshot = lastSnapshotPerThread.get(threadId);
-            lastSnapshotPerThread.put(threadId, snapshot);
-
-            LockEvent waitLock = snapshot.getLockWaitingOn();
-            if (waitLock != null && waitLock.isOwned()) {
-                String lockId = waitLock.getLockId();
-
-                LockContentionAccumulator acc = lockMap.computeIfAbsent(lockId, id ->
-                        new LockContentionAccumulator(
-                                waitLock.getLockId(),
-                                waitLock.getLockName(),
-                                waitLock.getLockType())
-                );
+            samples.computeIfAbsent(snapshot.getSampleTime(), time -> new ArrayList<>()).add(snapshot);
+        }
 
-                if (prevSnapshot != null) {
-                    acc.recordBlock(waitLock, prevSnapshot, snapshot);
+        for (Map.Entry<Long, List<ThreadSnapshot>> sample : samples.entrySet()) {
+            ingest(SnapshotDelta.full(sample.getKey(), sample.getValue()), meanIntervalMs);
+        }
+    }
+
+    /**
+     * Ingest one delta-encoded sample without expanding it: only threads that changed since
+     * the previous sample are looked at, and a thread that keeps waiting is charged once, when
+     * its wait ends or a query needs it (see {@link ContentionStream}). {@link #ingest(List, long)}
+     * goes through here too, so both share per-thread state.
+     *
+     * @param meanIntervalMs expected interval between samples, 0 to skip the estimator
+     */
+    public synchronized void ingest(SnapshotDelta delta, long meanIntervalMs) {
+        advance(delta.getSampleTime());
+        Set<LockType> lockTypes = sampledLockTypes;
+        stream.ingest(delta, meanIntervalMs, lock -> lockTypes.contains(lock.getLockType()));
+        waitForGraph.update(delta);
+        // unchanged threads hold the same locks, so they show no new orders
+        for (ThreadSnapshot snapshot : delta.getChanged()) {
+            lockOrder.observe(snapshot);
+        }
+
+        // Charge this sample's stall to the roots of the wait chains
+        long interval = meanIntervalMs > 0 ? meanIntervalMs
+                : lastDeltaTime < 0 ? 0 : Math.max(0, delta.getSampleTime() - lastDeltaTime);
+        lastDeltaTime = delta.getSampleTime();
+        if (interval > 0) {
+            RootBlame blame = window != null ? window.rootBlame() : rootBlame;
+            for (RootBlocker blocker : waitForGraph.rootBlockers(interval)) {
+                blame.add(blocker);
+            }
+        }
+    }
+
+    /**
+     * Record a single block event with an exact duration, as reported by event-based sources.
+     */
+    public synchronized void recordBlock(LockEvent lock, ThreadSnapshot waiter, long durationMillis, long timestamp) {
+        advance(timestamp);
+        accumulatorFor(lock).recordBlock(lock, waiter, durationMillis, timestamp);
+    }
+
+    /**
+     * Record the hold time of a contended acquisition, as reported by instrumented locks.
+     */
+    public synchronized void recordHold(LockEvent lock, long durationMillis) {
+        accumulatorFor(lock).recordHold(durationMillis);
+    }
+
+    /**
+     * Threads that spent the most time waiting on locks, from the samples ingested so far. Like {@link #topRecords}, totals cover the
+     * window or decay as configured; otherwise they are kept from start until a sample shows
+     * the thread gone.
+     *
+     * @param topK number of threads to return, or 0 for all
+     * @return largest totalBlockedTime first
+     */
+    public List<BlockedThreadStats> topBlockedThreads(int topK) {
+        synchronized (queryLock) {
+            AccumulatorWindow.View view;
+            Map<Long, ThreadSnapshot> lastSnapshots;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                advance(now);
+                stream.flush();
+                if (window == null) return stream.topThreads(topK);
+
+                view = window.view(now);
+                lastSnapshots = stream.lastSnapshots();
+            }
+            return ContentionStream.topThreads(view.mergedThreads(), lastSnapshots, topK);
+        }
+    }
+
+    /**
+     * @param topK number of records to return, or 0 for all
+     * @return accumulated records, largest totalBlockedTime first
+     */
+    public List<ContentionRecord> topRecords(int topK) {
+        synchronized (queryLock) {
+            // 1️⃣ Hand off: bring the accumulators up to date and pick what to report
+            AccumulatorWindow.View view = null;
+            List<LockContentionAccumulator> top = null;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                advance(now);
+                stream.flush();
+                if (window != null) {
+                    view = window.view(now);
                 } else {
-                    acc.recordBlock(waitLock, snapshot, snapshot);
+                    top = top(heavyHitters != null ? heavyHitters.accumulators() : lockMap.values(), topK);
+                }
+            }
+
+            // 2️⃣ Window buckets are handed off whole: merge and build records without the writers
+            if (view != null) {
+                List<ContentionRecord> records = new ArrayList<>();
+                for (LockContentionAccumulator acc : top(view.merged(), topK)) {
+                    records.add(acc.toRecord());
                 }
+                return records;
             }
+
+            // 3️⃣ A record is a snapshot of its live accumulator, so no copy is needed first
+            List<ContentionRecord> records = new ArrayList<>(top.size());
+            for (int from = 0; from < top.size(); from += RECORD_CHUNK) {
+                synchronized (this) {
+                    for (LockContentionAccumulator acc : top.subList(from, Math.min(top.size(), from + RECORD_CHUNK))) {
+                        records.add(acc.toRecord());
+                    }
+                }
+            }
+            // writers may have added blocked time between chunks
+            if (top.size() > RECORD_CHUNK) records.sort(RECORD_ORDER.reversed());
+            return records;
         }
+    }
 
-        // 2️⃣ Use a max-heap (priority queue) to get top hot locks
-        PriorityQueue<ContentionRecord> pq = new PriorityQueue<>(
-                Comparator.comparingLong(ContentionRecord::totalBlockedTime)
+    private static List<LockContentionAccumulator> top(Collection<LockContentionAccumulator> accumulators, int topK) {
+        // Use a min-heap (priority queue) to get top hot locks; only those become records
+        PriorityQueue<LockContentionAccumulator> pq = new PriorityQueue<>(
+                Comparator.comparingLong(LockContentionAccumulator::getTotalBlockedTime)
         );
 
-        for (LockContentionAccumulator acc : lockMap.values()) {
-            ContentionRecord record = acc.toRecord();
-
-            if (topK > 0) {
-                pq.offer(record);
-                if (pq.size() > topK) pq.poll(); // keep only top K
-            } else {
-                pq.offer(record);
-            }
+        for (LockContentionAccumulator acc : accumulators) {
+            pq.offer(acc);
+            if (topK > 0 && pq.size() > topK) pq.poll(); // keep only top K
         }
 
-        // 3️⃣ Extract from heap into a descending list
-        List<ContentionRecord> records = new ArrayList<>();
+        // Extract from heap into a descending list
+        List<LockContentionAccumulator> top = new ArrayList<>(pq.size());
         while (!pq.isEmpty()) {
-            records.add(pq.poll());
+            top.add(pq.poll());
         }
-        Collections.reverse(records); // largest totalBlockedTime first
+        Collections.reverse(top); // largest totalBlockedTime first
+        return top;
+    }
 
-        return records;
+    private void advance(long now) {
+        if (window != null) window.advance(now);
+    }
+
+    private LockContentionAccumulator accumulatorFor(LockEvent lock) {
+        if (window != null) return window.accumulatorFor(lock);
+        if (heavyHitters != null) return heavyHitters.accumulatorFor(lock);
+
+        return lockMap.computeIfAbsent(lock.getLockId(), id ->
+                new LockContentionAccumulator(
+                        lock.getLockId(),
+                        lock.getLockName(),
+                        lock.getLockType())
+        );
     }
 
     public Map<String, Object> aggregateStatistics(
             Map<Long, ThreadHistory> threadHistories,
             Map<String, LockHistory> lockHistories
     ) {
-        Map<String, Object> stats = new HashMap<>();
+        return aggregateStatistics(threadHistories, lockHistories, null);
+    }
 
+    /**
+     * Like {@link #aggregateStatistics(Map, Map)}, splitting the histories across {@code pool}
+     * and merging the partial statistics.
+     *
+     * @param pool null to aggregate in the calling thread
+     */
+    public Map<String, Object> aggregateStatistics(
+            Map<Long, ThreadHistory> threadHistories,
+            Map<String, LockHistory> lockHistories,
+            ForkJoinPool pool
+    ) {
         // 1️⃣ Thread-level statistics
-        long totalThreads = threadHistories.size();
-        long totalBlockedThreads = 0;
-        long totalBlockedTime = 0;
-        long maxBlockedTime = 0;
-        LongAdder totalBlockEvents = new LongAdder();
-
-        // For hot threads
-        PriorityQueue<Map.Entry<Long, Long>> hotThreads = new PriorityQueue<>(
-                Comparator.comparingLong(Map.Entry::getValue)
-        ); // min-heap
-
-        // Compute thread stats
-        for (ThreadHistory history : threadHistories.values()) {
-            long threadBlockedTime = 0;
-            List<ThreadSnapshot> snapshots = history.getSnapshots();
-            for (int i = 1; i < snapshots.size(); i++) {
-                ThreadSnapshot prev = snapshots.get(i - 1);
-                ThreadSnapshot curr = snapshots.get(i);
-                if (prev.isBlocked()) {
-                    long delta = curr.getSampleTime() - prev.getSampleTime();
-                    threadBlockedTime += delta;
-                    totalBlockedTime += delta;
-                    totalBlockEvents.increment();
+        Statistics threads = ForkJoinReduce.reduce(
+                List.copyOf(threadHistories.values()), pool,
+                Statistics::new, Statistics::addThread, Statistics::merge);
+
+        // 2️⃣ Lock-level statistics
+        Statistics locks = ForkJoinReduce.reduce(
+                List.copyOf(lockHistories.values()), pool,
+                Statistics::new, Statistics::addLock, Statistics::merge);
+
+        // 3️⃣ Aggregate into stats map
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("totalThreads", (long) threadHistories.size());
+        stats.put("totalBlockedThreads", threads.totalBlockedThreads);
+        stats.put("totalBlockedTime", threads.totalBlockedTime);
+        stats.put("maxBlockedTimePerThread", threads.maxBlockedTime);
+        stats.put("totalBlockEvents", threads.totalBlockEvents);
+
+        stats.put("totalLocks", (long) lockHistories.size());
+        stats.put("totalContendedLocks", locks.totalContendedLocks);
+        stats.put("maxBlockedTimePerLock", locks.maxLockBlockedTime);
+
+        stats.put("topHotThreads", descending(threads.hotThreads));
+        stats.put("topHotLocks", descending(locks.hotLocks));
+
+        return stats;
+    }
+
+    private static <T> List<T> descending(PriorityQueue<T> heap) {
+        List<T> top = new ArrayList<>();
+        while (!heap.isEmpty()) top.add(heap.poll());
+        Collections.reverse(top);
+        return top;
+    }
+
+    /** Mergeable partial state of {@link #aggregateStatistics} */
+    private static final class Statistics {
+
+        private static final int TOP = 5;
+
+        long totalBlockedThreads;
+        long totalBlockedTime;
+        long maxBlockedTime;
+        long totalBlockEvents;
+
+        long totalContendedLocks;
+        long maxLockBlockedTime;
+
+        // min-heaps of the top entries; ties broken by id so that merge order does not matter
+        final PriorityQueue<Map.Entry<Long, Long>> hotThreads = new PriorityQueue<>(
+                Map.Entry.<Long, Long>comparingByValue().thenComparing(Map.Entry.comparingByKey(Comparator.reverseOrder()))
+        );
+        final PriorityQueue<HotLockRecord> hotLocks = new PriorityQueue<>(HOT_LOCK_ORDER);
+
+        void addThread(ThreadHistory history) {
+            long threadBlockedTime = history.getTotalBlockedTime();
+            totalBlockedTime += threadBlockedTime;
+
+            long threadBlockCount = history.getTotalBlockedCount();
+            if (threadBlockCount >= 0) {
+                totalBlockEvents += threadBlockCount;
+            } else {
+                List<ThreadSnapshot> snapshots = history.getSnapshots();
+                for (int i = 1; i < snapshots.size(); i++) {
+                    if (snapshots.get(i - 1).isBlocked()) totalBlockEvents++;
                 }
             }
 
             if (threadBlockedTime > 0) {
                 totalBlockedThreads++;
                 maxBlockedTime = Math.max(maxBlockedTime, threadBlockedTime);
-                hotThreads.offer(Map.entry(history.getThreadId(), threadBlockedTime));
-                if (hotThreads.size() > 5) hotThreads.poll(); // keep top 5
+                offer(hotThreads, Map.entry(history.getThreadId(), threadBlockedTime));
             }
         }
 
-        // 2️⃣ Lock-level statistics
-        long totalLocks = lockHistories.size();
-        long totalContendedLocks = 0;
-        long maxLockBlockedTime = 0;
-
-        PriorityQueue<HotLockRecord> hotLocksHeap = new PriorityQueue<>(
-                Comparator.comparingLong(HotLockRecord::totalBlockedTime)
-        );
-
-        for (LockHistory history : lockHistories.values()) {
+        void addLock(LockHistory history) {
             List<LockEvent> events = history.getEvents();
             long lockBlockedTime = 0;
             for (int i = 1; i < events.size(); i++) {
@@ -307,36 +684,28 @@ public class ContentionAnalyzer {
                         Collections.emptyMap(),
                         0
                 );
-                hotLocksHeap.offer(record);
-                if (hotLocksHeap.size() > 5) hotLocksHeap.poll();
+                offer(hotLocks, record);
             }
         }
 
-        // Extract top hot threads
-        List<Map.Entry<Long, Long>> topHotThreads = new ArrayList<>();
-        while (!hotThreads.isEmpty()) topHotThreads.add(hotThreads.poll());
-        Collections.reverse(topHotThreads);
+        Statistics merge(Statistics other) {
+            totalBlockedThreads += other.totalBlockedThreads;
+            totalBlockedTime += other.totalBlockedTime;
+            maxBlockedTime = Math.max(maxBlockedTime, other.maxBlockedTime);
+            totalBlockEvents += other.totalBlockEvents;
 
-        // Extract top hot locks
-        List<HotLockRecord> topHotLocks = new ArrayList<>();
-        while (!hotLocksHeap.isEmpty()) topHotLocks.add(hotLocksHeap.poll());
-        Collections.reverse(topHotLocks);
-
-        // 3️⃣ Aggregate into stats map
-        stats.put("totalThreads", totalThreads);
-        stats.put("totalBlockedThreads", totalBlockedThreads);
-        stats.put("totalBlockedTime", totalBlockedTime);
-        stats.put("maxBlockedTimePerThread", maxBlockedTime);
-        stats.put("totalBlockEvents", totalBlockEvents.sum());
+            totalContendedLocks += other.totalContendedLocks;
+            maxLockBlockedTime = Math.max(maxLockBlockedTime, other.maxLockBlockedTime);
 
-        stats.put("totalLocks", totalLocks);
-        stats.put("totalContendedLocks", totalContendedLocks);
-        stats.put("maxBlockedTimePerLock", maxLockBlockedTime);
-
-        stats.put("topHotThreads", topHotThreads);
-        stats.put("topHotLocks", topHotLocks);
+            other.hotThreads.forEach(entry -> offer(hotThreads, entry));
+            other.hotLocks.forEach(record -> offer(hotLocks, record));
+            return this;
+        }
 
-        return stats;
+        private static <T> void offer(PriorityQueue<T> heap, T item) {
+            heap.offer(item);
+            if (heap.size() > TOP) heap.poll();
+        }
     }
 
     public static ProfilerStats analyze(List<ThreadSnapshot> snapshots) {
@@ -27,7 +27,24 @@ public record ContentionRecord(
         AtomicInteger maxOwnership,
         long lastTimestamp,
 
-        Map<StackTraceKey, Integer> blockingStacks
+        Map<StackTraceKey, Integer> blockingStacks,
+
+        long totalHoldTime,
+        long maxSingleHold,
+        int holdCount,
+
+        long estimatedBlockedTime,
+        long estimatedBlockedTimeCi95,
+
+        // Blocked time possibly missed while an approximate analyzer was not tracking this lock
+        long totalBlockedTimeError,
+
+        // Durations of single waits and holds, for percentiles
+        LatencyHistogram waitTimes,
+        LatencyHistogram holdTimes,
+
+        // What the owner was executing while others waited, weighted by waiter samples
+        Map<HoldSite, Integer> holdSites
 ) {
 
     public ContentionRecord {
@@ -56,6 +73,24 @@ public record ContentionRecord(
                 / (maxSingleBlock + 1);
     }
 
+    /** @param percentile between 0 and 100, e.g. 99.9 */
+    public long waitTimeAtPercentile(double percentile) {
+        return waitTimes.valueAtPercentile(percentile);
+    }
+
+    /** @param percentile between 0 and 100, e.g. 99.9 */
+    public long holdTimeAtPercentile(double percentile) {
+        return holdTimes.valueAtPercentile(percentile);
+    }
+
+    /** @return the owner site that kept waiters out the longest, or null when none was sampled */
+    public HoldSite topHoldSite() {
+        return holdSites == null ? null : holdSites.entrySet().stream()
+                .max(Map.Entry.comparingByValue())
+                .map(Map.Entry::getKey)
+                .orElse(null);
+    }
+
     public boolean isConvoy() {
         return maxOwnership.get() > blockCount * 0.6
                 && uniqueWaiterCount > 3;
@@ -64,13 +99,14 @@ public record ContentionRecord(
     @Override
     public String toString() {
         return String.format(
-                "Lock[%s:%s] owner=%d blockedThreads=%d totalBlockedTime=%d maxBlock=%d convoy=%b",
+                "Lock[%s:%s] owner=%d blockedThreads=%d totalBlockedTime=%d maxBlock=%d p99Block=%d convoy=%b",
                 lockType,
                 lockName,
                 owningThreadId,
                 uniqueWaiterCount,
                 totalBlockedTime,
                 maxSingleBlock,
+                waitTimeAtPercentile(99),
                 isConvoy()
         );
     }
@@ -0,0 +1,198 @@
+package org.example.profiler.analysis;
+
+import org.example.profiler.monitor.LockEvent;
+import org.example.profiler.monitor.ThreadSnapshot;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Multi-resolution contention history. Samples are charged to lock and thread buckets of
+ * the finest resolution; when a bucket closes it is folded into the enclosing bucket of the
+ * next coarser resolution. Every resolution keeps its closed buckets for its own retention
+ * period, so long windows are answered from a few coarse buckets instead of raw samples.
+ *
+ * Blocked time is charged like {@link ContentionAnalyzer#analyzeLockContention}: the interval
+ * between two samples of a thread goes to the lock it was blocked on.
+ */
+public class ContentionRollups {
+
+    /** Stacks kept per lock and bucket */
+    public static final int TOP_STACKS = 5;
+
+    /** A query uses the coarsest resolution that still gives the window this many buckets */
+    static final int MIN_BUCKETS_PER_WINDOW = 12;
+
+    public record Resolution(Duration bucket, Duration retention) {}
+
+    private final Level[] levels;
+    private final Map<Long, ThreadSnapshot> lastSnapshotPerThread = new HashMap<>();
+    private long lastSampleTime;
+
+    /**
+     * @param resolutions finest first; every bucket must be a multiple of the previous one
+     */
+    public ContentionRollups(List<Resolution> resolutions) {
+        if (resolutions.isEmpty()) {
+            throw new IllegalArgumentException("at least one rollup resolution is required");
+        }
+        levels = new Level[resolutions.size()];
+        for (int i = 0; i < levels.length; i++) {
+            Resolution resolution = resolutions.get(i);
+            long bucketMillis = resolution.bucket().toMillis();
+            if (bucketMillis <= 0 || (i > 0 && bucketMillis % levels[i - 1].bucketMillis != 0)) {
+                throw new IllegalArgumentException("rollup bucket " + resolution.bucket()
+                        + " must be a positive multiple of the previous one");
+            }
+            levels[i] = new Level(bucketMillis, resolution.retention().toMillis());
+        }
+    }
+
+    /** 10 s buckets for 6 h, 1 min for 7 days, 1 h for 90 days */
+    public static ContentionRollups withDefaults() {
+        return new ContentionRollups(List.of(
+                new Resolution(Duration.ofSeconds(10), Duration.ofHours(6)),
+                new Resolution(Duration.ofMinutes(1), Duration.ofDays(7)),
+                new Resolution(Duration.ofHours(1), Duration.ofDays(90))
+        ));
+    }
+
+    /**
+     * Add one sample of all threads. Samples must arrive in time order; threads missing from
+     * a sample are forgotten.
+     */
+    public synchronized void ingest(long sampleTime, List<ThreadSnapshot> sample) {
+        RollupBucket bucket = openBucket(0, sampleTime);
+        lastSampleTime = Math.max(lastSampleTime, sampleTime);
+
+        for (ThreadSnapshot curr : sample) {
+            ThreadSnapshot prev = lastSnapshotPerThread.put(curr.getThreadId(), curr);
+            if (prev == null) continue;
+
+            LockEvent lock = ContentionAnalyzer.blockingLock(prev, curr);
+            if (lock == null) continue;
+
+            ThreadSnapshot waiter = lock == prev.getLockWaitingOn() ? prev : curr;
+            long duration = curr.contentionTimeSince(prev);
+            long events = Math.max(1, curr.contentionCountSince(prev));
+
+            bucket.lock(lock).record(curr.getThreadId(), waiter.getStackId(), duration, events);
+            bucket.thread(curr.getThreadId(), curr.getThreadName()).record(duration, events);
+        }
+
+        lastSnapshotPerThread.values().removeIf(snapshot -> snapshot.getSampleTime() < sampleTime);
+    }
+
+    /**
+     * Contention within {@code window}, from the coarsest resolution that gives the window at
+     * least {@link #MIN_BUCKETS_PER_WINDOW} buckets and still retains its start.
+     *
+     * @param topK number of locks and threads to return
+     */
+    public synchronized RollupReport query(ProfilingWindow window, int topK) {
+        int chosen = resolutionFor(window);
+        Level level = levels[chosen];
+
+        List<RollupBucket> buckets = new ArrayList<>();
+        for (RollupBucket bucket : level.closed) {
+            if (bucket.overlaps(window)) buckets.add(bucket);
+        }
+
+        // 1️⃣ Open buckets of this and finer resolutions have not been folded into closed ones yet
+        Map<Long, RollupBucket> pending = new TreeMap<>();
+        for (int i = 0; i <= chosen; i++) {
+            RollupBucket open = levels[i].open;
+            if (open == null) continue;
+            long start = open.getStartTime() - Math.floorMod(open.getStartTime(), level.bucketMillis);
+            pending.computeIfAbsent(start, s -> new RollupBucket(s, level.bucketMillis)).merge(open);
+        }
+        for (RollupBucket bucket : pending.values()) {
+            if (bucket.overlaps(window) && !bucket.isEmpty()) buckets.add(bucket);
+        }
+
+        // 2️⃣ Series and totals
+        List<RollupReport.Point> series = new ArrayList<>(buckets.size());
+        RollupBucket total = new RollupBucket(window.startTime(), window.durationMs());
+        for (RollupBucket bucket : buckets) {
+            series.add(new RollupReport.Point(bucket.getStartTime(), bucket.getBlockedTime(), bucket.getBlockCount()));
+            total.merge(bucket);
+        }
+        total.trimStacks(TOP_STACKS);
+
+        // 3️⃣ Top locks and threads by blocked time
+        List<LockRollup> locks = total.getLocks().values().stream()
+                .sorted(Comparator.comparingLong(LockRollup::getBlockedTime).reversed())
+                .limit(topK)
+                .toList();
+        List<ThreadRollup> threads = total.getThreads().values().stream()
+                .sorted(Comparator.comparingLong(ThreadRollup::getBlockedTime).reversed())
+                .limit(topK)
+                .toList();
+
+        return new RollupReport(window, level.bucketMillis, series, locks, threads);
+    }
+
+    /** Index of the resolution {@link #query} uses for {@code window} */
+    synchronized int resolutionFor(ProfilingWindow window) {
+        int chosen = 0;
+        for (int i = levels.length - 1; i > 0; i--) {
+            if (window.durationMs() >= levels[i].bucketMillis * MIN_BUCKETS_PER_WINDOW) {
+                chosen = i;
+                break;
+            }
+        }
+        while (chosen < levels.length - 1 && window.startTime() < lastSampleTime - levels[chosen].retentionMillis) {
+            chosen++;
+        }
+        return chosen;
+    }
+
+    /** The open bucket of level {@code i} covering {@code time}, closing the previous one */
+    private RollupBucket openBucket(int i, long time) {
+        Level level = levels[i];
+        if (level.open != null && time >= level.open.getEndTime()) {
+            close(i);
+        }
+        if (level.open == null) {
+            level.open = new RollupBucket(time - Math.floorMod(time, level.bucketMillis), level.bucketMillis);
+        }
+        return level.open;
+    }
+
+    private void close(int i) {
+        Level level = levels[i];
+        RollupBucket bucket = level.open;
+        level.open = null;
+
+        bucket.trimStacks(TOP_STACKS);
+        if (!bucket.isEmpty()) {
+            level.closed.addLast(bucket);
+        }
+        long cutoff = bucket.getEndTime() - level.retentionMillis;
+        while (!level.closed.isEmpty() && level.closed.peekFirst().getEndTime() <= cutoff) {
+            level.closed.removeFirst();
+        }
+
+        if (i + 1 < levels.length) {
+            openBucket(i + 1, bucket.getStartTime()).merge(bucket);
+        }
+    }
+
+    private static final class Level {
+        final long bucketMillis;
+        final long retentionMillis;
+        final ArrayDeque<RollupBucket> closed = new ArrayDeque<>();
+        RollupBucket open;
+
+        Level(long bucketMillis, long retentionMillis) {
+            this.bucketMillis = bucketMillis;
+            this.retentionMillis = retentionMillis;
+        }
+    }
+}
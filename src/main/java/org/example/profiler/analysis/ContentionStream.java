@@ -0,0 +1,384 @@
+package org.example.profiler.analysis;
+
+import org.example.profiler.monitor.LockEvent;
+import org.example.profiler.monitor.SnapshotDelta;
+import org.example.profiler.monitor.ThreadSnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.function.Predicate;
+
+/**
+ * Streaming state behind {@link ContentionAnalyzer#ingest(SnapshotDelta, long)}.
+ *
+ * A thread that starts waiting opens a wait; the wait stays open, untouched, for as long as
+ * the thread shows up unchanged, and is charged to its lock in one go when the thread changes
+ * or disappears. Ingesting a frame therefore costs O(changed threads). Before a query,
+ * {@link #flush()} charges the open waits up to the latest frame, which costs O(threads of
+ * that frame) however long the profiler has been running.
+ *
+ * Blocked time is taken from the JVM counters between the snapshot before the wait and the
+ * one that ends it, so an interval is charged to the lock the thread was waiting on at its
+ * start, as in {@link ContentionAnalyzer#analyzeLockContention}. Block count is the number of
+ * contention episodes the counters show, at least one per wait. Owner and stack frequencies
+ * and the sample-count estimator weigh each wait by the samples that observed it. A wait that
+ * ends goes into its lock's wait-time histogram. The owner that waiters see is tracked per
+ * lock, and the time from the first sight of an owner to its replacement, or to the last
+ * waiter getting in, goes into the hold-time histogram. Per-thread state, including the
+ * totals behind {@link #topThreads}, is dropped once a frame shows the thread gone, so it
+ * is bounded by the live threads.
+ *
+ * The owner's own stack and state, as last seen, is its lock's current hold site: every
+ * sample that the site stays unchanged counts once per waiter for it. The samples so far are
+ * charged whenever that count could change: when the owner's snapshot changes (a new site),
+ * when another thread takes over as owner, when a waiter arrives or leaves, and by
+ * {@link #flush()}. All of these are changed threads, so this too costs O(changed threads).
+ *
+ * Not thread-safe; the analyzer serializes access.
+ */
+final class ContentionStream {
+
+    // Hold site of an owner that has not been sampled
+    private static final long NO_SITE = Long.MIN_VALUE;
+
+    private final Function<LockEvent, LockContentionAccumulator> accumulators;
+    private final LongFunction<ThreadTotals> totals;
+
+    private final Map<Long, ThreadSnapshot> lastSnapshots = new HashMap<>();
+    private final Map<Long, OpenWait> openWaits = new HashMap<>();
+    private final Map<Long, ThreadTotals> threads = new HashMap<>();
+    // Owner of every lock with open waits, since when waiters have seen it holding the lock,
+    // and where it was seen
+    private final Map<String, OwnerRun> owners = new HashMap<>();
+
+    // Frames ingested so far, and the sums of their mean intervals and squared intervals
+    private long frames;
+    private double intervalSum;
+    private double intervalSquareSum;
+    private SnapshotDelta lastFrame;
+
+    ContentionStream(Function<LockEvent, LockContentionAccumulator> accumulators) {
+        this(accumulators, null);
+    }
+
+    /**
+     * @param windowTotals per-thread totals kept by a window, or null to keep them here until
+     *                     the thread is gone
+     */
+    ContentionStream(Function<LockEvent, LockContentionAccumulator> accumulators,
+                     LongFunction<ThreadTotals> windowTotals) {
+        this.accumulators = accumulators;
+        this.totals = windowTotals != null ? windowTotals
+                : threadId -> threads.computeIfAbsent(threadId, id -> new ThreadTotals());
+    }
+
+    /**
+     * @param meanIntervalMs expected interval between samples, 0 to skip the estimator
+     * @param sampled        which awaited locks to charge
+     */
+    void ingest(SnapshotDelta frame, long meanIntervalMs, Predicate<LockEvent> sampled) {
+        // 1️⃣ Threads that are gone end their waits with the counters last seen, and are forgotten
+        for (long threadId : frame.getRemovedThreadIds()) {
+            lastSnapshots.remove(threadId);
+            OpenWait wait = openWaits.remove(threadId);
+            if (wait != null) {
+                charge(wait, wait.baseCounter, wait.firstCount, wait.baseTime, true);
+            }
+            threads.remove(threadId);
+        }
+
+        // 2️⃣ Changed threads end their current wait and may start a new one
+        for (ThreadSnapshot snapshot : frame.getChanged()) {
+            long threadId = snapshot.getThreadId();
+            ThreadSnapshot prev = lastSnapshots.put(threadId, snapshot);
+            moveHoldSites(snapshot);
+
+            OpenWait ended = openWaits.get(threadId);
+            if (ended != null && ended.continuedBy(snapshot)) {
+                // still the same episode, e.g. a frame that lists every thread as changed
+                charge(ended, ended.counterOf(snapshot), ended.countOf(snapshot), snapshot.getSampleTime(), false);
+                observeOwner(snapshot.getLockWaitingOn(), snapshot.getSampleTime());
+                ended.waiter = snapshot; // later samples go to the current owner and stack
+                ended.seenFrame = frames;
+                continue;
+            }
+            if (ended != null) {
+                openWaits.remove(threadId);
+                charge(ended, ended.counterOf(snapshot), ended.countOf(snapshot), snapshot.getSampleTime(), true);
+            }
+
+            LockEvent lock = snapshot.getLockWaitingOn();
+            if (lock != null && lock.isOwned() && sampled.test(lock)) {
+                // the interval since the previous snapshot belongs to this wait unless it ended another one
+                ThreadSnapshot base = prev != null && ended == null ? prev : snapshot;
+                openWaits.put(threadId, new OpenWait(snapshot, base, frames, intervalSum, intervalSquareSum));
+                observeOwner(lock, snapshot.getSampleTime()).waiters++;
+            }
+        }
+
+        // a fully materialized sample lists every live thread, so threads it did not list are gone
+        if (frame.getUnchangedCount() == 0 && frame.getRemovedThreadIds().length == 0) {
+            closeAbsent();
+            forgetAbsent(frame);
+        }
+
+        // 3️⃣ Unchanged threads need nothing until they change or a query flushes
+        frames++;
+        if (meanIntervalMs > 0) {
+            intervalSum += meanIntervalMs;
+            intervalSquareSum += (double) meanIntervalMs * meanIntervalMs;
+        }
+        lastFrame = frame;
+    }
+
+    private void closeAbsent() {
+        Iterator<Map.Entry<Long, OpenWait>> it = openWaits.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, OpenWait> entry = it.next();
+            OpenWait wait = entry.getValue();
+            if (wait.seenFrame != frames) {
+                charge(wait, wait.baseCounter, wait.firstCount, wait.baseTime, true);
+                lastSnapshots.remove(entry.getKey());
+                it.remove();
+            }
+        }
+    }
+
+    private void forgetAbsent(SnapshotDelta frame) {
+        if (lastSnapshots.size() <= frame.getChanged().size() && threads.size() <= frame.getChanged().size()) return;
+
+        LongHashSet live = new LongHashSet(frame.getChanged().size());
+        for (ThreadSnapshot snapshot : frame.getChanged()) live.add(snapshot.getThreadId());
+        lastSnapshots.keySet().removeIf(threadId -> !live.contains(threadId));
+        threads.keySet().removeIf(threadId -> !live.contains(threadId));
+    }
+
+    /** Charge every open wait up to the latest frame; the waits stay open. */
+    void flush() {
+        SnapshotDelta frame = lastFrame;
+        if (frame == null || openWaits.isEmpty()) return;
+
+        for (OwnerRun run : owners.values()) {
+            chargeHoldSite(run);
+        }
+
+        for (ThreadSnapshot snapshot : frame.getChanged()) {
+            OpenWait wait = openWaits.get(snapshot.getThreadId());
+            if (wait != null) {
+                charge(wait, wait.counterOf(snapshot), wait.countOf(snapshot), frame.getSampleTime(), false);
+            }
+        }
+        for (int i = 0; i < frame.getUnchangedCount(); i++) {
+            ThreadSnapshot base = frame.getUnchangedBase(i);
+            OpenWait wait = openWaits.get(base.getThreadId());
+            if (wait != null) {
+                long counter = wait.blocked ? frame.getUnchangedBlockedTime(i) : frame.getUnchangedWaitedTime(i);
+                charge(wait, counter, wait.countOf(base), frame.getSampleTime(), false);
+            }
+        }
+    }
+
+    /**
+     * Charge {@code wait} from its last charge up to the given counters.
+     *
+     * @param ends whether the wait is over; an ended wait is charged at least one episode
+     */
+    private void charge(OpenWait wait, long counter, long count, long time, boolean ends) {
+        long duration = wait.counters
+                ? Math.max(0, counter - wait.baseCounter)
+                : Math.max(0, time - wait.baseTime);
+        long episodes = wait.counters ? Math.max(wait.chargedEvents, count - wait.firstCount) : wait.chargedEvents;
+        if (ends) episodes = Math.max(1, episodes);
+        int events = (int) (episodes - wait.chargedEvents);
+        int samples = (int) (frames - wait.startFrame);
+
+        if (!ends && duration == 0 && events == 0 && samples == 0) return;
+        wait.total += duration;
+
+        ThreadSnapshot waiter = wait.waiter;
+        LockContentionAccumulator acc = accumulators.apply(waiter.getLockWaitingOn());
+        acc.recordWait(waiter.getLockWaitingOn(), waiter, duration, wait.total, events, samples,
+                ends ? (int) episodes : 0, time);
+        if (intervalSum > wait.startSum) {
+            acc.recordSampleHits(intervalSum - wait.startSum, intervalSquareSum - wait.startSquareSum);
+        }
+
+        totals.apply(waiter.getThreadId()).add(waiter, duration, wait.total, events);
+
+        // the next charge starts here
+        wait.baseCounter = counter;
+        wait.baseTime = time;
+        wait.chargedEvents = episodes;
+        wait.startFrame = frames;
+        wait.startSum = intervalSum;
+        wait.startSquareSum = intervalSquareSum;
+
+        if (ends) releaseWaiter(waiter.getLockWaitingOn(), time);
+    }
+
+    /**
+     * Note that a waiter saw {@code lock} held by its current owner at {@code time}. A new
+     * owner ends the previous owner's hold.
+     */
+    private OwnerRun observeOwner(LockEvent lock, long time) {
+        OwnerRun run = owners.get(lock.getLockId());
+        if (run == null) {
+            run = new OwnerRun(lock, time);
+            owners.put(lock.getLockId(), run);
+            siteOf(run, lastSnapshots.get(lock.getOwnerThreadId()));
+        } else {
+            chargeHoldSite(run);
+            if (run.lock.getOwnerThreadId() != lock.getOwnerThreadId()) {
+                endHold(run, time);
+                run.lock = lock;
+                run.since = time;
+                siteOf(run, lastSnapshots.get(lock.getOwnerThreadId()));
+            }
+        }
+        return run;
+    }
+
+    /** A wait on {@code lock} ended; once nobody waits, the owner has let go. */
+    private void releaseWaiter(LockEvent lock, long time) {
+        OwnerRun run = owners.get(lock.getLockId());
+        if (run == null) return;
+
+        chargeHoldSite(run);
+        if (--run.waiters <= 0) {
+            endHold(run, time);
+            owners.remove(lock.getLockId());
+        }
+    }
+
+    /** {@code owner} changed: the contended locks it holds get its new stack and state as hold site. */
+    private void moveHoldSites(ThreadSnapshot owner) {
+        if (owners.isEmpty()) return;
+
+        for (LockEvent held : ResourceAllocationGraph.heldBy(owner)) {
+            OwnerRun run = owners.get(held.getLockId());
+            if (run != null && run.lock.getOwnerThreadId() == owner.getThreadId()) {
+                chargeHoldSite(run);
+                siteOf(run, owner);
+            }
+        }
+    }
+
+    private void siteOf(OwnerRun run, ThreadSnapshot owner) {
+        run.site = owner == null ? NO_SITE : HoldSite.key(owner.getStackId(), owner.getThreadState());
+        run.siteFrame = frames;
+    }
+
+    /** Charge the samples since the last charge, once per waiter, to the current hold site. */
+    private void chargeHoldSite(OwnerRun run) {
+        long samples = frames - run.siteFrame;
+        if (samples > 0 && run.waiters > 0 && run.site != NO_SITE) {
+            accumulators.apply(run.lock).recordHoldSite(run.site, (int) Math.min(Integer.MAX_VALUE, samples * run.waiters));
+        }
+        run.siteFrame = frames;
+    }
+
+    /**
+     * The hold is estimated from when a waiter first saw the owner to when a waiter saw it
+     * gone, so it can be off by up to a sampling interval at either end.
+     */
+    private void endHold(OwnerRun run, long time) {
+        accumulators.apply(run.lock).recordEstimatedHold(Math.max(0, time - run.since));
+    }
+
+    /** @return threads with the most blocked time kept here, largest first */
+    List<BlockedThreadStats> topThreads(int topK) {
+        return topThreads(threads, lastSnapshots, topK);
+    }
+
+    /** @return a copy of the latest snapshot of every live thread */
+    Map<Long, ThreadSnapshot> lastSnapshots() {
+        return new HashMap<>(lastSnapshots);
+    }
+
+    /** @return threads of {@code totals} with the most blocked time, largest first */
+    static List<BlockedThreadStats> topThreads(Map<Long, ThreadTotals> totals,
+                                               Map<Long, ThreadSnapshot> lastSnapshots, int topK) {
+        PriorityQueue<BlockedThreadStats> pq = new PriorityQueue<>(
+                Comparator.comparingLong(BlockedThreadStats::totalBlockedTime)
+                        .thenComparing(BlockedThreadStats::threadId, Comparator.reverseOrder())
+        );
+        totals.forEach((threadId, thread) -> {
+            pq.offer(thread.toStats(threadId, lastSnapshots.get(threadId)));
+            if (topK > 0 && pq.size() > topK) pq.poll();
+        });
+
+        List<BlockedThreadStats> top = new ArrayList<>(pq.size());
+        while (!pq.isEmpty()) top.add(pq.poll());
+        Collections.reverse(top); // largest totalBlockedTime first
+        return top;
+    }
+
+    private static final class OpenWait {
+        ThreadSnapshot waiter;
+        final boolean blocked;
+        final boolean counters;
+        final long firstCount;
+
+        long seenFrame;
+        long baseCounter;
+        long baseTime;
+        long chargedEvents;
+        long startFrame;
+        double startSum;
+        double startSquareSum;
+        long total;
+
+        OpenWait(ThreadSnapshot waiter, ThreadSnapshot base, long startFrame, double startSum, double startSquareSum) {
+            this.waiter = waiter;
+            this.blocked = waiter.isBlocked();
+            this.counters = waiter.hasContentionCounters() && base.hasContentionCounters();
+            this.firstCount = countOf(base);
+            this.baseCounter = counterOf(base);
+            this.baseTime = base.getSampleTime();
+            this.seenFrame = startFrame;
+            this.startFrame = startFrame;
+            this.startSum = startSum;
+            this.startSquareSum = startSquareSum;
+        }
+
+        /** Whether {@code snapshot} waits on the same lock without a new contention episode */
+        boolean continuedBy(ThreadSnapshot snapshot) {
+            LockEvent lock = snapshot.getLockWaitingOn();
+            return lock != null && counters && snapshot.hasContentionCounters()
+                    && snapshot.isBlocked() == blocked
+                    && lock.getLockId().equals(waiter.getLockWaitingOn().getLockId())
+                    && countOf(snapshot) == countOf(waiter);
+        }
+
+        /** Monitor entry counts as blocked time, park/wait as waited time */
+        long counterOf(ThreadSnapshot snapshot) {
+            return blocked ? snapshot.getBlockedTime() : snapshot.getWaitedTime();
+        }
+
+        long countOf(ThreadSnapshot snapshot) {
+            return blocked ? snapshot.getBlockedCount() : snapshot.getWaitedCount();
+        }
+    }
+
+    private static final class OwnerRun {
+        LockEvent lock;
+        long since;
+        int waiters;
+        // HoldSite.key of the owner as last seen, and the frame it was last charged up to
+        long site = NO_SITE;
+        long siteFrame;
+
+        OwnerRun(LockEvent lock, long since) {
+            this.lock = lock;
+            this.since = since;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.example.profiler.analysis;
+
+/**
+ * Count-Min sketch of non-negative weights by long key, in {@code depth x width} counters
+ * whatever the number of keys.
+ *
+ * An estimate never undercounts. With total weight {@code N} it overcounts by more than
+ * {@code e / width * N} with probability at most {@code e^-depth}. Updates are conservative
+ * (only the counters at the current minimum grow), which keeps the same bound and is
+ * tighter in practice.
+ *
+ * Not thread-safe.
+ */
+final class CountMinSketch {
+
+    private final long[][] counts;
+    private final long[] seeds;
+    private final int mask;
+
+    /**
+     * @param width counters per row, rounded up to a power of two
+     */
+    CountMinSketch(int depth, int width) {
+        int w = Integer.highestOneBit(Math.max(1, width - 1)) << 1;
+        counts = new long[depth][w];
+        seeds = new long[depth];
+        mask = w - 1;
+        for (int row = 0; row < depth; row++) {
+            seeds[row] = 0x9E3779B97F4A7C15L * (row + 1);
+        }
+    }
+
+    void add(long key, long weight) {
+        if (weight <= 0) return;
+
+        long target = estimate(key) + weight;
+        for (int row = 0; row < counts.length; row++) {
+            int slot = slot(row, key);
+            counts[row][slot] = Math.max(counts[row][slot], target);
+        }
+    }
+
+    /** @return an upper bound of the total weight added for {@code key} */
+    long estimate(long key) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < counts.length; row++) {
+            min = Math.min(min, counts[row][slot(row, key)]);
+        }
+        return min;
+    }
+
+    /** SplitMix64 finalizer of the seeded key, so that rows hash independently */
+    private int slot(int row, long key) {
+        long h = key + seeds[row];
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return (int) (h ^ (h >>> 31)) & mask;
+    }
+
+    /** 64-bit FNV-1a of a string key */
+    static long hash(String key) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        return h;
+    }
+}
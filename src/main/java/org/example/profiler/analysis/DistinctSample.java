@@ -0,0 +1,77 @@
+package org.example.profiler.analysis;
+
+import java.util.Arrays;
+
+/**
+ * K-minimum-values sketch of distinct long ids, in {@code k} slots whatever the number of
+ * ids.
+ *
+ * Every id is hashed to 63 uniform bits and only the {@code k} smallest hashes are kept.
+ * Below {@code k} distinct ids the count is exact. Above it, {@code (k - 1) / (largest kept
+ * hash / 2^63)} estimates the count with a relative standard error of about
+ * {@code 1 / sqrt(k - 2)}. The ids behind the kept values, those {@link #add} returned true
+ * for and that are still {@link #contains contained}, are a uniform sample of all ids added.
+ * Adding the kept ids of another sketch keeps the {@code k} smallest of both, which is the
+ * sketch of the union.
+ *
+ * Adding an id whose hash is above the kept ones, the common case once full, costs O(1);
+ * otherwise O(log k) to look it up and O(k) to insert it.
+ *
+ * Not thread-safe.
+ */
+final class DistinctSample {
+
+    private final int k;
+    // Ascending hashes of the kept ids
+    private final long[] hashes;
+    private int size;
+
+    DistinctSample(int k) {
+        if (k < 2) throw new IllegalArgumentException("k must be at least 2");
+        this.k = k;
+        this.hashes = new long[k];
+    }
+
+    DistinctSample copy() {
+        DistinctSample copy = new DistinctSample(k);
+        System.arraycopy(hashes, 0, copy.hashes, 0, size);
+        copy.size = size;
+        return copy;
+    }
+
+    /** @return true if {@code id} was not kept before and is kept now */
+    boolean add(long id) {
+        long hash = hash(id);
+        if (size == k && hash >= hashes[k - 1]) return false;
+
+        int slot = Arrays.binarySearch(hashes, 0, size, hash);
+        if (slot >= 0) return false;
+        slot = -slot - 1;
+
+        // the largest value falls off when full
+        int moved = (size == k ? k - 1 : size) - slot;
+        System.arraycopy(hashes, slot, hashes, slot + 1, moved);
+        hashes[slot] = hash;
+        if (size < k) size++;
+        return true;
+    }
+
+    boolean contains(long id) {
+        return Arrays.binarySearch(hashes, 0, size, hash(id)) >= 0;
+    }
+
+    /** @return the number of distinct ids added, exact below k */
+    int estimate() {
+        if (size < k) return size;
+        double fraction = (double) hashes[k - 1] / Long.MAX_VALUE;
+        return (int) Math.min(Integer.MAX_VALUE, Math.round((k - 1) / fraction));
+    }
+
+    /** SplitMix64 finalizer, keeping 63 bits so that hashes compare as non-negative longs */
+    private static long hash(long id) {
+        long h = id + 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return (h ^ (h >>> 31)) >>> 1;
+    }
+}
@@ -0,0 +1,75 @@
+package org.example.profiler.analysis;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * Folds a list into a mergeable partial result, on a ForkJoinPool or in the calling thread.
+ * The list is split in halves down to small leaves, each leaf is folded into its own
+ * partial, and partials are merged pairwise. The result only matches the sequential fold if
+ * {@code merge} is associative and commutative.
+ */
+final class ForkJoinReduce {
+
+    /** Leaves per worker thread, so that stealing can even out histories of uneven length */
+    private static final int LEAVES_PER_THREAD = 8;
+
+    private ForkJoinReduce() {}
+
+    /**
+     * @param pool null to fold sequentially in the calling thread
+     */
+    static <T, A> A reduce(List<T> items, ForkJoinPool pool,
+                           Supplier<A> create, BiConsumer<A, T> add, BinaryOperator<A> merge) {
+        if (pool == null) {
+            A partial = create.get();
+            for (T item : items) add.accept(partial, item);
+            return partial;
+        }
+
+        int leafSize = Math.max(1, items.size() / (pool.getParallelism() * LEAVES_PER_THREAD));
+        return pool.invoke(new Task<>(items, 0, items.size(), leafSize, create, add, merge));
+    }
+
+    private static final class Task<T, A> extends RecursiveTask<A> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<T> items;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+        private final Supplier<A> create;
+        private final BiConsumer<A, T> add;
+        private final BinaryOperator<A> merge;
+
+        Task(List<T> items, int from, int to, int leafSize,
+             Supplier<A> create, BiConsumer<A, T> add, BinaryOperator<A> merge) {
+            this.items = items;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+            this.create = create;
+            this.add = add;
+            this.merge = merge;
+        }
+
+        @Override
+        protected A compute() {
+            if (to - from <= leafSize) {
+                A partial = create.get();
+                for (int i = from; i < to; i++) add.accept(partial, items.get(i));
+                return partial;
+            }
+
+            int mid = (from + to) >>> 1;
+            Task<T, A> left = new Task<>(items, from, mid, leafSize, create, add, merge);
+            left.fork();
+            A right = new Task<>(items, mid, to, leafSize, create, add, merge).compute();
+            return merge.apply(left.join(), right);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.example.profiler.analysis;
+
+import org.example.profiler.monitor.LockEvent;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-lock accumulators of a {@link ContentionAnalyzer} in fixed memory, for applications
+ * with more lock instances than can be tracked exactly.
+ *
+ * At most {@code maxLocks} locks are tracked, Space-Saving style: a new lock replaces the
+ * tracked lock with the smallest upper bound of blocked time. The replaced lock's blocked
+ * time goes into a {@link CountMinSketch}. If the lock comes back, the sketch's estimate
+ * becomes its {@link ContentionRecord#totalBlockedTimeError}. A record's
+ * {@code totalBlockedTime} is exact since the lock was last admitted. Its true total lies
+ * between that and {@code totalBlockedTime + totalBlockedTimeError}. The sketch adds at most
+ * {@code e / width} of all evicted blocked time, with probability {@code 1 - e^-4}. A lock
+ * whose blocked time exceeds {@code N / maxLocks} is always tracked, where N is the total
+ * blocked time.
+ *
+ * Within a lock, owners and stacks are capped at {@code maxKeys} each, also Space-Saving.
+ * Their sample counts overestimate by at most (the lock's samples) / {@code maxKeys}.
+ * Waiters are kept as a {@link DistinctSample} of {@value LockContentionAccumulator#WAITER_SAMPLE}
+ * ids with their names: the record lists that sample and estimates the number of distinct
+ * waiters from it. So every piece of state is bounded by the capacities.
+ *
+ * Admitting a lock costs O(maxLocks); recording into a tracked lock costs the same as
+ * exact tracking. Not thread-safe; the analyzer serializes access.
+ */
+final class HeavyHitterLocks {
+
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH_PER_LOCK = 8;
+    private static final int MIN_SKETCH_WIDTH = 1024;
+
+    private final int maxLocks;
+    private final int maxKeys;
+    private final Map<String, LockContentionAccumulator> locks = new HashMap<>();
+    private final CountMinSketch evicted;
+
+    HeavyHitterLocks(int maxLocks, int maxKeys) {
+        if (maxLocks <= 0 || maxKeys <= 0) {
+            throw new IllegalArgumentException("lock and key capacities must be positive");
+        }
+        this.maxLocks = maxLocks;
+        this.maxKeys = maxKeys;
+        this.evicted = new CountMinSketch(SKETCH_DEPTH, Math.max(MIN_SKETCH_WIDTH, maxLocks * SKETCH_WIDTH_PER_LOCK));
+    }
+
+    LockContentionAccumulator accumulatorFor(LockEvent lock) {
+        LockContentionAccumulator acc = locks.get(lock.getLockId());
+        if (acc != null) return acc;
+
+        if (locks.size() >= maxLocks) evictSmallest();
+
+        acc = new LockContentionAccumulator(
+                lock.getLockId(),
+                lock.getLockName(),
+                lock.getLockType(),
+                maxKeys,
+                evicted.estimate(CountMinSketch.hash(lock.getLockId()))
+        );
+        locks.put(lock.getLockId(), acc);
+        return acc;
+    }
+
+    private void evictSmallest() {
+        LockContentionAccumulator smallest = null;
+        for (LockContentionAccumulator acc : locks.values()) {
+            if (smallest == null || upperBound(acc) < upperBound(smallest)
+                    || (upperBound(acc) == upperBound(smallest) && acc.getLockId().compareTo(smallest.getLockId()) < 0)) {
+                smallest = acc;
+            }
+        }
+        locks.remove(smallest.getLockId());
+        evicted.add(CountMinSketch.hash(smallest.getLockId()), smallest.getTotalBlockedTime());
+    }
+
+    private static long upperBound(LockContentionAccumulator acc) {
+        return acc.getTotalBlockedTime() + acc.getBlockedTimeError();
+    }
+
+    int maxLocks() {
+        return maxLocks;
+    }
+
+    Collection<LockContentionAccumulator> accumulators() {
+        return locks.values();
+    }
+}
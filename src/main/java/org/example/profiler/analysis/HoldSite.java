@@ -0,0 +1,25 @@
+package org.example.profiler.analysis;
+
+/**
+ * What the owner of a lock was doing while others waited for it: its stack and state in the
+ * same sample as the waiters.
+ */
+public record HoldSite(
+        StackTraceKey stack,
+        Thread.State ownerState
+) {
+
+    private static final int STATE_BITS = 3;
+
+    /** Key of a StackTable id and a state, for the primitive maps of the accumulators */
+    static long key(int stackId, Thread.State state) {
+        return ((long) stackId << STATE_BITS) | state.ordinal();
+    }
+
+    static HoldSite of(long key) {
+        return new HoldSite(
+                StackTraceKey.of((int) (key >> STATE_BITS)),
+                Thread.State.values()[(int) (key & ((1 << STATE_BITS) - 1))]
+        );
+    }
+}
@@ -0,0 +1,379 @@
+package org.example.profiler.analysis;
+
+import org.example.profiler.monitor.LockEvent;
+import org.example.profiler.monitor.SnapshotDelta;
+import org.example.profiler.monitor.ThreadSnapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wait-for graph of the latest sample, kept up to date from sample to sample instead of being
+ * rebuilt like {@link WFG}.
+ *
+ * A thread waits on at most one lock at a time, and that lock has one owner. So every thread
+ * has at most one outgoing edge, and every cycle is a plain ring. A new edge {@code u -> v}
+ * closes a ring exactly when the chain from {@code v} leads back to {@code u}. Removing any
+ * edge of a ring breaks it. The current rings are therefore maintained on every change, and
+ * {@link #getDeadlocks()} costs only the size of its answer. An update costs O(1), plus the
+ * smaller of the chain above {@code v} and the waiters below {@code u}; see {@link #reaches}.
+ * Feeding a delta-encoded sample through {@link #update(SnapshotDelta)} touches only the
+ * threads that changed.
+ *
+ * Threads are addressed by int indices into parallel arrays. Waiters of a thread are kept
+ * as an intrusive doubly linked list, so no per-edge objects are allocated. An index is
+ * recycled once its thread has no edges left.
+ *
+ * Not thread-safe.
+ */
+public class IncrementalWFG {
+
+    private static final int NONE = -1;
+
+    private final LongIntHashMap indexOf = new LongIntHashMap();
+    private long[] threadIds = new long[16];
+    // Index waited on, or NONE
+    private int[] next = new int[16];
+    // Waiters of each index: head, and siblings in both directions
+    private int[] firstWaiter = new int[16];
+    private int[] prevWaiter = new int[16];
+    private int[] nextWaiter = new int[16];
+    // Ring each index is on, or NONE
+    private int[] ring = new int[16];
+    // Last sample that listed each index as changed
+    private long[] seenFrame = new long[16];
+    // Root each index leads to, valid while rootStamp matches the current rootBlockers() call
+    private int[] rootOf = new int[16];
+    private long[] rootStamp = new long[16];
+    private int[] waiterCount = new int[16];
+    private int[] directCount = new int[16];
+
+    private int size;
+    // Breadth-first queue of reaches()
+    private int[] scratch = new int[16];
+    private int[] free = new int[16];
+    private int freeCount;
+
+    private final Map<Integer, int[]> rings = new HashMap<>();
+    private int nextRingId;
+    private int edgeCount;
+    private long frames;
+    private long rootCalls;
+
+    /**
+     * Apply one sample: changed threads get their current edge, removed threads lose theirs.
+     * A sample with every thread listed as changed also drops the edges of absent threads.
+     */
+    public void update(SnapshotDelta frame) {
+        frames++;
+        for (long threadId : frame.getRemovedThreadIds()) {
+            removeEdge(threadId);
+        }
+        for (ThreadSnapshot snapshot : frame.getChanged()) {
+            LockEvent lock = snapshot.getLockWaitingOn();
+            if (lock != null && lock.isOwned()) {
+                setEdge(snapshot.getThreadId(), lock.getOwnerThreadId());
+            } else {
+                removeEdge(snapshot.getThreadId());
+            }
+            int u = indexOf.get(snapshot.getThreadId(), NONE);
+            if (u != NONE) seenFrame[u] = frames;
+        }
+
+        if (frame.getUnchangedCount() == 0 && frame.getRemovedThreadIds().length == 0) {
+            for (int u = 0; u < size; u++) {
+                if (next[u] != NONE && seenFrame[u] != frames) removeEdge(threadIds[u]);
+            }
+        }
+    }
+
+    /** {@code waiter} now waits on a lock held by {@code owner}, replacing any previous edge. */
+    public void setEdge(long waiter, long owner) {
+        if (waiter == owner) {
+            removeEdge(waiter);
+            return;
+        }
+
+        int u = indexFor(waiter);
+        int v = indexFor(owner);
+        if (next[u] == v) return;
+
+        if (next[u] != NONE) unlink(u);
+        next[u] = v;
+        prevWaiter[u] = NONE;
+        nextWaiter[u] = firstWaiter[v];
+        if (firstWaiter[v] != NONE) prevWaiter[firstWaiter[v]] = u;
+        firstWaiter[v] = u;
+        edgeCount++;
+
+        if (reaches(v, u)) closeRing(u);
+    }
+
+    /**
+     * Whether the chain of owners from {@code v} leads to {@code u}, which waits on nothing
+     * else. Walks up from {@code v} and breadth-first down through the waiters of {@code u}
+     * in lockstep, so the cost is twice the smaller of the two: attaching a new waiter to a
+     * long chain, or a long chain to a new owner, is O(1).
+     */
+    private boolean reaches(int v, int u) {
+        int up = v;
+        int head = 0;
+        int tail = 0;
+        scratch[tail++] = u;
+
+        while (true) {
+            if (up == u) return true;
+            if (up == NONE || ring[up] != NONE) return false;
+            up = next[up];
+
+            if (head == tail) return false;
+            for (int w = firstWaiter[scratch[head++]]; w != NONE; w = nextWaiter[w]) {
+                if (w == v) return true;
+                if (tail == scratch.length) scratch = Arrays.copyOf(scratch, tail * 2);
+                scratch[tail++] = w;
+            }
+        }
+    }
+
+    /** {@code waiter} no longer waits. */
+    public void removeEdge(long waiter) {
+        int u = indexOf.get(waiter, NONE);
+        if (u == NONE || next[u] == NONE) return;
+
+        unlink(u);
+        release(u);
+    }
+
+    private void unlink(int u) {
+        if (ring[u] != NONE) breakRing(ring[u]);
+
+        int v = next[u];
+        if (prevWaiter[u] != NONE) nextWaiter[prevWaiter[u]] = nextWaiter[u];
+        else firstWaiter[v] = nextWaiter[u];
+        if (nextWaiter[u] != NONE) prevWaiter[nextWaiter[u]] = prevWaiter[u];
+        next[u] = NONE;
+        edgeCount--;
+        release(v);
+    }
+
+    private void closeRing(int u) {
+        int id = nextRingId++;
+        int length = 0;
+        int w = u;
+        do {
+            length++;
+            w = next[w];
+        } while (w != u);
+
+        int[] members = new int[length];
+        for (int i = 0; i < length; i++) {
+            members[i] = w;
+            ring[w] = id;
+            w = next[w];
+        }
+        rings.put(id, members);
+    }
+
+    private void breakRing(int id) {
+        for (int w : rings.remove(id)) ring[w] = NONE;
+    }
+
+    private int indexFor(long threadId) {
+        int u = indexOf.get(threadId, NONE);
+        if (u != NONE) return u;
+
+        u = freeCount > 0 ? free[--freeCount] : size++;
+        if (u == threadIds.length) grow();
+        threadIds[u] = threadId;
+        next[u] = NONE;
+        firstWaiter[u] = NONE;
+        prevWaiter[u] = NONE;
+        nextWaiter[u] = NONE;
+        ring[u] = NONE;
+        seenFrame[u] = 0;
+        rootStamp[u] = 0;
+        indexOf.addTo(threadId, u);
+        return u;
+    }
+
+    /** Recycle {@code u} once no edge touches it. */
+    private void release(int u) {
+        if (next[u] != NONE || firstWaiter[u] != NONE) return;
+
+        indexOf.remove(threadIds[u]);
+        if (freeCount == free.length) free = Arrays.copyOf(free, freeCount * 2);
+        free[freeCount++] = u;
+    }
+
+    private void grow() {
+        int capacity = threadIds.length * 2;
+        threadIds = Arrays.copyOf(threadIds, capacity);
+        next = Arrays.copyOf(next, capacity);
+        firstWaiter = Arrays.copyOf(firstWaiter, capacity);
+        prevWaiter = Arrays.copyOf(prevWaiter, capacity);
+        nextWaiter = Arrays.copyOf(nextWaiter, capacity);
+        ring = Arrays.copyOf(ring, capacity);
+        seenFrame = Arrays.copyOf(seenFrame, capacity);
+        rootOf = Arrays.copyOf(rootOf, capacity);
+        rootStamp = Arrays.copyOf(rootStamp, capacity);
+        waiterCount = Arrays.copyOf(waiterCount, capacity);
+        directCount = Arrays.copyOf(directCount, capacity);
+    }
+
+    /* ------------------------
+       Queries
+       ------------------------ */
+
+    /** @return the current deadlock rings, each starting at its smallest thread id */
+    public List<List<Long>> getDeadlocks() {
+        List<List<Long>> deadlocks = new ArrayList<>(rings.size());
+        for (int[] members : rings.values()) {
+            int start = 0;
+            for (int i = 1; i < members.length; i++) {
+                if (threadIds[members[i]] < threadIds[members[start]]) start = i;
+            }
+            List<Long> deadlock = new ArrayList<>(members.length);
+            for (int i = 0; i < members.length; i++) {
+                deadlock.add(threadIds[members[(start + i) % members.length]]);
+            }
+            deadlocks.add(deadlock);
+        }
+        deadlocks.sort((a, b) -> Long.compare(a.get(0), b.get(0)));
+        return deadlocks;
+    }
+
+    public boolean hasDeadlock() {
+        return !rings.isEmpty();
+    }
+
+    /** @return whether {@code threadId} is on a deadlock ring */
+    public boolean isDeadlocked(long threadId) {
+        int u = indexOf.get(threadId, NONE);
+        return u != NONE && ring[u] != NONE;
+    }
+
+    /** @return the owner {@code threadId} waits on, or -1 */
+    public long getOwner(long threadId) {
+        int u = indexOf.get(threadId, NONE);
+        return u == NONE || next[u] == NONE ? -1 : threadIds[next[u]];
+    }
+
+    /**
+     * @return {@code threadId} followed by the owner it waits on, that owner's owner and so
+     *         on, up to a thread that waits on nothing or the first thread of a ring
+     */
+    public List<Long> chainOf(long threadId) {
+        List<Long> chain = new ArrayList<>();
+        chain.add(threadId);
+
+        int u = indexOf.get(threadId, NONE);
+        if (u == NONE) return chain;
+
+        int w = next[u];
+        // entering a ring, stop once the walk gets back to where it entered
+        int entry = NONE;
+        while (w != NONE && w != entry && w != u) {
+            if (entry == NONE && ring[w] != NONE) entry = w;
+            chain.add(threadIds[w]);
+            w = next[w];
+        }
+        return chain;
+    }
+
+    /** @return threads waiting directly on {@code ownerId} */
+    public List<Long> getWaiters(long ownerId) {
+        List<Long> waiters = new ArrayList<>();
+        int v = indexOf.get(ownerId, NONE);
+        if (v == NONE) return waiters;
+
+        for (int u = firstWaiter[v]; u != NONE; u = nextWaiter[u]) {
+            waiters.add(threadIds[u]);
+        }
+        return waiters;
+    }
+
+    /**
+     * Blame the current sample's stall on the threads at the ends of the wait chains: every
+     * waiting thread charges {@code intervalMillis} to the thread its chain ends at, or to the
+     * ring it runs into, ring members included. Each chain is walked once and the root found
+     * is remembered for every thread on the way, so the cost is linear in the edges.
+     *
+     * @return one entry per root with waiters, deadlocked rings sorted by thread id
+     */
+    public List<RootBlocker> rootBlockers(long intervalMillis) {
+        long call = ++rootCalls;
+        int roots = 0;
+
+        for (int u = 0; u < size; u++) {
+            if (next[u] == NONE) continue;
+
+            // 1️⃣ Walk up to a known root, collecting the path in scratch
+            int depth = 0;
+            int w = u;
+            int root;
+            while (true) {
+                if (rootStamp[w] == call) {
+                    root = rootOf[w];
+                    break;
+                }
+                if (next[w] == NONE) {
+                    root = w;
+                    break;
+                }
+                if (ring[w] != NONE) {
+                    root = rings.get(ring[w])[0];
+                    break;
+                }
+                if (depth == scratch.length) scratch = Arrays.copyOf(scratch, depth * 2);
+                scratch[depth++] = w;
+                w = next[w];
+            }
+            if (rootStamp[root] != call) {
+                rootStamp[root] = call;
+                rootOf[root] = root;
+                waiterCount[root] = 0;
+                directCount[root] = 0;
+                roots++;
+            }
+            for (int i = 0; i < depth; i++) {
+                rootStamp[scratch[i]] = call;
+                rootOf[scratch[i]] = root;
+            }
+            rootStamp[u] = call;
+            rootOf[u] = root;
+
+            // 2️⃣ Count u against its root
+            waiterCount[root]++;
+            int owner = next[u];
+            if (ring[u] == NONE && (next[owner] == NONE || ring[owner] != NONE)) directCount[root]++;
+        }
+
+        List<RootBlocker> blockers = new ArrayList<>(roots);
+        for (int u = 0; u < size; u++) {
+            if (rootStamp[u] != call || rootOf[u] != u) continue;
+
+            List<Long> members = new ArrayList<>();
+            if (ring[u] == NONE) {
+                members.add(threadIds[u]);
+            } else {
+                for (int member : rings.get(ring[u])) members.add(threadIds[member]);
+                Collections.sort(members);
+            }
+            blockers.add(new RootBlocker(members, waiterCount[u] * intervalMillis, directCount[u], ring[u] != NONE));
+        }
+        return blockers;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /** @return threads with at least one edge */
+    public int getThreadCount() {
+        return indexOf.size();
+    }
+}
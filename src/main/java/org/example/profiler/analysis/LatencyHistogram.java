@@ -0,0 +1,145 @@
+package org.example.profiler.analysis;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Log-bucketed histogram of durations in milliseconds, HDR style. Values below
+ * {@value #SUB_BUCKETS} ms get a bucket each. Above that, every power of two is split into
+ * {@value #HALF} buckets, so a reported percentile is within about 3% of the true value.
+ * Memory grows with the logarithm of the largest value: one long per bucket, about 200 for
+ * values up to a second.
+ *
+ * Histograms with the same layout merge by adding counts, so they can be combined across
+ * windows, analyzers or nodes. {@link #getBuckets()} and {@link #fromBuckets(Map)} carry
+ * one between processes.
+ *
+ * Not thread-safe.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+
+    private long[] counts = new long[0];
+    private long totalCount;
+    private long max;
+
+    public void recordValue(long value) {
+        recordValue(value, 1);
+    }
+
+    /** Record {@code count} occurrences of {@code value}; negative values count as 0. */
+    public void recordValue(long value, long count) {
+        if (count <= 0) return;
+        value = Math.max(0, value);
+
+        int index = indexOf(value);
+        if (index >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length + HALF));
+        }
+        counts[index] += count;
+        totalCount += count;
+        max = Math.max(max, value);
+    }
+
+    /** Add the counts of {@code other}. */
+    public LatencyHistogram merge(LatencyHistogram other) {
+        return merge(other, 1);
+    }
+
+    /** Add the counts of {@code other} scaled by {@code weight} and rounded. */
+    LatencyHistogram merge(LatencyHistogram other, double weight) {
+        for (int i = 0; i < other.counts.length; i++) {
+            long count = other.counts[i];
+            if (count == 0) continue;
+            long scaled = weight == 1 ? count : Math.round(count * weight);
+            if (scaled > 0) recordValue(lowestValueAt(i), scaled);
+        }
+        max = Math.max(max, other.max);
+        return this;
+    }
+
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.counts = counts.clone();
+        copy.totalCount = totalCount;
+        copy.max = max;
+        return copy;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the largest value in the bucket that holds the given percentile, capped at
+     *         the largest recorded value; 0 when empty
+     */
+    public long valueAtPercentile(double percentile) {
+        if (totalCount == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(highestValueAt(i), max);
+        }
+        return max;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /** @return p50, p90, p99 and p999, for reports */
+    public Map<String, Long> getPercentiles() {
+        Map<String, Long> percentiles = new LinkedHashMap<>();
+        percentiles.put("p50", valueAtPercentile(50));
+        percentiles.put("p90", valueAtPercentile(90));
+        percentiles.put("p99", valueAtPercentile(99));
+        percentiles.put("p999", valueAtPercentile(99.9));
+        return percentiles;
+    }
+
+    /** @return non-empty buckets as lowest value in the bucket to count, ascending */
+    public Map<Long, Long> getBuckets() {
+        Map<Long, Long> buckets = new TreeMap<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) buckets.put(lowestValueAt(i), counts[i]);
+        }
+        return buckets;
+    }
+
+    /** Rebuild a histogram from {@link #getBuckets()}, e.g. one received from another node. */
+    public static LatencyHistogram fromBuckets(Map<Long, Long> buckets) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        buckets.forEach(histogram::recordValue);
+        return histogram;
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    static long lowestValueAt(int index) {
+        if (index < SUB_BUCKETS) return index;
+
+        int shift = index / HALF - 1;
+        return (long) (index - shift * HALF) << shift;
+    }
+
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKETS) return index;
+
+        int shift = index / HALF - 1;
+        return lowestValueAt(index) + (1L << shift) - 1;
+    }
+}
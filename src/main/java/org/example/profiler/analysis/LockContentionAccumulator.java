@@ -13,61 +13,299 @@ public class LockContentionAccumulator {
     private final String lockName;
     private final LockType lockType;
 
-    private final Set<Long> blockedThreadIds = new HashSet<>();
-    private final Set<String> blockedThreadNames = new HashSet<>();
-    private final Map<Long, Integer> ownershipFrequency = new HashMap<>();
+    // Waiters sampled when tracking a bounded number of keys; see HeavyHitterLocks
+    static final int WAITER_SAMPLE = 64;
+
+    // Primitive-keyed so that recording an event does not box. Waiters and their names: every
+    // waiter, or with a sample set, only the uniform sample it keeps and uses to estimate
+    // their number
+    private final LongObjectHashMap<String> waiters;
+    private final DistinctSample waiterSample;
+    private final LongIntHashMap ownershipFrequency;
 
     private long totalBlockedTime = 0;
     private long maxSingleBlock = 0;
     private int blockCount = 0;
     private long lastTimestamp = 0;
 
+    // Hold times are only known for instrumented locks
+    private long totalHoldTime = 0;
+    private long maxSingleHold = 0;
+    private int holdCount = 0;
+
+    // Durations of whole waits, and of holds: exact, or estimated from samples without them
+    private final LatencyHistogram waitTimes;
+    private final LatencyHistogram holdTimes;
+
+    // Sample-count estimator: every sample that sees a waiter stands for one mean sampling interval
+    private double estimatedBlockedTime = 0;
+    private double estimatorVariance = 0;
+
     private AtomicInteger maxOwnership = new AtomicInteger(0);          // updated dynamically
     private int uniqueWaiterCount = 0;     // updated dynamically
 
-    private final Map<StackTraceKey, Integer> blockingStacks = new HashMap<>();
+    // Keyed by StackTable id
+    private final LongIntHashMap blockingStacks;
+    // Owner stack and state seen by waiters, keyed by HoldSite.key, weighted by waiter samples
+    private final LongIntHashMap holdSites;
+
+    // Owners and stacks tracked per lock, 0 for no limit; see HeavyHitterLocks
+    private final int maxKeys;
+    // Blocked time this lock may have had before it was last admitted to a HeavyHitterLocks
+    private long blockedTimeError;
 
     public LockContentionAccumulator(String lockId, String lockName, LockType lockType) {
+        this(lockId, lockName, lockType, 0, 0);
+    }
+
+    /**
+     * @param maxKeys          owners and stacks to track, Space-Saving style, or 0 for all
+     * @param blockedTimeError upper bound of blocked time recorded before this accumulator
+     */
+    LockContentionAccumulator(String lockId, String lockName, LockType lockType,
+                              int maxKeys, long blockedTimeError) {
         this.lockId = lockId;
         this.lockName = lockName;
         this.lockType = lockType;
+        this.maxKeys = maxKeys;
+        this.blockedTimeError = blockedTimeError;
+        this.waiters = new LongObjectHashMap<>();
+        this.waiterSample = maxKeys > 0 ? new DistinctSample(WAITER_SAMPLE) : null;
+        this.ownershipFrequency = new LongIntHashMap();
+        this.blockingStacks = new LongIntHashMap();
+        this.holdSites = new LongIntHashMap();
+        this.waitTimes = new LatencyHistogram();
+        this.holdTimes = new LatencyHistogram();
+    }
+
+    /** Copies the tables rather than replaying them, see {@link #copy()} */
+    private LockContentionAccumulator(LockContentionAccumulator other) {
+        this.lockId = other.lockId;
+        this.lockName = other.lockName;
+        this.lockType = other.lockType;
+        this.maxKeys = other.maxKeys;
+        this.blockedTimeError = other.blockedTimeError;
+        this.waiters = other.waiters.copy();
+        this.waiterSample = other.waiterSample != null ? other.waiterSample.copy() : null;
+        this.ownershipFrequency = other.ownershipFrequency.copy();
+        this.blockingStacks = other.blockingStacks.copy();
+        this.holdSites = other.holdSites.copy();
+        this.waitTimes = other.waitTimes.copy();
+        this.holdTimes = other.holdTimes.copy();
+
+        this.totalBlockedTime = other.totalBlockedTime;
+        this.maxSingleBlock = other.maxSingleBlock;
+        this.blockCount = other.blockCount;
+        this.lastTimestamp = other.lastTimestamp;
+        this.totalHoldTime = other.totalHoldTime;
+        this.maxSingleHold = other.maxSingleHold;
+        this.holdCount = other.holdCount;
+        this.estimatedBlockedTime = other.estimatedBlockedTime;
+        this.estimatorVariance = other.estimatorVariance;
+        this.maxOwnership = new AtomicInteger(other.maxOwnership.get());
+        this.uniqueWaiterCount = other.uniqueWaiterCount;
     }
 
     /**
      * Record a blocking event for this lock.
-     * Updates all metrics incrementally so that isConvoy() is O(1)
+     * Updates all metrics incrementally so that isConvoy() is O(1).
+     * Blocked time and count come from the JVM's cumulative counters when both
+     * snapshots carry them, otherwise from the sample interval. A sample interval is not a
+     * whole wait, so it does not go into the wait-time histogram.
      */
     public void recordBlock(LockEvent lock, ThreadSnapshot prev, ThreadSnapshot curr) {
-        long delta = curr.getSampleTime() - prev.getSampleTime();
+        int events = (int) Math.max(1, curr.contentionCountSince(prev));
+        long duration = curr.contentionTimeSince(prev);
+        record(lock, prev, duration, duration, events, 1, curr.getSampleTime());
+    }
+
+    /**
+     * Record a blocking event whose duration is known exactly (e.g. from a JFR event)
+     * instead of being estimated from two consecutive samples.
+     */
+    public void recordBlock(LockEvent lock, ThreadSnapshot waiter, long durationMillis, long timestamp) {
+        record(lock, waiter, durationMillis, durationMillis, 1, 1, timestamp);
+        waitTimes.recordValue(durationMillis);
+    }
+
+    /**
+     * Record part of one wait that spanned several samples, as charged by the streaming
+     * analyzer when the wait ends or is queried.
+     *
+     * @param durationMillis blocked time since the previous charge of the same wait
+     * @param episodeMillis  blocked time of the whole wait so far
+     * @param samples        samples that observed the wait since the previous charge
+     * @param episodes       contention episodes of the whole wait if it is over, else 0;
+     *                       each goes into the wait-time histogram as an equal share
+     */
+    void recordWait(LockEvent lock, ThreadSnapshot waiter, long durationMillis, long episodeMillis,
+                    int events, int samples, int episodes, long timestamp) {
+        record(lock, waiter, durationMillis, episodeMillis, events, samples, timestamp);
+        if (episodes > 0) waitTimes.recordValue(episodeMillis / episodes, episodes);
+    }
 
+    private void record(LockEvent lock, ThreadSnapshot waiter, long durationMillis, long episodeMillis,
+                        int events, int samples, long timestamp) {
         // Update blocked threads info
-        blockedThreadIds.add(prev.getThreadId());
-        blockedThreadNames.add(prev.getThreadName());
+        addWaiter(waiter.getThreadId(), waiter.getThreadName());
 
         // Update timing metrics
-        totalBlockedTime += delta;
-        maxSingleBlock = Math.max(maxSingleBlock, delta);
-        blockCount++;
-        lastTimestamp = Math.max(lastTimestamp, curr.getSampleTime());
+        totalBlockedTime += durationMillis;
+        maxSingleBlock = Math.max(maxSingleBlock, episodeMillis);
+        blockCount += events;
+        lastTimestamp = Math.max(lastTimestamp, timestamp);
+
+        if (samples == 0) return;
 
-        int newOwnerCount = ownershipFrequency.merge(lock.getOwnerThreadId(), 1, Integer::sum);
+        int newOwnerCount = maxKeys > 0
+                ? ownershipFrequency.addToBounded(lock.getOwnerThreadId(), samples, maxKeys)
+                : ownershipFrequency.addTo(lock.getOwnerThreadId(), samples);
 
         maxOwnership.set(Math.max(maxOwnership.intValue(), newOwnerCount));
 
-        uniqueWaiterCount = blockedThreadIds.size();
+        if (maxKeys > 0) {
+            blockingStacks.addToBounded(waiter.getStackId(), samples, maxKeys);
+        } else {
+            blockingStacks.addTo(waiter.getStackId(), samples);
+        }
+    }
+
+    /**
+     * Record one sample that observed a thread waiting on this lock.
+     * With randomized (Poisson) sampling, hits x mean interval is an unbiased estimate of
+     * blocked time whatever the period of the workload; each hit adds its squared weight
+     * to the variance (Poisson counts).
+     *
+     * @param meanIntervalMs expected sampling interval at the time of the sample
+     */
+    public void recordSampleHit(long meanIntervalMs) {
+        estimatedBlockedTime += meanIntervalMs;
+        estimatorVariance += (double) meanIntervalMs * meanIntervalMs;
+    }
+
+    /** Sample hits of several samples at once: their summed intervals and squared intervals */
+    void recordSampleHits(double estimateMillis, double variance) {
+        estimatedBlockedTime += estimateMillis;
+        estimatorVariance += variance;
+    }
+
+    /**
+     * Record how long a contended acquisition of this lock was held before release.
+     */
+    public void recordHold(long durationMillis) {
+        totalHoldTime += durationMillis;
+        maxSingleHold = Math.max(maxSingleHold, durationMillis);
+        holdCount++;
+        holdTimes.recordValue(durationMillis);
+    }
 
-        StackTraceKey key = new StackTraceKey(List.of(prev.getStackTrace()));
-        blockingStacks.merge(key, 1, Integer::sum);
+    /**
+     * Record a hold time inferred from samples, e.g. how long one owner kept waiters out.
+     * Goes only into the hold-time histogram, and only while no exact hold was recorded.
+     */
+    void recordEstimatedHold(long durationMillis) {
+        if (holdCount == 0) holdTimes.recordValue(durationMillis);
+    }
+
+    /**
+     * Record that {@code waiterSamples} samples of waiters found the owner of this lock at
+     * {@code owner}'s stack and state, taken from the same sample as the waiters.
+     */
+    void recordHoldSite(ThreadSnapshot owner, int waiterSamples) {
+        recordHoldSite(HoldSite.key(owner.getStackId(), owner.getThreadState()), waiterSamples);
+    }
+
+    /** @param site a {@link HoldSite#key} */
+    void recordHoldSite(long site, int waiterSamples) {
+        if (waiterSamples <= 0) return;
+        if (maxKeys > 0) {
+            holdSites.addToBounded(site, waiterSamples, maxKeys);
+        } else {
+            holdSites.addTo(site, waiterSamples);
+        }
+    }
+
+    /**
+     * Add the state of {@code other}, an accumulator of the same lock fed with a disjoint set
+     * of events. Associative and commutative: partial accumulators built in parallel merge to
+     * the same record as one accumulator fed sequentially.
+     *
+     * @return this accumulator
+     */
+    public LockContentionAccumulator merge(LockContentionAccumulator other) {
+        return merge(other, 1);
+    }
+
+    /**
+     * Like {@link #merge(LockContentionAccumulator)}, with every time and count of
+     * {@code other} scaled by {@code weight} and rounded, e.g. to age older buckets of a
+     * decaying window. Waiters and the longest single block and hold are merged unweighted.
+     */
+    LockContentionAccumulator merge(LockContentionAccumulator other, double weight) {
+        if (!lockId.equals(other.lockId)) {
+            throw new IllegalArgumentException("cannot merge lock " + other.lockId + " into " + lockId);
+        }
+
+        // the ids a sample keeps are its smallest hashes, so adding them yields the union's sample
+        for (long threadId : other.waiters.keys()) {
+            addWaiter(threadId, other.waiters.get(threadId));
+        }
+
+        totalBlockedTime += scale(other.totalBlockedTime, weight);
+        blockedTimeError += scale(other.blockedTimeError, weight);
+        maxSingleBlock = Math.max(maxSingleBlock, other.maxSingleBlock);
+        blockCount += (int) scale(other.blockCount, weight);
+        lastTimestamp = Math.max(lastTimestamp, other.lastTimestamp);
+
+        totalHoldTime += scale(other.totalHoldTime, weight);
+        maxSingleHold = Math.max(maxSingleHold, other.maxSingleHold);
+        holdCount += (int) scale(other.holdCount, weight);
+
+        waitTimes.merge(other.waitTimes, weight);
+        holdTimes.merge(other.holdTimes, weight);
+
+        estimatedBlockedTime += other.estimatedBlockedTime * weight;
+        estimatorVariance += other.estimatorVariance * weight * weight;
+
+        ownershipFrequency.addAll(other.ownershipFrequency, weight);
+        maxOwnership.set(ownershipFrequency.maxValue());
+        blockingStacks.addAll(other.blockingStacks, weight);
+        holdSites.addAll(other.holdSites, weight);
+        return this;
+    }
+
+    /** @return an independent copy, e.g. to build a record from outside the analyzer's lock */
+    LockContentionAccumulator copy() {
+        return new LockContentionAccumulator(this);
+    }
+
+    private void addWaiter(long threadId, String threadName) {
+        if (waiterSample == null) {
+            waiters.putIfAbsent(threadId, threadName);
+            uniqueWaiterCount = waiters.size();
+            return;
+        }
+
+        if (waiterSample.add(threadId)) {
+            waiters.putIfAbsent(threadId, threadName);
+            // a full sample drops one id for every id it takes
+            if (waiters.size() > WAITER_SAMPLE) {
+                waiters.removeIf(id -> !waiterSample.contains(id));
+            }
+            uniqueWaiterCount = waiterSample.estimate();
+        }
+    }
+
+    private static long scale(long value, double weight) {
+        return weight == 1 ? value : Math.round(value * weight);
     }
 
     /**
      * Produce a ContentionRecord from the current accumulator state
      */
     public ContentionRecord toRecord() {
-        long mainOwnerId = ownershipFrequency.entrySet().stream()
-                .max(Map.Entry.comparingByValue())
-                .map(Map.Entry::getKey)
-                .orElse(-1L);
+        long mainOwnerId = ownershipFrequency.maxKey(-1);
+        long[] waiterIds = waiters.keys();
 
         String mainOwnerName = null; // optionally track owner names
 
@@ -77,19 +315,75 @@ public class LockContentionAccumulator {
                 lockType,
                 mainOwnerId,
                 mainOwnerName,
-                List.copyOf(blockedThreadIds),
-                List.copyOf(blockedThreadNames),
+                LongHashSet.listOf(waiterIds),
+                blockedThreadNames(waiterIds),
                 blockCount,
                 uniqueWaiterCount,   // O(1)
                 totalBlockedTime,
                 maxSingleBlock,
-                Map.copyOf(ownershipFrequency),
+                ownershipFrequency.toMap(),
                 maxOwnership,        // O(1)
                 lastTimestamp,
-                Map.copyOf(blockingStacks)
+                stackKeys(blockingStacks),
+                totalHoldTime,
+                maxSingleHold,
+                holdCount,
+                Math.round(estimatedBlockedTime),
+                Math.round(1.96 * Math.sqrt(estimatorVariance)),
+                blockedTimeError,
+                waitTimes.copy(),
+                holdTimes.copy(),
+                holdSiteKeys(holdSites)
         );
     }
 
+    private List<String> blockedThreadNames(long[] waiterIds) {
+        String[] names = new String[waiterIds.length];
+        int n = 0;
+        for (long threadId : waiterIds) {
+            String name = waiters.get(threadId);
+            if (name != null) names[n++] = name;
+        }
+
+        // sorted and distinct, so that the record does not depend on the order events arrived in
+        Arrays.sort(names, 0, n);
+        int distinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (distinct == 0 || !names[i].equals(names[distinct - 1])) names[distinct++] = names[i];
+        }
+        return List.of(Arrays.copyOf(names, distinct));
+    }
+
+    public String getLockId() {
+        return lockId;
+    }
+
+    public String getLockName() {
+        return lockName;
+    }
+
+    public LockType getLockType() {
+        return lockType;
+    }
+
+    public long getTotalBlockedTime() {
+        return totalBlockedTime;
+    }
+
+    /** @return 0 unless tracked approximately, see {@link ContentionRecord#totalBlockedTimeError} */
+    public long getBlockedTimeError() {
+        return blockedTimeError;
+    }
+
+    /** Records only iterate these maps, so stacks are not hashed frame by frame to build them */
+    static Map<StackTraceKey, Integer> stackKeys(LongIntHashMap byStackId) {
+        return byStackId.toMap(stackId -> StackTraceKey.of((int) stackId));
+    }
+
+    static Map<HoldSite, Integer> holdSiteKeys(LongIntHashMap bySite) {
+        return bySite.toMap(HoldSite::of);
+    }
+
     /**
      * O(1) convoy detection based on dynamically maintained metrics
      */
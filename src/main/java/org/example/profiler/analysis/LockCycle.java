@@ -0,0 +1,19 @@
+package org.example.profiler.analysis;
+
+import java.util.List;
+
+/**
+ * A cycle of a {@link ResourceAllocationGraph}: every thread waits for the next lock, which
+ * the next thread holds, and the last lock is held by the first thread.
+ *
+ * @param selfInflicted a single thread waiting for a lock it is reported to hold. One thread
+ *                      dump never shows that (read locks have no owner, so even a read to
+ *                      write upgrade is not reported as one), so it points at snapshots of
+ *                      different times or two locks with the same id; otherwise threads
+ *                      took the locks in conflicting orders
+ */
+public record LockCycle(
+        List<Long> threadIds,
+        List<String> lockIds,
+        boolean selfInflicted
+) {}
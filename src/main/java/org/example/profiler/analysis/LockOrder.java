@@ -0,0 +1,17 @@
+package org.example.profiler.analysis;
+
+/**
+ * One thread seen taking {@code before} and then {@code after}: holding {@code before} while
+ * holding or waiting for {@code after}.
+ *
+ * @param stack      the thread's stack when the order was first seen
+ * @param sampleTime when the order was first seen
+ */
+public record LockOrder(
+        String before,
+        String after,
+        long threadId,
+        String threadName,
+        StackTraceKey stack,
+        long sampleTime
+) {}
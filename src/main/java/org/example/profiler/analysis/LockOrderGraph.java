@@ -0,0 +1,227 @@
+package org.example.profiler.analysis;
+
+import org.example.profiler.monitor.LockEvent;
+import org.example.profiler.monitor.ThreadSnapshot;
+
+import java.util.*;
+
+/**
+ * Orders in which threads take locks, gathered across samples, to find potential deadlocks
+ * before they happen.
+ *
+ * A snapshot shows a thread taking lock A before lock B when it holds A and waits for B, or
+ * holds both and B is the inner monitor (the JVM lists monitors innermost first). Ownable
+ * synchronizers held together carry no order. Every such pair is an edge A -> B. A cycle of
+ * edges seen in more than one thread, such as "A then B" in one thread and "B then A" in
+ * another, is a {@link LockOrderViolation}. A cycle seen in a single thread cannot deadlock
+ * by itself and is not reported. Each order keeps its first thread and the first other
+ * thread, which is all it takes to tell the two apart.
+ *
+ * Only new edges, or an edge's second thread, cost anything: each searches for a path back
+ * to its start, which is O(edges). A program takes locks in few distinct orders, so new
+ * edges soon stop coming. Each cycle is reported once, when it is first complete.
+ *
+ * Lock ids name instances, and identity hashes are reused once a lock is collected, so
+ * orders are forgotten once no sample has shown them for {@code maxAgeMillis}. Beyond
+ * {@code maxEdges} orders, the least recently seen go first. That bounds the graph, and a
+ * recycled id can only be mistaken for the old lock within the age limit. The most recent
+ * {@value #MAX_VIOLATIONS} violations are kept.
+ *
+ * Not thread-safe; the analyzer serializes access.
+ */
+final class LockOrderGraph {
+
+    static final int MAX_VIOLATIONS = 100;
+
+    private final long maxAgeMillis;
+    private final int maxEdges;
+
+    // lock -> locks taken after it, with who was seen taking them in that order
+    private final Map<String, Map<String, Witnesses>> after = new HashMap<>();
+    private int edgeCount;
+    // Latest sample time seen, and when orders were last pruned
+    private long now = Long.MIN_VALUE;
+    private long prunedAt = Long.MIN_VALUE;
+    // Cycles reported, by their canonical lock ids, oldest first
+    private final LinkedHashMap<List<String>, LockOrderViolation> violations = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<String>, LockOrderViolation> eldest) {
+            return size() > MAX_VIOLATIONS;
+        }
+    };
+
+    LockOrderGraph(long maxAgeMillis, int maxEdges) {
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxEdges = maxEdges;
+    }
+
+    /** Add the orders shown by {@code snapshot}. */
+    void observe(ThreadSnapshot snapshot) {
+        now = Math.max(now, snapshot.getSampleTime());
+        if (edgeCount > maxEdges || (prunedAt != Long.MIN_VALUE && now - prunedAt >= maxAgeMillis / 4)) {
+            prune();
+        }
+        if (prunedAt == Long.MIN_VALUE) prunedAt = now;
+
+        List<LockEvent> monitors = snapshot.getLockedMonitors();
+        List<LockEvent> held = ResourceAllocationGraph.heldBy(snapshot);
+
+        // 1️⃣ Outer monitors were taken before inner ones
+        if (monitors != null) {
+            for (int inner = 0; inner < monitors.size(); inner++) {
+                for (int outer = inner + 1; outer < monitors.size(); outer++) {
+                    add(monitors.get(outer), monitors.get(inner), snapshot);
+                }
+            }
+        }
+
+        // 2️⃣ Everything held was taken before the lock being acquired
+        LockEvent waiting = snapshot.getLockWaitingOn();
+        if (waiting != null && waiting.isOwned() && waiting.getOwnerThreadId() != snapshot.getThreadId()) {
+            for (LockEvent lock : held) {
+                add(lock, waiting, snapshot);
+            }
+        }
+    }
+
+    private void add(LockEvent before, LockEvent next, ThreadSnapshot snapshot) {
+        String a = before.getLockId();
+        String b = next.getLockId();
+        if (a.equals(b)) return; // re-entrant
+
+        Map<String, Witnesses> edges = after.computeIfAbsent(a, id -> new HashMap<>());
+        Witnesses witnesses = edges.get(b);
+        if (witnesses != null) witnesses.lastSeen = now;
+        if (witnesses != null && (witnesses.other != null || witnesses.first.threadId() == snapshot.getThreadId())) {
+            return;
+        }
+
+        // 1️⃣ A new order, or a known one seen in a second thread: either can complete a violation
+        LockOrder order = new LockOrder(a, b, snapshot.getThreadId(), snapshot.getThreadName(),
+                StackTraceKey.of(snapshot.getStackId()), snapshot.getSampleTime());
+        if (witnesses == null) {
+            witnesses = new Witnesses(order, now);
+            edges.put(b, witnesses);
+            edgeCount++;
+        } else {
+            witnesses.other = order;
+        }
+
+        // 2️⃣ Look for a way back to the first lock
+        List<Witnesses> path = pathBetween(b, a);
+        if (path != null) {
+            path.add(0, witnesses);
+            report(path);
+        }
+    }
+
+    /**
+     * Forget orders not seen for {@code maxAgeMillis}, then, while over {@code maxEdges}, the
+     * least recently seen, down to three quarters of it so that pruning stays rare. Orders are
+     * evicted by rank rather than by a time cutoff, so equal lastSeen times still free at
+     * least a quarter of {@code maxEdges}. O(edges log edges) when over the limit, else O(edges).
+     */
+    private void prune() {
+        prunedAt = now;
+        if (edgeCount > maxEdges) {
+            Witnesses[] byAge = new Witnesses[edgeCount];
+            int i = 0;
+            for (Map<String, Witnesses> edges : after.values()) {
+                for (Witnesses witnesses : edges.values()) byAge[i++] = witnesses;
+            }
+            Arrays.sort(byAge, Comparator.comparingLong(witnesses -> witnesses.lastSeen));
+            int evict = edgeCount - Math.max(1, maxEdges * 3 / 4);
+            for (int e = 0; e < evict; e++) {
+                Map<String, Witnesses> edges = after.get(byAge[e].first.before());
+                edges.remove(byAge[e].first.after());
+                if (edges.isEmpty()) after.remove(byAge[e].first.before());
+            }
+        }
+
+        long keepFrom = now - maxAgeMillis;
+        Iterator<Map<String, Witnesses>> locks = after.values().iterator();
+        while (locks.hasNext()) {
+            Map<String, Witnesses> edges = locks.next();
+            edges.values().removeIf(witnesses -> witnesses.lastSeen < keepFrom);
+            if (edges.isEmpty()) locks.remove();
+        }
+        edgeCount = 0;
+        for (Map<String, Witnesses> edges : after.values()) edgeCount += edges.size();
+    }
+
+    /** Breadth-first: the shortest chain of orders from {@code from} to {@code to}, or null */
+    private List<Witnesses> pathBetween(String from, String to) {
+        Map<String, Witnesses> reachedBy = new HashMap<>();
+        ArrayDeque<String> queue = new ArrayDeque<>();
+        queue.add(from);
+        reachedBy.put(from, null);
+
+        while (!queue.isEmpty()) {
+            String lock = queue.poll();
+            if (lock.equals(to)) {
+                LinkedList<Witnesses> path = new LinkedList<>();
+                for (Witnesses step = reachedBy.get(lock); step != null; step = reachedBy.get(step.first.before())) {
+                    path.addFirst(step);
+                }
+                return path;
+            }
+            for (Witnesses step : after.getOrDefault(lock, Map.of()).values()) {
+                if (!reachedBy.containsKey(step.first.after())) {
+                    reachedBy.put(step.first.after(), step);
+                    queue.add(step.first.after());
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Report {@code cycle} unless every order in it was only seen in one and the same
+     * thread. Each step shows its first witness, except one step that shows its other
+     * witness when needed to involve a second thread.
+     */
+    private void report(List<Witnesses> cycle) {
+        List<LockOrder> orders = new ArrayList<>(cycle.size());
+        for (Witnesses step : cycle) orders.add(step.first);
+
+        long thread = orders.get(0).threadId();
+        if (orders.stream().allMatch(order -> order.threadId() == thread)) {
+            int swap = -1;
+            for (int i = 0; i < cycle.size() && swap < 0; i++) {
+                if (cycle.get(i).other != null) swap = i;
+            }
+            if (swap < 0) return; // a single thread cannot deadlock with itself
+            orders.set(swap, cycle.get(swap).other);
+        }
+
+        // start at the smallest lock id, so that every rotation of a cycle has one key
+        int start = 0;
+        for (int i = 1; i < orders.size(); i++) {
+            if (orders.get(i).before().compareTo(orders.get(start).before()) < 0) start = i;
+        }
+        Collections.rotate(orders, -start);
+        List<String> lockIds = new ArrayList<>(orders.size());
+        for (LockOrder order : orders) lockIds.add(order.before());
+
+        if (!violations.containsKey(lockIds)) {
+            violations.put(lockIds, new LockOrderViolation(lockIds, orders));
+        }
+    }
+
+    /** @return the most recent violations, in the order they were found */
+    List<LockOrderViolation> getViolations() {
+        return List.copyOf(violations.values());
+    }
+
+    /** First thread seen taking the locks in this order, the first other thread, and when last seen */
+    private static final class Witnesses {
+        final LockOrder first;
+        LockOrder other;
+        long lastSeen;
+
+        Witnesses(LockOrder first, long lastSeen) {
+            this.first = first;
+            this.lastSeen = lastSeen;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package org.example.profiler.analysis;
+
+import java.util.List;
+
+/**
+ * Locks taken in a cycle of orders by different threads, such as "A then B" in one thread
+ * and "B then A" in another: those threads can deadlock, even if they have not yet.
+ *
+ * @param lockIds the cycle, each lock taken before the next and the last before the first
+ * @param orders  one observed order per step of the cycle
+ */
+public record LockOrderViolation(
+        List<String> lockIds,
+        List<LockOrder> orders
+) {}
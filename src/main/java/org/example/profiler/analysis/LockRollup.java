@@ -0,0 +1,91 @@
+package org.example.profiler.analysis;
+
+import lombok.Getter;
+import org.example.profiler.monitor.LockEvent;
+import org.example.profiler.monitor.LockType;
+import org.example.profiler.monitor.StackTable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Contention on one lock within a {@link RollupBucket}.
+ */
+@Getter
+public class LockRollup {
+
+    private final String lockId;
+    private final String lockName;
+    private final LockType lockType;
+
+    private long blockedTime;
+    private long blockCount;
+    private final LongHashSet waiters = new LongHashSet();
+    // Keyed by StackTable id
+    private final Map<Integer, Long> stacks = new HashMap<>();
+
+    public LockRollup(String lockId, String lockName, LockType lockType) {
+        this.lockId = lockId;
+        this.lockName = lockName;
+        this.lockType = lockType;
+    }
+
+    static LockRollup of(LockEvent lock) {
+        return new LockRollup(lock.getLockId(), lock.getLockName(), lock.getLockType());
+    }
+
+    void record(long threadId, int stackId, long durationMillis, long events) {
+        blockedTime += durationMillis;
+        blockCount += events;
+        waiters.add(threadId);
+        if (stackId != StackTable.NO_STACK) {
+            stacks.merge(stackId, durationMillis, Long::sum);
+        }
+    }
+
+    void merge(LockRollup other) {
+        blockedTime += other.blockedTime;
+        blockCount += other.blockCount;
+        waiters.addAll(other.waiters);
+        other.stacks.forEach((stack, time) -> stacks.merge(stack, time, Long::sum));
+    }
+
+    /**
+     * Keep only the {@code topK} stacks with the most blocked time. Buckets are trimmed when
+     * they close, so stack totals in coarse buckets are lower bounds.
+     */
+    void trimStacks(int topK) {
+        if (stacks.size() <= topK) return;
+
+        List<Map.Entry<Integer, Long>> entries = new ArrayList<>(stacks.entrySet());
+        entries.sort(Map.Entry.<Integer, Long>comparingByValue().reversed());
+        stacks.clear();
+        for (Map.Entry<Integer, Long> entry : entries.subList(0, topK)) {
+            stacks.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /** @return blocked time per waiting stack */
+    public Map<StackTraceKey, Long> getStacks() {
+        Map<StackTraceKey, Long> keys = new HashMap<>(stacks.size() * 2);
+        stacks.forEach((stackId, time) -> keys.put(StackTraceKey.of(stackId), time));
+        return keys;
+    }
+
+    /** @return ids of the threads that waited */
+    public List<Long> getWaiters() {
+        return waiters.toList();
+    }
+
+    public int getWaiterCount() {
+        return waiters.size();
+    }
+
+    LockRollup copy() {
+        LockRollup copy = new LockRollup(lockId, lockName, lockType);
+        copy.merge(this);
+        return copy;
+    }
+}
@@ -0,0 +1,141 @@
+package org.example.profiler.analysis;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.LongConsumer;
+
+/**
+ * Open-addressing set of primitive longs, for thread ids on the per-event path of the
+ * accumulators: adding an id never boxes or allocates unless the table grows.
+ *
+ * Not thread-safe.
+ */
+final class LongHashSet {
+
+    // 0 marks a free slot; the key 0 itself is tracked on the side
+    private long[] keys;
+    private boolean hasZero;
+    private int size;
+
+    LongHashSet() {
+        this(8);
+    }
+
+    LongHashSet(int expected) {
+        keys = new long[capacityFor(expected)];
+    }
+
+    /** @return true if {@code key} was not in the set yet */
+    boolean add(long key) {
+        if (key == 0) {
+            if (hasZero) return false;
+            hasZero = true;
+            size++;
+            return true;
+        }
+
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) return false;
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        if (++size * 2 > keys.length) grow();
+        return true;
+    }
+
+    boolean contains(long key) {
+        if (key == 0) return hasZero;
+
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    void addAll(LongHashSet other) {
+        if (other.hasZero) add(0);
+        for (long key : other.keys) {
+            if (key != 0) add(key);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void forEach(LongConsumer action) {
+        if (hasZero) action.accept(0);
+        for (long key : keys) {
+            if (key != 0) action.accept(key);
+        }
+    }
+
+    /** @return the elements in ascending order */
+    long[] toArray() {
+        long[] elements = new long[size];
+        int i = 0;
+        if (hasZero) elements[i++] = 0;
+        for (long key : keys) {
+            if (key != 0) elements[i++] = key;
+        }
+        Arrays.sort(elements);
+        return elements;
+    }
+
+    /** @return an immutable list over a copy of the elements, boxing only on access */
+    List<Long> toList() {
+        return listOf(toArray());
+    }
+
+    /** @return an immutable list over {@code elements}, which must not change afterwards */
+    static List<Long> listOf(long[] elements) {
+        return new CompactLongList(elements);
+    }
+
+    private void grow() {
+        long[] old = keys;
+        keys = new long[old.length * 2];
+        int mask = keys.length - 1;
+        for (long key : old) {
+            if (key == 0) continue;
+            int slot = mix(key) & mask;
+            while (keys[slot] != 0) slot = (slot + 1) & mask;
+            keys[slot] = key;
+        }
+    }
+
+    static int capacityFor(int expected) {
+        return Math.max(4, Integer.highestOneBit(Math.max(1, expected) * 2 - 1) << 1);
+    }
+
+    /** Spread the bits of ids that are often small and sequential */
+    static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static final class CompactLongList extends AbstractList<Long> implements RandomAccess {
+        private final long[] elements;
+
+        CompactLongList(long[] elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        public Long get(int index) {
+            return elements[index];
+        }
+
+        @Override
+        public int size() {
+            return elements.length;
+        }
+    }
+}
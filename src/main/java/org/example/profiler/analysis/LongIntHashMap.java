@@ -0,0 +1,383 @@
+package org.example.profiler.analysis;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.LongFunction;
+
+/**
+ * Open-addressing map from primitive long to int, for counters keyed by thread or stack id on
+ * the per-event path of the accumulators: incrementing never boxes or allocates unless the
+ * table grows.
+ *
+ * Not thread-safe.
+ */
+final class LongIntHashMap {
+
+    // 0 marks a free slot; the key 0 itself is tracked on the side
+    private long[] keys;
+    private int[] values;
+    private boolean hasZero;
+    private int zeroValue;
+    private int size;
+
+    LongIntHashMap() {
+        this(8);
+    }
+
+    LongIntHashMap(int expected) {
+        int capacity = LongHashSet.capacityFor(expected);
+        keys = new long[capacity];
+        values = new int[capacity];
+    }
+
+    private LongIntHashMap(LongIntHashMap other) {
+        keys = other.keys.clone();
+        values = other.values.clone();
+        hasZero = other.hasZero;
+        zeroValue = other.zeroValue;
+        size = other.size;
+    }
+
+    LongIntHashMap copy() {
+        return new LongIntHashMap(this);
+    }
+
+    /** Add {@code delta} to the value of {@code key}, starting from 0; @return the new value */
+    int addTo(long key, int delta) {
+        if (key == 0) {
+            if (!hasZero) {
+                hasZero = true;
+                size++;
+            }
+            return zeroValue += delta;
+        }
+
+        int mask = keys.length - 1;
+        int slot = LongHashSet.mix(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) return values[slot] += delta;
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = delta;
+        if (++size * 2 > keys.length) grow();
+        return delta;
+    }
+
+    /**
+     * Space-Saving update: like {@link #addTo}, except that once {@code capacity} keys are
+     * tracked, a new key replaces the one with the smallest value and takes over that value.
+     * Values then overestimate their key's total by at most (sum of all deltas) / capacity,
+     * and every key whose total exceeds that bound is tracked.
+     *
+     * @return the new value
+     */
+    int addToBounded(long key, int delta, int capacity) {
+        if (size < capacity || get(key, Integer.MIN_VALUE) != Integer.MIN_VALUE) return addTo(key, delta);
+
+        long evicted = minKey();
+        int inherited = remove(evicted);
+        return addTo(key, inherited + delta);
+    }
+
+    /** @return the key with the smallest value, the smallest such key on ties; the map must not be empty */
+    private long minKey() {
+        long best = 0;
+        int bestValue = hasZero ? zeroValue : Integer.MAX_VALUE;
+        for (int i = 0; i < keys.length; i++) {
+            long key = keys[i];
+            if (key != 0 && (values[i] < bestValue || (values[i] == bestValue && key < best))) {
+                best = key;
+                bestValue = values[i];
+            }
+        }
+        return best;
+    }
+
+    /** Remove {@code key}; @return its value, or 0 when absent */
+    int remove(long key) {
+        if (key == 0) {
+            if (!hasZero) return 0;
+            hasZero = false;
+            size--;
+            int value = zeroValue;
+            zeroValue = 0;
+            return value;
+        }
+
+        int mask = keys.length - 1;
+        int slot = LongHashSet.mix(key) & mask;
+        while (keys[slot] != key) {
+            if (keys[slot] == 0) return 0;
+            slot = (slot + 1) & mask;
+        }
+        int value = values[slot];
+        size--;
+
+        // shift later entries of the probe run back so that lookups never stop at the gap
+        int gap = slot;
+        for (int next = (gap + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+            int home = LongHashSet.mix(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = 0;
+        values[gap] = 0;
+        return value;
+    }
+
+    int get(long key, int defaultValue) {
+        if (key == 0) return hasZero ? zeroValue : defaultValue;
+
+        int mask = keys.length - 1;
+        int slot = LongHashSet.mix(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) return values[slot];
+            slot = (slot + 1) & mask;
+        }
+        return defaultValue;
+    }
+
+    void addAll(LongIntHashMap other) {
+        if (other.hasZero) addTo(0, other.zeroValue);
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != 0) addTo(other.keys[i], other.values[i]);
+        }
+    }
+
+    /** Add {@code other}'s values scaled by {@code weight} and rounded; values that round to 0 are skipped */
+    void addAll(LongIntHashMap other, double weight) {
+        if (weight == 1) {
+            addAll(other);
+            return;
+        }
+        other.forEach((key, value) -> {
+            int scaled = (int) Math.round(value * weight);
+            if (scaled != 0) addTo(key, scaled);
+        });
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the key with the largest value, the smallest such key on ties, or
+     *         {@code defaultKey} when empty; independent of insertion order
+     */
+    long maxKey(long defaultKey) {
+        long best = defaultKey;
+        int bestValue = Integer.MIN_VALUE;
+        if (hasZero) {
+            best = 0;
+            bestValue = zeroValue;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0 && (values[i] > bestValue || values[i] == bestValue && keys[i] < best)) {
+                best = keys[i];
+                bestValue = values[i];
+            }
+        }
+        return best;
+    }
+
+    /** @return the largest value, or 0 when empty */
+    int maxValue() {
+        int max = hasZero ? zeroValue : 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) max = Math.max(max, values[i]);
+        }
+        return max;
+    }
+
+    interface Visitor {
+        void accept(long key, int value);
+    }
+
+    void forEach(Visitor visitor) {
+        if (hasZero) visitor.accept(0, zeroValue);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) visitor.accept(keys[i], values[i]);
+        }
+    }
+
+    /**
+     * @return an immutable map over a sorted copy of the entries: two arrays instead of a
+     *         node and two boxes per entry; lookups binary-search, boxing only on access
+     */
+    Map<Long, Integer> toMap() {
+        long[] sortedKeys = new long[size];
+        int n = 0;
+        if (hasZero) sortedKeys[n++] = 0;
+        for (long key : keys) {
+            if (key != 0) sortedKeys[n++] = key;
+        }
+        Arrays.sort(sortedKeys);
+
+        int[] sortedValues = new int[size];
+        for (int i = 0; i < size; i++) {
+            sortedValues[i] = get(sortedKeys[i], 0);
+        }
+        return new CompactLongIntMap(sortedKeys, sortedValues);
+    }
+
+    /**
+     * Like {@link #toMap()}, with every key converted by {@code keyOf}, which must map
+     * distinct keys to distinct objects. The objects are not hashed until a lookup needs
+     * them, so a record whose map is only iterated never hashes its keys.
+     */
+    <K> Map<K, Integer> toMap(LongFunction<K> keyOf) {
+        Map<Long, Integer> sorted = toMap();
+        CompactLongIntMap compact = (CompactLongIntMap) sorted;
+        Object[] converted = new Object[compact.keys.length];
+        for (int i = 0; i < converted.length; i++) {
+            converted[i] = keyOf.apply(compact.keys[i]);
+        }
+        return new CompactObjectIntMap<>(converted, compact.values);
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0) continue;
+            int slot = LongHashSet.mix(oldKeys[i]) & mask;
+            while (keys[slot] != 0) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private static final class CompactLongIntMap extends AbstractMap<Long, Integer> {
+        private final long[] keys;
+        private final int[] values;
+
+        CompactLongIntMap(long[] keys, int[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        public Integer get(Object key) {
+            int i = key instanceof Long k ? Arrays.binarySearch(keys, k) : -1;
+            return i >= 0 ? values[i] : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof Long k && Arrays.binarySearch(keys, k) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return keys.length;
+        }
+
+        @Override
+        public Set<Entry<Long, Integer>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<Long, Integer>> iterator() {
+                    return new Iterator<>() {
+                        int next;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < keys.length;
+                        }
+
+                        @Override
+                        public Entry<Long, Integer> next() {
+                            if (next >= keys.length) throw new NoSuchElementException();
+                            int i = next++;
+                            return new SimpleImmutableEntry<>(keys[i], values[i]);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return keys.length;
+                }
+            };
+        }
+    }
+
+    private static final class CompactObjectIntMap<K> extends AbstractMap<K, Integer> {
+        private final Object[] keys;
+        private final int[] values;
+        // Built on the first lookup
+        private Map<Object, Integer> index;
+
+        CompactObjectIntMap(Object[] keys, int[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        public Integer get(Object key) {
+            return index().get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return index().containsKey(key);
+        }
+
+        private synchronized Map<Object, Integer> index() {
+            if (index == null) {
+                Map<Object, Integer> map = new HashMap<>(keys.length * 2);
+                for (int i = 0; i < keys.length; i++) map.put(keys[i], values[i]);
+                index = map;
+            }
+            return index;
+        }
+
+        @Override
+        public int size() {
+            return keys.length;
+        }
+
+        @Override
+        public Set<Entry<K, Integer>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<K, Integer>> iterator() {
+                    return new Iterator<>() {
+                        int next;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < keys.length;
+                        }
+
+                        @Override
+                        @SuppressWarnings("unchecked")
+                        public Entry<K, Integer> next() {
+                            if (next >= keys.length) throw new NoSuchElementException();
+                            int i = next++;
+                            return new SimpleImmutableEntry<>((K) keys[i], values[i]);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return keys.length;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.example.profiler.analysis;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * Open-addressing map from primitive long to an object, e.g. the waiters of a lock and their
+ * names: a key costs a long and a reference instead of a node and a boxed Long. Null values
+ * are allowed; a key is present whether or not it has one.
+ *
+ * Not thread-safe.
+ */
+final class LongObjectHashMap<V> {
+
+    // 0 marks a free slot; the key 0 itself is tracked on the side
+    private long[] keys;
+    private Object[] values;
+    private boolean hasZero;
+    private Object zeroValue;
+    private int size;
+
+    LongObjectHashMap() {
+        this(8);
+    }
+
+    LongObjectHashMap(int expected) {
+        int capacity = LongHashSet.capacityFor(expected);
+        keys = new long[capacity];
+        values = new Object[capacity];
+    }
+
+    private LongObjectHashMap(LongObjectHashMap<V> other) {
+        keys = other.keys.clone();
+        values = other.values.clone();
+        hasZero = other.hasZero;
+        zeroValue = other.zeroValue;
+        size = other.size;
+    }
+
+    /** Add {@code key} with {@code value} unless present; @return true if it was added */
+    boolean putIfAbsent(long key, V value) {
+        if (key == 0) {
+            if (hasZero) return false;
+            hasZero = true;
+            zeroValue = value;
+            size++;
+            return true;
+        }
+
+        int mask = keys.length - 1;
+        int slot = LongHashSet.mix(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) return false;
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > keys.length) grow();
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        if (key == 0) return hasZero ? (V) zeroValue : null;
+
+        int mask = keys.length - 1;
+        int slot = LongHashSet.mix(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) return (V) values[slot];
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    void remove(long key) {
+        if (key == 0) {
+            if (hasZero) size--;
+            hasZero = false;
+            zeroValue = null;
+            return;
+        }
+
+        int mask = keys.length - 1;
+        int slot = LongHashSet.mix(key) & mask;
+        while (keys[slot] != key) {
+            if (keys[slot] == 0) return;
+            slot = (slot + 1) & mask;
+        }
+        size--;
+
+        // shift later entries of the probe run back so that lookups never stop at the gap
+        int gap = slot;
+        for (int next = (gap + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+            int home = LongHashSet.mix(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = 0;
+        values[gap] = null;
+    }
+
+    /** Remove every key that {@code filter} accepts */
+    void removeIf(LongPredicate filter) {
+        for (long key : keys()) {
+            if (filter.test(key)) remove(key);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** @return the keys in ascending order */
+    long[] keys() {
+        long[] sorted = new long[size];
+        int n = 0;
+        if (hasZero) sorted[n++] = 0;
+        for (long key : keys) {
+            if (key != 0) sorted[n++] = key;
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    LongObjectHashMap<V> copy() {
+        return new LongObjectHashMap<>(this);
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0) continue;
+            int slot = LongHashSet.mix(oldKeys[i]) & mask;
+            while (keys[slot] != 0) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+}
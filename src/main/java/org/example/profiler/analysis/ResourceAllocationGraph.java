@@ -0,0 +1,161 @@
+package org.example.profiler.analysis;
+
+import org.example.profiler.monitor.LockEvent;
+import org.example.profiler.monitor.ThreadSnapshot;
+
+import java.util.*;
+
+/**
+ * Threads and locks of one sample as a bipartite graph: a lock points to the thread that
+ * holds it, a thread to the lock it waits for. Unlike {@link WFG}, which keeps only
+ * thread-to-thread edges, every wait stays attached to its lock. So chains that go through
+ * the same monitor show up as one lock with several waiters, and a cycle tells apart threads
+ * that took locks in conflicting orders from a thread waiting on itself.
+ *
+ * A thread waits for at most one lock and an exclusive lock has at most one holder, so
+ * following the edges from any thread is a single path and {@link #findCycles()} is
+ * linear in threads and locks.
+ */
+public class ResourceAllocationGraph {
+
+    private final Map<String, Long> holders = new HashMap<>();
+    private final Map<Long, List<String>> heldLocks = new HashMap<>();
+    private final Map<Long, String> waitingFor = new HashMap<>();
+    private final Map<String, List<Long>> waiters = new HashMap<>();
+
+    /**
+     * Build the graph from the latest snapshot of every thread in {@code snapshots}. A lock
+     * waited on is held by its reported owner, even if the owner was not sampled.
+     */
+    public static ResourceAllocationGraph build(Collection<ThreadSnapshot> snapshots) {
+        Map<Long, ThreadSnapshot> latest = new LinkedHashMap<>();
+        for (ThreadSnapshot snapshot : snapshots) {
+            latest.merge(snapshot.getThreadId(), snapshot,
+                    (a, b) -> b.getSampleTime() >= a.getSampleTime() ? b : a);
+        }
+
+        ResourceAllocationGraph graph = new ResourceAllocationGraph();
+        for (ThreadSnapshot snapshot : latest.values()) {
+            for (LockEvent lock : heldBy(snapshot)) {
+                graph.hold(snapshot.getThreadId(), lock.getLockId());
+            }
+        }
+        for (ThreadSnapshot snapshot : latest.values()) {
+            LockEvent lock = snapshot.getLockWaitingOn();
+            if (lock == null) continue;
+
+            if (lock.isOwned() && !graph.holders.containsKey(lock.getLockId())) {
+                graph.hold(lock.getOwnerThreadId(), lock.getLockId());
+            }
+            graph.waitingFor.put(snapshot.getThreadId(), lock.getLockId());
+            graph.waiters.computeIfAbsent(lock.getLockId(), id -> new ArrayList<>()).add(snapshot.getThreadId());
+        }
+        return graph;
+    }
+
+    /** Monitors innermost first, as the JVM reports them, then ownable synchronizers */
+    static List<LockEvent> heldBy(ThreadSnapshot snapshot) {
+        List<LockEvent> monitors = snapshot.getLockedMonitors();
+        List<LockEvent> synchronizers = snapshot.getLockedSynchronizers();
+        List<LockEvent> held = new ArrayList<>(size(monitors) + size(synchronizers));
+        if (monitors != null) held.addAll(monitors);
+        if (synchronizers != null) held.addAll(synchronizers);
+        return held;
+    }
+
+    private static int size(List<LockEvent> locks) {
+        return locks == null ? 0 : locks.size();
+    }
+
+    private void hold(long threadId, String lockId) {
+        if (holders.putIfAbsent(lockId, threadId) == null) {
+            heldLocks.computeIfAbsent(threadId, id -> new ArrayList<>()).add(lockId);
+        }
+    }
+
+    /**
+     * Cycles of thread, lock waited for, its holder and so on back to the first thread.
+     * Each cycle starts at its smallest thread id.
+     */
+    public List<LockCycle> findCycles() {
+        List<LockCycle> cycles = new ArrayList<>();
+        // 0 unvisited, otherwise the number of the walk that visited the thread
+        Map<Long, Integer> walkOf = new HashMap<>();
+        int walk = 0;
+
+        for (Long start : waitingFor.keySet()) {
+            if (walkOf.containsKey(start)) continue;
+            walk++;
+
+            // 1️⃣ Follow thread -> lock -> holder until the path ends or meets a visited thread
+            Long thread = start;
+            while (thread != null && !walkOf.containsKey(thread)) {
+                walkOf.put(thread, walk);
+                String lock = waitingFor.get(thread);
+                thread = lock == null ? null : holders.get(lock);
+            }
+
+            // 2️⃣ Meeting a thread of this walk closes a new cycle
+            if (thread != null && walkOf.get(thread) == walk) {
+                cycles.add(cycleFrom(thread));
+            }
+        }
+
+        cycles.sort(Comparator.comparing(cycle -> cycle.threadIds().get(0)));
+        return cycles;
+    }
+
+    private LockCycle cycleFrom(long first) {
+        List<Long> threads = new ArrayList<>();
+        long thread = first;
+        do {
+            threads.add(thread);
+            thread = holders.get(waitingFor.get(thread));
+        } while (thread != first);
+
+        // rotate to the smallest thread id
+        Collections.rotate(threads, -threads.indexOf(Collections.min(threads)));
+        List<String> locks = new ArrayList<>(threads.size());
+        for (long t : threads) locks.add(waitingFor.get(t));
+        return new LockCycle(threads, locks, threads.size() == 1);
+    }
+
+    /** @return locks that two or more threads wait for, lock id to its waiters */
+    public Map<String, List<Long>> getSharedLocks() {
+        Map<String, List<Long>> shared = new TreeMap<>();
+        waiters.forEach((lockId, threads) -> {
+            if (threads.size() > 1) shared.put(lockId, List.copyOf(threads));
+        });
+        return shared;
+    }
+
+    /** @return the thread holding {@code lockId}, or -1 */
+    public long getHolder(String lockId) {
+        return holders.getOrDefault(lockId, -1L);
+    }
+
+    public List<String> getHeldLocks(long threadId) {
+        return heldLocks.getOrDefault(threadId, List.of());
+    }
+
+    /** @return the lock {@code threadId} waits for, or null */
+    public String getWaitingFor(long threadId) {
+        return waitingFor.get(threadId);
+    }
+
+    public List<Long> getWaiters(String lockId) {
+        return waiters.getOrDefault(lockId, List.of());
+    }
+
+    public int getLockCount() {
+        Set<String> locks = new HashSet<>(holders.keySet());
+        locks.addAll(waiters.keySet());
+        return locks.size();
+    }
+
+    public int getThreadCount() {
+        Set<Long> threads = new HashSet<>(heldLocks.keySet());
+        threads.addAll(waitingFor.keySet());
+        return threads.size();
+    }
+}
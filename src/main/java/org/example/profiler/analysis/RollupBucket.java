@@ -0,0 +1,75 @@
+package org.example.profiler.analysis;
+
+import lombok.Getter;
+import org.example.profiler.monitor.LockEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-lock and per-thread contention over {@code [startTime, startTime + durationMs)}.
+ */
+@Getter
+public class RollupBucket {
+
+    private final long startTime;
+    private final long durationMs;
+
+    private final Map<String, LockRollup> locks = new HashMap<>();
+    private final Map<Long, ThreadRollup> threads = new HashMap<>();
+
+    public RollupBucket(long startTime, long durationMs) {
+        this.startTime = startTime;
+        this.durationMs = durationMs;
+    }
+
+    public long getEndTime() {
+        return startTime + durationMs;
+    }
+
+    public boolean overlaps(ProfilingWindow window) {
+        return startTime <= window.endTime() && getEndTime() > window.startTime();
+    }
+
+    public long getBlockedTime() {
+        long total = 0;
+        for (LockRollup lock : locks.values()) total += lock.getBlockedTime();
+        return total;
+    }
+
+    public long getBlockCount() {
+        long total = 0;
+        for (LockRollup lock : locks.values()) total += lock.getBlockCount();
+        return total;
+    }
+
+    LockRollup lock(LockEvent lock) {
+        return locks.computeIfAbsent(lock.getLockId(), id -> LockRollup.of(lock));
+    }
+
+    ThreadRollup thread(long threadId, String threadName) {
+        return threads.computeIfAbsent(threadId, id -> new ThreadRollup(threadId, threadName));
+    }
+
+    /** Add everything in {@code other}, which must lie inside this bucket, into this one. */
+    void merge(RollupBucket other) {
+        other.locks.forEach((id, lock) -> {
+            LockRollup target = locks.get(id);
+            if (target == null) locks.put(id, lock.copy());
+            else target.merge(lock);
+        });
+        other.threads.forEach((id, thread) -> {
+            ThreadRollup target = threads.get(id);
+            if (target == null) threads.put(id, thread.copy());
+            else target.merge(thread);
+        });
+    }
+
+    void trimStacks(int topK) {
+        for (LockRollup lock : locks.values()) lock.trimStacks(topK);
+    }
+
+    boolean isEmpty() {
+        return locks.isEmpty() && threads.isEmpty();
+    }
+}
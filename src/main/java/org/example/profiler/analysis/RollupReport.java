@@ -0,0 +1,20 @@
+package org.example.profiler.analysis;
+
+import java.util.List;
+
+/**
+ * Contention over a {@link ProfilingWindow}, answered from pre-aggregated buckets.
+ *
+ * @param resolutionMs width of the buckets the report was built from; the window is widened
+ *                     to whole buckets
+ * @param series       blocked time per bucket, oldest first; buckets without contention are left out
+ */
+public record RollupReport(
+        ProfilingWindow window,
+        long resolutionMs,
+        List<Point> series,
+        List<LockRollup> topLocks,
+        List<ThreadRollup> topThreads
+) {
+    public record Point(long startTime, long blockedTime, long blockCount) {}
+}
@@ -0,0 +1,97 @@
+package org.example.profiler.analysis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stall blamed on each root blocker of a {@link ContentionAnalyzer}, keyed by the root's
+ * sorted thread ids. Adding a root again adds its stall, keeps the most direct waiters seen,
+ * and marks it deadlocked if it ever was.
+ *
+ * With a capacity, at most that many roots are kept, the same way {@link HeavyHitterLocks}
+ * keeps locks: a new root replaces the one with the least stall, and the replaced stall goes
+ * into a {@link CountMinSketch}. A root that comes back starts from the sketch's estimate of
+ * its earlier stall, so its inducedStallTime never undercounts and overcounts by at most
+ * {@code e / width} of all evicted stall, with probability {@code 1 - e^-4}.
+ *
+ * Not thread-safe; the analyzer serializes access.
+ */
+final class RootBlame {
+
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH_PER_ROOT = 8;
+    private static final int MIN_SKETCH_WIDTH = 1024;
+
+    // 0 for no limit
+    private final int capacity;
+    private final Map<List<Long>, RootBlocker> roots = new HashMap<>();
+    private final CountMinSketch evicted;
+
+    RootBlame() {
+        this(0);
+    }
+
+    /** @param capacity roots to keep, or 0 for all */
+    RootBlame(int capacity) {
+        this.capacity = capacity;
+        this.evicted = capacity > 0
+                ? new CountMinSketch(SKETCH_DEPTH, Math.max(MIN_SKETCH_WIDTH, capacity * SKETCH_WIDTH_PER_ROOT))
+                : null;
+    }
+
+    void add(RootBlocker blocker) {
+        add(blocker, blocker.inducedStallTime());
+    }
+
+    /** Add the roots of {@code other} with their stall scaled by {@code weight} and rounded, e.g. to age older buckets */
+    void merge(RootBlame other, double weight) {
+        for (RootBlocker blocker : other.roots.values()) {
+            add(blocker, weight == 1 ? blocker.inducedStallTime() : Math.round(blocker.inducedStallTime() * weight));
+        }
+    }
+
+    private void add(RootBlocker blocker, long stall) {
+        List<Long> threadIds = blocker.threadIds();
+        RootBlocker current = roots.get(threadIds);
+        if (current == null) {
+            if (capacity > 0 && roots.size() >= capacity) evictSmallest();
+            long earlier = evicted != null ? evicted.estimate(hash(threadIds)) : 0;
+            roots.put(threadIds, new RootBlocker(threadIds, earlier + stall, blocker.directWaiters(), blocker.deadlocked()));
+            return;
+        }
+
+        roots.put(threadIds, new RootBlocker(
+                threadIds,
+                current.inducedStallTime() + stall,
+                Math.max(current.directWaiters(), blocker.directWaiters()),
+                current.deadlocked() || blocker.deadlocked()));
+    }
+
+    private void evictSmallest() {
+        RootBlocker smallest = null;
+        for (RootBlocker blocker : roots.values()) {
+            if (smallest == null || blocker.inducedStallTime() < smallest.inducedStallTime()
+                    || (blocker.inducedStallTime() == smallest.inducedStallTime()
+                    && blocker.threadIds().get(0) < smallest.threadIds().get(0))) {
+                smallest = blocker;
+            }
+        }
+        roots.remove(smallest.threadIds());
+        evicted.add(hash(smallest.threadIds()), smallest.inducedStallTime());
+    }
+
+    /** 64-bit FNV-1a over the thread ids */
+    private static long hash(List<Long> threadIds) {
+        long h = 0xcbf29ce484222325L;
+        for (long threadId : threadIds) {
+            h = (h ^ threadId) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    List<RootBlocker> values() {
+        return new ArrayList<>(roots.values());
+    }
+}
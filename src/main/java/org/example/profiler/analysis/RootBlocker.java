@@ -0,0 +1,20 @@
+package org.example.profiler.analysis;
+
+import java.util.List;
+
+/**
+ * A thread at the end of wait-for chains, or a deadlock ring, blamed for every stall that
+ * its chains lead to.
+ *
+ * @param threadIds         the root thread, or the members of a deadlock ring, ascending
+ * @param inducedStallTime  waiting time of all direct and transitive waiters, in ms
+ * @param directWaiters     threads waiting on the root itself; for a sampled ranking, the
+ *                          most seen in one sample
+ * @param deadlocked        whether the root is a ring that waits on nothing outside itself
+ */
+public record RootBlocker(
+        List<Long> threadIds,
+        long inducedStallTime,
+        int directWaiters,
+        boolean deadlocked
+) {}
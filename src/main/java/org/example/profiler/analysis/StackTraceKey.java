@@ -1,5 +1,52 @@
 package org.example.profiler.analysis;
 
+import org.example.profiler.monitor.StackTable;
+
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public record StackTraceKey(List<StackTraceElement> frames) {
+
+    private static final StackTraceKey NONE = new StackTraceKey(List.of());
+
+    // One key per interned stack, indexed by StackTable id, so that records of many locks
+    // share the keys of their common stacks; grown under the class lock. The keys wrap
+    // StackTable's frame arrays, so the cache is dropped when StackTable releases them.
+    private static volatile AtomicReferenceArray<StackTraceKey> cache = new AtomicReferenceArray<>(1024);
+    private static volatile int cacheGeneration = StackTable.generation();
+
+    /** Key of a stack interned in the {@link StackTable}; accumulators keep the int id and convert when reporting */
+    public static StackTraceKey of(int stackId) {
+        if (stackId == StackTable.NO_STACK) return NONE;
+
+        AtomicReferenceArray<StackTraceKey> keys = cache;
+        boolean current = cacheGeneration == StackTable.generation();
+        StackTraceKey key = current && stackId < keys.length() ? keys.get(stackId) : null;
+        if (key != null) return key;
+
+        // the frames are StackTable's own array, so the list must not write through to it
+        key = new StackTraceKey(Collections.unmodifiableList(Arrays.asList(StackTable.stack(stackId))));
+        store(stackId, key);
+        return key;
+    }
 
-public record StackTraceKey(List<StackTraceElement> frames) {}
+    private static synchronized void store(int stackId, StackTraceKey key) {
+        AtomicReferenceArray<StackTraceKey> keys = cache;
+        int generation = StackTable.generation();
+        if (cacheGeneration != generation) {
+            keys = new AtomicReferenceArray<>(keys.length());
+            cache = keys;
+            cacheGeneration = generation;
+        }
+        if (stackId >= keys.length()) {
+            AtomicReferenceArray<StackTraceKey> larger =
+                    new AtomicReferenceArray<>(Math.max(stackId + 1, keys.length() * 2));
+            for (int i = 0; i < keys.length(); i++) larger.set(i, keys.get(i));
+            keys = larger;
+            cache = larger;
+        }
+        keys.set(stackId, key);
+    }
+}
@@ -39,7 +39,20 @@ public class ThreadHistory {
         snapshots.add(snapshot);
     }
 
+    /**
+     * Total time spent BLOCKED on monitor entry over this history. Uses the JVM's
+     * cumulative blocked-time counter when available, so blocks shorter than the
+     * sampling interval are included; otherwise sums the intervals sampled as BLOCKED.
+     */
     public long getTotalBlockedTime() {
+        if (snapshots.size() > 1) {
+            ThreadSnapshot first = snapshots.get(0);
+            ThreadSnapshot last = snapshots.get(snapshots.size() - 1);
+            if (first.hasContentionCounters() && last.hasContentionCounters()) {
+                return Math.max(0, last.getBlockedTime() - first.getBlockedTime());
+            }
+        }
+
         long blockedTime = 0;
         for (int i = 1; i < snapshots.size(); i++) {
             ThreadSnapshot prev = snapshots.get(i - 1);
@@ -51,6 +64,15 @@ public class ThreadHistory {
         return blockedTime;
     }
 
+    /** @return number of monitor-entry blocks over this history, or -1 without JVM counters */
+    public long getTotalBlockedCount() {
+        if (snapshots.size() < 2) return 0;
+        ThreadSnapshot first = snapshots.get(0);
+        ThreadSnapshot last = snapshots.get(snapshots.size() - 1);
+        if (!first.hasContentionCounters() || !last.hasContentionCounters()) return -1;
+        return Math.max(0, last.getBlockedCount() - first.getBlockedCount());
+    }
+
     public int getMaxHeldLocks() {
         return snapshots.stream()
                 .mapToInt(ThreadSnapshot::getHeldLockCount)
@@ -0,0 +1,37 @@
+package org.example.profiler.analysis;
+
+import lombok.Getter;
+
+/**
+ * Contention of one thread within a {@link RollupBucket}.
+ */
+@Getter
+public class ThreadRollup {
+
+    private final long threadId;
+    private final String threadName;
+
+    private long blockedTime;
+    private long blockCount;
+
+    public ThreadRollup(long threadId, String threadName) {
+        this.threadId = threadId;
+        this.threadName = threadName;
+    }
+
+    void record(long durationMillis, long events) {
+        blockedTime += durationMillis;
+        blockCount += events;
+    }
+
+    void merge(ThreadRollup other) {
+        blockedTime += other.blockedTime;
+        blockCount += other.blockCount;
+    }
+
+    ThreadRollup copy() {
+        ThreadRollup copy = new ThreadRollup(threadId, threadName);
+        copy.merge(this);
+        return copy;
+    }
+}
@@ -0,0 +1,51 @@
+package org.example.profiler.analysis;
+
+import org.example.profiler.monitor.ThreadSnapshot;
+
+/**
+ * Blocked time of one thread across all locks, behind {@link ContentionAnalyzer#topBlockedThreads}.
+ * Mergeable like {@link LockContentionAccumulator}, so that window buckets can keep their own.
+ *
+ * Not thread-safe; the analyzer serializes access.
+ */
+final class ThreadTotals {
+
+    private String threadName;
+    private long blockedTime;
+    private long blockCount;
+    private long maxSingleBlock;
+
+    void add(ThreadSnapshot waiter, long duration, long episode, int events) {
+        threadName = waiter.getThreadName();
+        blockedTime += duration;
+        blockCount += events;
+        maxSingleBlock = Math.max(maxSingleBlock, episode);
+    }
+
+    /**
+     * Add {@code other}, with its time and count scaled by {@code weight}. The longest wait
+     * is a single observation, so it is not scaled.
+     *
+     * @return these totals
+     */
+    ThreadTotals merge(ThreadTotals other, double weight) {
+        if (other.threadName != null) threadName = other.threadName;
+        blockedTime += Math.round(other.blockedTime * weight);
+        blockCount += Math.round(other.blockCount * weight);
+        maxSingleBlock = Math.max(maxSingleBlock, other.maxSingleBlock);
+        return this;
+    }
+
+    ThreadTotals copy() {
+        return new ThreadTotals().merge(this, 1);
+    }
+
+    long getBlockedTime() {
+        return blockedTime;
+    }
+
+    BlockedThreadStats toStats(long threadId, ThreadSnapshot lastSnapshot) {
+        return new BlockedThreadStats(threadId, threadName, blockedTime, (int) blockCount,
+                maxSingleBlock, lastSnapshot);
+    }
+}
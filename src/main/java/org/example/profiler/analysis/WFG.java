@@ -14,13 +14,6 @@ public class WFG {
     private final Map<Long, Long> totalWaitTimeCache = new ConcurrentHashMap<>();
     private Set<Long> ownerThreadsCache = new ConcurrentHashMap<>().newKeySet();
 
-    private long indexCounter = 0;
-    private final Map<Long, Long> indices = new HashMap<>();
-    private final Map<Long, Long> lowlinks = new HashMap<>();
-    private final Deque<Long> stack = new ArrayDeque<>();
-    private final Set<Long> onStack = new HashSet<>();
-    private final List<List<Long>> sccs = new ArrayList<>();
-
     private final List<List<Long>> deadBlockCache = new ArrayList<>();
     public boolean deadBlockCacheValid = false;
 
@@ -59,56 +52,220 @@ public class WFG {
         deadBlockCacheValid = false;
     }
 
+    /**
+     * Strongly connected components with more than one thread. Iterative Tarjan over an
+     * int-indexed copy of the graph, so the depth of a wait chain is limited by the heap,
+     * not by the thread stack.
+     */
     public List<List<Long>> detectCycles() {
-        indices.clear();
-        lowlinks.clear();
-        stack.clear();
-        onStack.clear();
-        sccs.clear();
-        indexCounter = 0;
-
-        for (Long node : adjacencyList.keySet()) {
-            if (!indices.containsKey(node)) {
-                strongConnect(node);
+        Condensed graph = condense();
+
+        List<List<Long>> cycles = new ArrayList<>();
+        for (int c = 0; c < graph.componentCount; c++) {
+            if (graph.members(c).length > 1) cycles.add(graph.threadIds(c));
+        }
+        return cycles;
+    }
+
+    /**
+     * Push every waiting time down the wait-for chains to the threads at their ends and rank
+     * those root blockers by the stall they induce. A thread that waited on several owners
+     * passes its own wait and everything blamed on it to those owners in proportion to how
+     * long it waited on each. A deadlock ring counts as one root when it waits on nothing
+     * outside itself, and otherwise passes its blame on like a single thread.
+     *
+     * Linear in threads and edges: the graph is condensed into its strongly connected
+     * components, and Tarjan emits those sinks first, so one pass in reverse emission order
+     * sees every component after all of its waiters.
+     *
+     * @param topK number of root blockers to return, or 0 for all
+     * @return largest inducedStallTime first
+     */
+    public List<RootBlocker> rankRootBlockers(int topK) {
+        Condensed graph = condense();
+        int components = graph.componentCount;
+
+        // 1️⃣ Internal and outgoing wait time per component
+        double[] inflow = new double[components];
+        double[] internal = new double[components];
+        double[] outgoing = new double[components];
+        int[] directWaiters = new int[components];
+        for (int v = 0; v < graph.n; v++) {
+            int c = graph.component[v];
+            boolean waitsOutside = false;
+            for (int e = graph.rowStart[v]; e < graph.rowStart[v + 1]; e++) {
+                int target = graph.component[graph.targets[e]];
+                if (target == c) {
+                    internal[c] += graph.weights[e];
+                } else {
+                    outgoing[c] += graph.weights[e];
+                    if (!waitsOutside) directWaiters[target]++;
+                    waitsOutside = true;
+                }
             }
         }
 
-        List<List<Long>> cycles = new ArrayList<>();
-        for (List<Long> scc : sccs) {
-            if (scc.size() > 1) {
-                cycles.add(scc);
+        // 2️⃣ Waiters first: pass each component's blame on to what it waits on
+        List<RootBlocker> roots = new ArrayList<>();
+        for (int c = components - 1; c >= 0; c--) {
+            double blame = inflow[c] + internal[c];
+            if (outgoing[c] == 0) {
+                if (blame > 0) {
+                    roots.add(new RootBlocker(graph.threadIds(c), Math.round(blame), directWaiters[c],
+                            graph.members(c).length > 1));
+                }
+                continue;
+            }
+            for (int v : graph.members(c)) {
+                for (int e = graph.rowStart[v]; e < graph.rowStart[v + 1]; e++) {
+                    int target = graph.component[graph.targets[e]];
+                    if (target == c) continue;
+                    long weight = graph.weights[e];
+                    inflow[target] += weight + blame * weight / outgoing[c];
+                }
             }
         }
 
-        return cycles;
+        // 3️⃣ Largest induced stall first
+        roots.sort(Comparator.comparingLong(RootBlocker::inducedStallTime).reversed()
+                .thenComparing(root -> root.threadIds().get(0)));
+        return topK > 0 && roots.size() > topK ? new ArrayList<>(roots.subList(0, topK)) : roots;
     }
 
-    private void strongConnect(Long v) {
-        indices.put(v, indexCounter);
-        lowlinks.put(v, indexCounter);
-        indexCounter++;
-        stack.push(v);
-        onStack.add(v);
+    /** The graph in int-indexed compressed rows, with its strongly connected components */
+    private static final class Condensed {
+        long[] threadIds;
+        int n;
+        int[] rowStart;
+        int[] targets;
+        long[] weights;
+
+        // Component of each thread; components are numbered in Tarjan's emission order, sinks first
+        int[] component;
+        int componentCount;
+        // Threads of component c are order[componentStart[c] .. componentStart[c + 1])
+        int[] order;
+        int[] componentStart;
+
+        int[] members(int c) {
+            return Arrays.copyOfRange(order, componentStart[c], componentStart[c + 1]);
+        }
 
-        for (Long w : adjacencyList.getOrDefault(v, Collections.emptySet())) {
-            if (!indices.containsKey(w)) {
-                strongConnect(w);
-                lowlinks.put(v, Math.min(lowlinks.get(v), lowlinks.get(w)));
-            } else if (onStack.contains(w)) {
-                lowlinks.put(v, Math.min(lowlinks.get(v), indices.get(w)));
-            }
+        List<Long> threadIds(int c) {
+            List<Long> ids = new ArrayList<>();
+            for (int v : members(c)) ids.add(threadIds[v]);
+            Collections.sort(ids);
+            return ids;
         }
+    }
 
-        if (lowlinks.get(v).equals(indices.get(v))) {
-            List<Long> scc = new ArrayList<>();
-            Long w;
-            do {
-                w = stack.pop();
-                onStack.remove(w);
-                scc.add(w);
-            } while (!w.equals(v));
-            sccs.add(scc);
+    private Condensed condense() {
+        Condensed graph = new Condensed();
+
+        // 1️⃣ Index the threads and lay the edges out in compressed rows
+        long[] threadIds = new long[adjacencyList.size()];
+        LongIntHashMap indexOf = new LongIntHashMap(threadIds.length);
+        int n = 0;
+        for (Long threadId : adjacencyList.keySet()) {
+            if (n == threadIds.length) threadIds = Arrays.copyOf(threadIds, n * 2);
+            threadIds[n] = threadId;
+            indexOf.addTo(threadId, n++);
+        }
+
+        int[] rowStart = new int[n + 1];
+        int[] targets = new int[16];
+        long[] weights = new long[16];
+        int edges = 0;
+        for (int v = 0; v < n; v++) {
+            rowStart[v] = edges;
+            Map<Long, Long> times = waitTimes.getOrDefault(threadIds[v], Map.of());
+            for (Long target : adjacencyList.getOrDefault(threadIds[v], Collections.emptySet())) {
+                int w = indexOf.get(target, -1);
+                if (w < 0) continue; // removed concurrently
+                if (edges == targets.length) {
+                    targets = Arrays.copyOf(targets, edges * 2);
+                    weights = Arrays.copyOf(weights, edges * 2);
+                }
+                weights[edges] = times.getOrDefault(target, 0L);
+                targets[edges++] = w;
+            }
+        }
+        rowStart[n] = edges;
+
+        // 2️⃣ Tarjan with an explicit call stack: callStack holds the path, nextEdge where each node resumes
+        int[] index = new int[n];
+        int[] lowlink = new int[n];
+        int[] nextEdge = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] sccStack = new int[n];
+        int[] callStack = new int[n];
+        int[] component = new int[n];
+        int[] order = new int[n];
+        int[] componentStart = new int[n + 1];
+        Arrays.fill(index, -1);
+        int counter = 0;
+        int sccTop = 0;
+        int components = 0;
+        int emitted = 0;
+
+        for (int root = 0; root < n; root++) {
+            if (index[root] >= 0) continue;
+
+            int depth = 0;
+            callStack[depth++] = root;
+            index[root] = lowlink[root] = counter++;
+            nextEdge[root] = rowStart[root];
+            sccStack[sccTop++] = root;
+            onStack[root] = true;
+
+            while (depth > 0) {
+                int v = callStack[depth - 1];
+                if (nextEdge[v] < rowStart[v + 1]) {
+                    int w = targets[nextEdge[v]++];
+                    if (index[w] < 0) {
+                        // descend into w
+                        index[w] = lowlink[w] = counter++;
+                        nextEdge[w] = rowStart[w];
+                        sccStack[sccTop++] = w;
+                        onStack[w] = true;
+                        callStack[depth++] = w;
+                    } else if (onStack[w]) {
+                        lowlink[v] = Math.min(lowlink[v], index[w]);
+                    }
+                    continue;
+                }
+
+                // v is done: pop its component if it is a root, then return to the caller
+                if (lowlink[v] == index[v]) {
+                    componentStart[components] = emitted;
+                    int w;
+                    do {
+                        w = sccStack[--sccTop];
+                        onStack[w] = false;
+                        component[w] = components;
+                        order[emitted++] = w;
+                    } while (w != v);
+                    components++;
+                }
+                depth--;
+                if (depth > 0) {
+                    int caller = callStack[depth - 1];
+                    lowlink[caller] = Math.min(lowlink[caller], lowlink[v]);
+                }
+            }
         }
+        componentStart[components] = emitted;
+
+        graph.threadIds = threadIds;
+        graph.n = n;
+        graph.rowStart = rowStart;
+        graph.targets = targets;
+        graph.weights = weights;
+        graph.component = component;
+        graph.componentCount = components;
+        graph.order = order;
+        graph.componentStart = componentStart;
+        return graph;
     }
 
     public boolean hasDeadlock() {
@@ -172,18 +329,40 @@ public class WFG {
         return deadBlockCache;
     }
 
-    private void exploreBlockedChain(Long threadId, Set<Long> visited, List<Long> chain) {
-        if (visited.contains(threadId)) return;
-        visited.add(threadId);
+    /**
+     * Depth-first walk from {@code start}, appending a thread once per edge it waits on, or
+     * once if it waits on nothing. Iterative, with one iterator per thread on the path.
+     */
+    private void exploreBlockedChain(Long start, Set<Long> visited, List<Long> chain) {
+        Deque<Long> path = new ArrayDeque<>();
+        Deque<Iterator<Long>> pending = new ArrayDeque<>();
+        if (!enterChain(start, visited, chain, path, pending)) return;
+
+        while (!path.isEmpty()) {
+            Iterator<Long> targets = pending.peek();
+            if (targets.hasNext()) {
+                Long target = targets.next();
+                chain.add(path.peek());
+                enterChain(target, visited, chain, path, pending);
+            } else {
+                path.pop();
+                pending.pop();
+            }
+        }
+    }
+
+    /** @return whether {@code threadId} was pushed to be explored further */
+    private boolean enterChain(Long threadId, Set<Long> visited, List<Long> chain,
+                               Deque<Long> path, Deque<Iterator<Long>> pending) {
+        if (!visited.add(threadId)) return false;
 
         Set<Long> waitingOn = adjacencyList.getOrDefault(threadId, Collections.emptySet());
-        if (!waitingOn.isEmpty()) {
-            for (Long target : waitingOn) {
-                chain.add(threadId);
-                exploreBlockedChain(target, visited, chain);
-            }
-        } else {
+        if (waitingOn.isEmpty()) {
             chain.add(threadId);
+            return false;
         }
+        path.push(threadId);
+        pending.push(waitingOn.iterator());
+        return true;
     }
 }
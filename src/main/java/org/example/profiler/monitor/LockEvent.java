@@ -11,7 +11,6 @@ import java.lang.management.ThreadInfo;
 @Setter
 @ToString
 @FieldDefaults(level = AccessLevel.PRIVATE)
-@AllArgsConstructor
 @NoArgsConstructor
 public class LockEvent {
 
@@ -22,11 +21,43 @@ public class LockEvent {
     long ownerThreadId;
     String ownerThreadName;
 
-    StackTraceElement[] stackTrace;
+    // Interned, see StackTable
+    int stackId = StackTable.NO_STACK;
 
     long acquiredTime;
     boolean contended;
 
+    public LockEvent(String lockId, String lockName, LockType lockType,
+                     long ownerThreadId, String ownerThreadName,
+                     StackTraceElement[] stackTrace,
+                     long acquiredTime, boolean contended) {
+        this(lockId, lockName, lockType, ownerThreadId, ownerThreadName,
+                StackTable.intern(stackTrace), acquiredTime, contended);
+    }
+
+    /** With a stack already interned in the {@link StackTable} */
+    public LockEvent(String lockId, String lockName, LockType lockType,
+                     long ownerThreadId, String ownerThreadName,
+                     int stackId,
+                     long acquiredTime, boolean contended) {
+        this.lockId = lockId;
+        this.lockName = lockName;
+        this.lockType = lockType;
+        this.ownerThreadId = ownerThreadId;
+        this.ownerThreadName = ownerThreadName;
+        this.stackId = stackId;
+        this.acquiredTime = acquiredTime;
+        this.contended = contended;
+    }
+
+    public StackTraceElement[] getStackTrace() {
+        return StackTable.stack(stackId);
+    }
+
+    public void setStackTrace(StackTraceElement[] stackTrace) {
+        this.stackId = StackTable.intern(stackTrace);
+    }
+
     /* ------------------------
        Convenience logic
        ------------------------ */
@@ -39,10 +70,27 @@ public class LockEvent {
        Factory methods
        ------------------------ */
 
+    /**
+     * Lock id used by every source: {@code className@hex(identity)}, the same form as
+     * ThreadInfo.getLockName() and Object.toString().
+     */
+    public static String idOf(String className, long identity) {
+        return className + "@" + Long.toHexString(identity);
+    }
+
+    /**
+     * Id of a virtual-thread pinning site: {@code pin:<class.method>:<line>}. The prefix keeps
+     * it apart from every {@link #idOf} monitor id, which a site's line as a hex identity
+     * could otherwise equal.
+     */
+    public static String pinningSiteIdOf(String siteName, int lineNumber) {
+        return "pin:" + siteName + ":" + lineNumber;
+    }
+
     /** Monitor locks (synchronized blocks / methods) */
     public static LockEvent fromMonitor(MonitorInfo monitor, long sampleTime) {
         return new LockEvent(
-                monitor.getClassName() + "@" + monitor.getIdentityHashCode(),
+                idOf(monitor.getClassName(), monitor.getIdentityHashCode()),
                 monitor.getClassName(),
                 LockType.MONITOR,
                 -1,
@@ -58,12 +106,12 @@ public class LockEvent {
     /** java.util.concurrent locks */
     public static LockEvent fromSynchronizer(LockInfo lock, long sampleTime) {
         return new LockEvent(
-                lock.getClassName() + "@" + lock.getIdentityHashCode(),
+                idOf(lock.getClassName(), lock.getIdentityHashCode()),
                 lock.getClassName(),
                 LockType.SYNCHRONIZER,
                 -1,
                 null,
-                new StackTraceElement[0],
+                StackTable.EMPTY_STACK,
                 sampleTime,
                 false
         );
@@ -78,7 +126,7 @@ public class LockEvent {
             long sampleTime
     ) {
         return new LockEvent(
-                lock.getClassName() + "@" + lock.getIdentityHashCode(),
+                idOf(lock.getClassName(), lock.getIdentityHashCode()),
                 lock.getClassName(),
                 LockType.SYNCHRONIZER,
                 ownerThreadId,
@@ -2,5 +2,7 @@ package org.example.profiler.monitor;
 
 public enum LockType {
     MONITOR,
-    SYNCHRONIZER
+    SYNCHRONIZER,
+    /** A virtual thread blocked while pinned to its carrier, keeping other virtual threads off it */
+    CARRIER_STARVATION
 }
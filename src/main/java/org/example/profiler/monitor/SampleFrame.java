@@ -0,0 +1,293 @@
+package org.example.profiler.monitor;
+
+import java.lang.management.LockInfo;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One thread dump captured as parallel arrays instead of ThreadSnapshot/LockEvent objects.
+ *
+ * Frames are pooled (see {@link SampleFramePool}) and overwritten on every capture; the
+ * arrays only grow while the thread count is still rising. Lock ids are the primitive
+ * identity hash codes and lock class names are interned, so a warmed-up capture keeps no
+ * new objects except the stack and lock arrays that ThreadInfo copies for each getter call.
+ *
+ * Not thread-safe: a frame belongs to whoever acquired it from the pool.
+ */
+public class SampleFrame {
+
+    /** Marks "no lock" in {@link #getWaitingLockId(int)} */
+    public static final long NO_LOCK = -1;
+
+    private static final int INITIAL_THREADS = 64;
+    private static final int INITIAL_HELD = 64;
+
+    // One canonical String per lock class name, shared by every frame
+    private static final ConcurrentHashMap<String, String> CLASS_NAMES = new ConcurrentHashMap<>();
+
+    private long sampleTime;
+    private int threadCount;
+
+    // Per thread
+    private long[] threadIds;
+    private String[] threadNames;
+    private Thread.State[] states;
+    private StackTraceElement[][] stacks;
+    private long[] waitingLockIds;
+    private String[] waitingLockClasses;
+    private long[] lockOwnerIds;
+    private String[] lockOwnerNames;
+    private long[] blockedTimes;
+    private long[] blockedCounts;
+    private long[] waitedTimes;
+    private long[] waitedCounts;
+    // Held locks of thread i are [heldStart[i], heldStart[i + 1])
+    private int[] heldStart;
+    private int[] monitorCount;
+
+    // Held locks, monitors first then synchronizers for each thread
+    private int heldCount;
+    private long[] heldLockIds;
+    private String[] heldLockClasses;
+    private StackTraceElement[] heldLockedFrames;
+
+    public SampleFrame() {
+        this(INITIAL_THREADS, INITIAL_HELD);
+    }
+
+    public SampleFrame(int threadCapacity, int heldCapacity) {
+        allocateThreads(Math.max(1, threadCapacity));
+        allocateHeld(Math.max(1, heldCapacity));
+    }
+
+    /**
+     * Overwrite this frame with {@code infos}. Null entries (threads that died between
+     * listing and dumping) are skipped.
+     */
+    public SampleFrame capture(ThreadInfo[] infos, long sampleTime) {
+        this.sampleTime = sampleTime;
+        this.threadCount = 0;
+        this.heldCount = 0;
+        ensureThreads(infos.length);
+
+        for (ThreadInfo info : infos) {
+            if (info == null) continue;
+            int t = threadCount++;
+
+            threadIds[t] = info.getThreadId();
+            threadNames[t] = info.getThreadName();
+            states[t] = info.getThreadState();
+            // each getStackTrace() call clones, so fetch it once
+            stacks[t] = info.getStackTrace();
+
+            LockInfo lock = info.getLockInfo();
+            waitingLockIds[t] = lock != null ? lock.getIdentityHashCode() : NO_LOCK;
+            waitingLockClasses[t] = lock != null ? intern(lock.getClassName()) : null;
+            lockOwnerIds[t] = info.getLockOwnerId();
+            lockOwnerNames[t] = info.getLockOwnerName();
+
+            blockedTimes[t] = info.getBlockedTime();
+            blockedCounts[t] = info.getBlockedCount();
+            waitedTimes[t] = info.getWaitedTime();
+            waitedCounts[t] = info.getWaitedCount();
+
+            heldStart[t] = heldCount;
+            MonitorInfo[] monitors = info.getLockedMonitors();
+            LockInfo[] synchronizers = info.getLockedSynchronizers();
+            ensureHeld(heldCount + monitors.length + synchronizers.length);
+
+            for (MonitorInfo monitor : monitors) {
+                addHeld(monitor, monitor.getLockedStackFrame());
+            }
+            monitorCount[t] = monitors.length;
+            for (LockInfo synchronizer : synchronizers) {
+                addHeld(synchronizer, null);
+            }
+        }
+        heldStart[threadCount] = heldCount;
+        return this;
+    }
+
+    private void addHeld(LockInfo lock, StackTraceElement lockedFrame) {
+        heldLockIds[heldCount] = lock.getIdentityHashCode();
+        heldLockClasses[heldCount] = intern(lock.getClassName());
+        heldLockedFrames[heldCount] = lockedFrame;
+        heldCount++;
+    }
+
+    /** Drop references so a pooled frame does not pin stacks of dead threads. */
+    public void clear() {
+        for (int t = 0; t < threadCount; t++) {
+            threadNames[t] = null;
+            stacks[t] = null;
+            waitingLockClasses[t] = null;
+            lockOwnerNames[t] = null;
+        }
+        for (int i = 0; i < heldCount; i++) {
+            heldLockedFrames[i] = null;
+        }
+        threadCount = 0;
+        heldCount = 0;
+    }
+
+    // Getters
+    public long getSampleTime() { return sampleTime; }
+    public int getThreadCount() { return threadCount; }
+    public long getThreadId(int t) { return threadIds[t]; }
+    public String getThreadName(int t) { return threadNames[t]; }
+    public Thread.State getState(int t) { return states[t]; }
+    public StackTraceElement[] getStack(int t) { return stacks[t]; }
+    public long getWaitingLockId(int t) { return waitingLockIds[t]; }
+    public String getWaitingLockClass(int t) { return waitingLockClasses[t]; }
+    public long getLockOwnerId(int t) { return lockOwnerIds[t]; }
+    public long getBlockedTime(int t) { return blockedTimes[t]; }
+    public long getBlockedCount(int t) { return blockedCounts[t]; }
+    public long getWaitedTime(int t) { return waitedTimes[t]; }
+    public long getWaitedCount(int t) { return waitedCounts[t]; }
+    public int getHeldStart(int t) { return heldStart[t]; }
+    public int getHeldEnd(int t) { return heldStart[t + 1]; }
+    public long getHeldLockId(int i) { return heldLockIds[i]; }
+    public String getHeldLockClass(int i) { return heldLockClasses[i]; }
+
+    /** @return true when thread {@code t} is BLOCKED or waits on a lock another thread owns */
+    public boolean isContended(int t) {
+        return states[t] == Thread.State.BLOCKED
+                || (waitingLockIds[t] != NO_LOCK && lockOwnerIds[t] > 0);
+    }
+
+    /**
+     * Build the ThreadSnapshot for thread {@code t}, equivalent to
+     * {@link ThreadSnapshot#from(ThreadInfo, long)}. This allocates, so callers should only
+     * materialize threads they need to keep.
+     */
+    public ThreadSnapshot toSnapshot(int t) {
+        return toSnapshot(t, StackTable.NO_STACK);
+    }
+
+    /**
+     * Like {@link #toSnapshot(int)}, reusing {@code previousStackId} when thread {@code t}
+     * still has that stack, see {@link StackTable#intern(StackTraceElement[], int)}.
+     */
+    public ThreadSnapshot toSnapshot(int t, int previousStackId) {
+        long threadId = threadIds[t];
+        String threadName = threadNames[t];
+        int start = heldStart[t];
+        int monitorsEnd = start + monitorCount[t];
+        int end = heldStart[t + 1];
+
+        int lockedStack = monitorsEnd > start ? StackTable.intern(lockedStackTrace(t)) : StackTable.NO_STACK;
+        List<LockEvent> monitors = new ArrayList<>(monitorsEnd - start);
+        for (int i = start; i < monitorsEnd; i++) {
+            monitors.add(new LockEvent(heldLockId(i), heldLockClasses[i], LockType.MONITOR,
+                    threadId, threadName, lockedStack, sampleTime, false));
+        }
+
+        List<LockEvent> synchronizers = new ArrayList<>(end - monitorsEnd);
+        for (int i = monitorsEnd; i < end; i++) {
+            synchronizers.add(new LockEvent(heldLockId(i), heldLockClasses[i], LockType.SYNCHRONIZER,
+                    threadId, threadName, StackTable.NO_STACK, sampleTime, false));
+        }
+
+        int stackId = StackTable.intern(stacks[t], previousStackId);
+        LockEvent waitingOn = null;
+        if (waitingLockIds[t] != NO_LOCK) {
+            waitingOn = new LockEvent(
+                    LockEvent.idOf(waitingLockClasses[t], waitingLockIds[t]),
+                    waitingLockClasses[t],
+                    states[t] == Thread.State.BLOCKED ? LockType.MONITOR : LockType.SYNCHRONIZER,
+                    lockOwnerIds[t],
+                    lockOwnerNames[t],
+                    stackId,
+                    sampleTime,
+                    true
+            );
+        }
+
+        ThreadSnapshot snapshot = new ThreadSnapshot(threadId, threadName, states[t], stackId,
+                monitors, synchronizers, waitingOn, sampleTime);
+        snapshot.setBlockedTime(blockedTimes[t]);
+        snapshot.setBlockedCount(blockedCounts[t]);
+        snapshot.setWaitedTime(waitedTimes[t]);
+        snapshot.setWaitedCount(waitedCounts[t]);
+        return snapshot;
+    }
+
+    private String heldLockId(int i) {
+        return LockEvent.idOf(heldLockClasses[i], heldLockIds[i]);
+    }
+
+    /** @return every thread of this frame as a ThreadSnapshot, see {@link #toSnapshot(int)} */
+    public List<ThreadSnapshot> toSnapshots() {
+        List<ThreadSnapshot> snapshots = new ArrayList<>(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            snapshots.add(toSnapshot(t));
+        }
+        return snapshots;
+    }
+
+    /** Same rules as {@link LockEvent#getLockedStackTrace(ThreadInfo)}, from captured data. */
+    private StackTraceElement[] lockedStackTrace(int t) {
+        StackTraceElement[] stack = stacks[t];
+        if (states[t] == Thread.State.BLOCKED && waitingLockIds[t] != NO_LOCK) {
+            return stack.length > 0 ? new StackTraceElement[]{stack[0]} : stack;
+        }
+        StackTraceElement lockedFrame = heldLockedFrames[heldStart[t]];
+        return lockedFrame != null ? new StackTraceElement[]{lockedFrame} : new StackTraceElement[0];
+    }
+
+    static String intern(String className) {
+        String canonical = CLASS_NAMES.putIfAbsent(className, className);
+        return canonical != null ? canonical : className;
+    }
+
+    /* ------------------------
+       Growth, warm-up only
+       ------------------------ */
+
+    private void ensureThreads(int needed) {
+        if (needed <= threadIds.length) return;
+        allocateThreads(Math.max(needed, threadIds.length * 2));
+    }
+
+    private void allocateThreads(int capacity) {
+        // contents are rewritten by the capture that triggered the growth
+        threadIds = new long[capacity];
+        threadNames = new String[capacity];
+        states = new Thread.State[capacity];
+        stacks = new StackTraceElement[capacity][];
+        waitingLockIds = new long[capacity];
+        waitingLockClasses = new String[capacity];
+        lockOwnerIds = new long[capacity];
+        lockOwnerNames = new String[capacity];
+        blockedTimes = new long[capacity];
+        blockedCounts = new long[capacity];
+        waitedTimes = new long[capacity];
+        waitedCounts = new long[capacity];
+        monitorCount = new int[capacity];
+        heldStart = new int[capacity + 1];
+    }
+
+    private void ensureHeld(int needed) {
+        if (needed <= heldLockIds.length) return;
+
+        int capacity = Math.max(needed, heldLockIds.length * 2);
+        long[] ids = new long[capacity];
+        String[] classes = new String[capacity];
+        StackTraceElement[] frames = new StackTraceElement[capacity];
+        System.arraycopy(heldLockIds, 0, ids, 0, heldCount);
+        System.arraycopy(heldLockClasses, 0, classes, 0, heldCount);
+        System.arraycopy(heldLockedFrames, 0, frames, 0, heldCount);
+        heldLockIds = ids;
+        heldLockClasses = classes;
+        heldLockedFrames = frames;
+    }
+
+    private void allocateHeld(int capacity) {
+        heldLockIds = new long[capacity];
+        heldLockClasses = new String[capacity];
+        heldLockedFrames = new StackTraceElement[capacity];
+    }
+}
@@ -0,0 +1,30 @@
+package org.example.profiler.monitor;
+
+/**
+ * Small bounded pool of {@link SampleFrame}s. Frames are only created when the pool is
+ * empty, so after warm-up every capture reuses arrays that already have the right size.
+ */
+public class SampleFramePool {
+
+    private final SampleFrame[] free;
+    private int size;
+
+    public SampleFramePool(int capacity) {
+        this.free = new SampleFrame[capacity];
+    }
+
+    public synchronized SampleFrame acquire() {
+        if (size == 0) return new SampleFrame();
+        SampleFrame frame = free[--size];
+        free[size] = null;
+        return frame;
+    }
+
+    /** Return a frame; it is dropped when the pool is already full. */
+    public synchronized void release(SampleFrame frame) {
+        frame.clear();
+        if (size < free.length) {
+            free[size++] = frame;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.example.profiler.monitor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One sample, delta-encoded: full snapshots only for threads whose state changed since the
+ * previous sample, and "unchanged since" markers for the rest. A marker references the
+ * thread's last materialized snapshot and carries only the counters that keep moving.
+ */
+public class SnapshotDelta {
+
+    private final long sampleTime;
+    private final List<ThreadSnapshot> changed;
+
+    // Markers, as parallel arrays to keep them lightweight
+    private final ThreadSnapshot[] unchanged;
+    private final long[] unchangedBlockedTime;
+    private final long[] unchangedWaitedTime;
+
+    // Threads present in the previous sample but not in this one
+    private final long[] removedThreadIds;
+
+    public SnapshotDelta(long sampleTime,
+                         List<ThreadSnapshot> changed,
+                         ThreadSnapshot[] unchanged,
+                         long[] unchangedBlockedTime,
+                         long[] unchangedWaitedTime) {
+        this(sampleTime, changed, unchanged, unchangedBlockedTime, unchangedWaitedTime, new long[0]);
+    }
+
+    public SnapshotDelta(long sampleTime,
+                         List<ThreadSnapshot> changed,
+                         ThreadSnapshot[] unchanged,
+                         long[] unchangedBlockedTime,
+                         long[] unchangedWaitedTime,
+                         long[] removedThreadIds) {
+        this.sampleTime = sampleTime;
+        this.changed = changed;
+        this.unchanged = unchanged;
+        this.unchangedBlockedTime = unchangedBlockedTime;
+        this.unchangedWaitedTime = unchangedWaitedTime;
+        this.removedThreadIds = removedThreadIds;
+    }
+
+    /** Wrap a fully materialized sample. */
+    public static SnapshotDelta full(long sampleTime, List<ThreadSnapshot> snapshots) {
+        return new SnapshotDelta(sampleTime, snapshots, new ThreadSnapshot[0], new long[0], new long[0]);
+    }
+
+    public long getSampleTime() { return sampleTime; }
+    public List<ThreadSnapshot> getChanged() { return changed; }
+    public int getUnchangedCount() { return unchanged.length; }
+
+    public int getThreadCount() {
+        return changed.size() + unchanged.length;
+    }
+
+    /** @return the snapshot behind marker {@code i}, as captured when it last changed */
+    public ThreadSnapshot getUnchangedBase(int i) {
+        return unchanged[i];
+    }
+
+    public long getUnchangedBlockedTime(int i) {
+        return unchangedBlockedTime[i];
+    }
+
+    public long getUnchangedWaitedTime(int i) {
+        return unchangedWaitedTime[i];
+    }
+
+    /**
+     * @return ids of threads seen in the previous sample of the same encoder but gone from
+     *         this one; empty for samples that were not delta-encoded
+     */
+    public long[] getRemovedThreadIds() {
+        return removedThreadIds;
+    }
+
+    /** @return marker {@code i} expanded into a snapshot stamped with this sample's time */
+    public ThreadSnapshot expandUnchanged(int i) {
+        return unchanged[i].restamp(sampleTime, unchangedBlockedTime[i], unchangedWaitedTime[i]);
+    }
+
+    /**
+     * Materialize every thread of this sample. Expanded snapshots share stacks and lock
+     * lists with the snapshot they were unchanged from.
+     */
+    public List<ThreadSnapshot> expand() {
+        List<ThreadSnapshot> all = new ArrayList<>(getThreadCount());
+        all.addAll(changed);
+        for (int i = 0; i < unchanged.length; i++) {
+            all.add(expandUnchanged(i));
+        }
+        return all;
+    }
+}
@@ -0,0 +1,312 @@
+package org.example.profiler.monitor;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide table of interned stack traces. Frames are interned once, and stacks are
+ * hash-consed as a trie of (parent, frame) nodes from the outermost frame inwards, so stacks
+ * that share their outer frames share nodes. A stack is named by the int id of its innermost
+ * node: equal stacks get equal ids, and comparing or hashing a stack is comparing an int.
+ *
+ * Lookups of known frames and nodes are lock-free; adding a new one takes a lock, which only
+ * happens while the application still reaches new code paths. Nodes are found in a primitive
+ * long→int table, so walking a known stack does not box. Callers that sample the same thread
+ * repeatedly pass its previous id to {@link #intern(StackTraceElement[], int)}, which only
+ * compares frames when the stack did not change.
+ *
+ * Ids outlive any one sample, since accumulators keep them, so nodes are never removed;
+ * instead the table holds at most {@code profiler.stack-table.max-nodes} of them. Once full,
+ * a stack with new frames is cut after its deepest known outer frames, which are still
+ * resolved exactly, and counted in {@link #getTruncatedStacks()}. The frame arrays that
+ * {@link #stack(int)} materializes are the larger part, and they follow the generations of
+ * the sample dictionaries: {@link #startGeneration()} releases those not asked for since the
+ * previous generation started, and they are rebuilt from the nodes when asked for again.
+ */
+public final class StackTable {
+
+    /** Id of a null stack */
+    public static final int NO_STACK = -1;
+
+    /** Id of the empty stack, the root of the trie */
+    public static final int EMPTY_STACK = 0;
+
+    private static final StackTraceElement[] EMPTY = new StackTraceElement[0];
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int MAX_NODES = Integer.getInteger("profiler.stack-table.max-nodes", 1 << 22);
+
+    private static final ConcurrentHashMap<StackTraceElement, Integer> FRAME_IDS = new ConcurrentHashMap<>();
+    private static final Object ADD_LOCK = new Object();
+
+    // Appended under ADD_LOCK; an id is only handed out after its slot is written
+    private static volatile Object[][] frames = new Object[16][];
+    private static volatile Object[][] nodes = new Object[16][];
+    private static volatile NodeIndex nodeIds = new NodeIndex(1024);
+    private static int frameCount;
+    private static int nodeCount;
+    // Nodes whose frame array is materialized, and the generation of stack(int) calls
+    private static final List<Node> materialized = new ArrayList<>();
+    private static volatile int generation;
+    private static final AtomicLong truncated = new AtomicLong();
+
+    static {
+        addNode(new Node(NO_STACK, -1, 0));
+    }
+
+    private StackTable() {}
+
+    /** @return the id of {@code stack}, or {@link #NO_STACK} for null */
+    public static int intern(StackTraceElement[] stack) {
+        if (stack == null) return NO_STACK;
+
+        int node = EMPTY_STACK;
+        for (int i = stack.length - 1; i >= 0; i--) {
+            int frame = frameId(stack[i]);
+            int next = frame == NodeIndex.ABSENT ? NodeIndex.ABSENT : child(node, frame);
+            if (next == NodeIndex.ABSENT) {
+                truncated.incrementAndGet();
+                break;
+            }
+            node = next;
+        }
+        return node;
+    }
+
+    /**
+     * Like {@link #intern(StackTraceElement[])}, but first checks whether {@code stack} is
+     * still the stack named by {@code previous}, walking the trie and comparing frames
+     * without hashing them.
+     *
+     * @param previous id this thread's stack had in an earlier sample, or {@link #NO_STACK}
+     */
+    public static int intern(StackTraceElement[] stack, int previous) {
+        if (stack != null && previous != NO_STACK && sameStack(stack, previous)) return previous;
+        return intern(stack);
+    }
+
+    private static boolean sameStack(StackTraceElement[] stack, int id) {
+        Node node = node(id);
+        if (node.depth != stack.length) return false;
+        for (int i = 0; i < stack.length; i++) {
+            if (!frame(node.frame).equals(stack[i])) return false;
+            node = node(node.parent);
+        }
+        return true;
+    }
+
+    /**
+     * @return the stack named by {@code id}, innermost frame first, or null for
+     *         {@link #NO_STACK}. The array is shared by every caller of this generation and
+     *         must not be modified.
+     */
+    public static StackTraceElement[] stack(int id) {
+        if (id == NO_STACK) return null;
+        if (id == EMPTY_STACK) return EMPTY;
+
+        Node node = node(id);
+        int current = generation;
+        if (node.usedIn != current) node.usedIn = current;
+        StackTraceElement[] stack = node.stack;
+        if (stack != null) return stack;
+
+        stack = new StackTraceElement[node.depth];
+        Node frame = node;
+        for (int i = 0; i < stack.length; i++) {
+            stack[i] = frame(frame.frame);
+            frame = node(frame.parent);
+        }
+        synchronized (ADD_LOCK) {
+            if (node.stack != null) return node.stack;
+            node.stack = stack;
+            materialized.add(node);
+        }
+        return stack;
+    }
+
+    /** @return number of frames of the stack named by {@code id} */
+    public static int depth(int id) {
+        return id == NO_STACK ? 0 : node(id).depth;
+    }
+
+    /**
+     * Release the frame arrays not asked for since the previous generation started. Called
+     * when the sample store starts a new dictionary generation.
+     */
+    public static void startGeneration() {
+        synchronized (ADD_LOCK) {
+            int previous = generation;
+            int kept = 0;
+            for (int i = 0; i < materialized.size(); i++) {
+                Node node = materialized.get(i);
+                if (node.usedIn == previous) {
+                    materialized.set(kept++, node);
+                } else {
+                    node.stack = null;
+                }
+            }
+            materialized.subList(kept, materialized.size()).clear();
+            generation = previous + 1;
+        }
+    }
+
+    /** @return the current generation; caches of {@link #stack(int)} arrays drop them when it changes */
+    public static int generation() {
+        return generation;
+    }
+
+    /** @return number of stacks cut short because the table was full */
+    public static long getTruncatedStacks() {
+        return truncated.get();
+    }
+
+    /** @return number of distinct stack nodes interned so far */
+    public static int size() {
+        synchronized (ADD_LOCK) {
+            return nodeCount;
+        }
+    }
+
+    private static int frameId(StackTraceElement frame) {
+        Integer id = FRAME_IDS.get(frame);
+        if (id != null) return id;
+
+        synchronized (ADD_LOCK) {
+            id = FRAME_IDS.get(frame);
+            if (id == null) {
+                // a new frame can only go into a new node
+                if (nodeCount >= MAX_NODES) return NodeIndex.ABSENT;
+                id = frameCount++;
+                frames = put(frames, id, frame);
+                FRAME_IDS.put(frame, id);
+            }
+            return id;
+        }
+    }
+
+    private static int child(int parent, int frame) {
+        long key = ((long) parent << 32) | frame;
+        int id = nodeIds.get(key);
+        if (id != NodeIndex.ABSENT) return id;
+
+        synchronized (ADD_LOCK) {
+            NodeIndex index = nodeIds;
+            id = index.get(key);
+            if (id == NodeIndex.ABSENT) {
+                if (nodeCount >= MAX_NODES) return NodeIndex.ABSENT;
+                id = addNode(new Node(parent, frame, node(parent).depth + 1));
+                if (index.isFull()) {
+                    index = index.grow();
+                }
+                index.put(key, id);
+                nodeIds = index;
+            }
+            return id;
+        }
+    }
+
+    private static int addNode(Node node) {
+        int id = nodeCount++;
+        nodes = put(nodes, id, node);
+        return id;
+    }
+
+    private static Node node(int id) {
+        return (Node) nodes[id >>> CHUNK_BITS][id & (CHUNK_SIZE - 1)];
+    }
+
+    private static StackTraceElement frame(int id) {
+        return (StackTraceElement) frames[id >>> CHUNK_BITS][id & (CHUNK_SIZE - 1)];
+    }
+
+    /** Store entry {@code id}, growing the chunk directory if needed; published entries never move */
+    private static Object[][] put(Object[][] chunks, int id, Object value) {
+        int chunk = id >>> CHUNK_BITS;
+        Object[][] current = chunk == chunks.length ? Arrays.copyOf(chunks, chunks.length * 2) : chunks;
+        if (current[chunk] == null) {
+            current[chunk] = new Object[CHUNK_SIZE];
+        }
+        current[chunk][id & (CHUNK_SIZE - 1)] = value;
+        return current;
+    }
+
+    private static final class Node {
+        final int parent;
+        final int frame;
+        final int depth;
+        // Materialized on first request, released by startGeneration() once unused
+        volatile StackTraceElement[] stack;
+        // Generation of the last stack(int) call; racy writes only delay a release
+        int usedIn;
+
+        Node(int parent, int frame, int depth) {
+            this.parent = parent;
+            this.frame = frame;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Open-addressing table from (parent, frame) keys to node ids. Lookups need no lock: a
+     * slot's value is written before its key is released, and a full table is replaced by a
+     * larger copy instead of being rehashed in place. Puts happen under ADD_LOCK.
+     */
+    private static final class NodeIndex {
+
+        static final int ABSENT = -1;
+
+        private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+
+        // key + 1, so that 0 marks a free slot; keys themselves are never negative
+        private final long[] keys;
+        private final int[] values;
+        private int size;
+
+        NodeIndex(int capacity) {
+            keys = new long[capacity];
+            values = new int[capacity];
+        }
+
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+                long stored = (long) KEYS.getAcquire(keys, slot);
+                if (stored == key + 1) return values[slot];
+                if (stored == 0) return ABSENT;
+            }
+        }
+
+        boolean isFull() {
+            return (size + 1) * 2 > keys.length;
+        }
+
+        /** {@code key} must be absent and the table not full */
+        void put(long key, int value) {
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (keys[slot] != 0) slot = (slot + 1) & mask;
+            values[slot] = value;
+            KEYS.setRelease(keys, slot, key + 1);
+            size++;
+        }
+
+        /** @return a copy twice as large, to be published once filled */
+        NodeIndex grow() {
+            NodeIndex larger = new NodeIndex(keys.length * 2);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0) larger.put(keys[i] - 1, values[i]);
+            }
+            return larger;
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -1,10 +1,6 @@
 package org.example.profiler.monitor;
 
-import java.lang.management.LockInfo;
-import java.lang.management.MonitorInfo;
 import java.lang.management.ThreadInfo;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 public class ThreadSnapshot {
@@ -12,12 +8,19 @@ public class ThreadSnapshot {
     private long threadId;
     private String threadName;
     private Thread.State threadState;
-    private StackTraceElement[] stackTrace;
+    // Interned, see StackTable
+    private int stackId;
     private List<LockEvent> lockedMonitors;
     private List<LockEvent> lockedSynchronizers;
     private LockEvent lockWaitingOn;
     private long sampleTime;
 
+    // Cumulative ThreadInfo counters, -1 when contention monitoring is unavailable
+    private long blockedTime = -1;
+    private long blockedCount = -1;
+    private long waitedTime = -1;
+    private long waitedCount = -1;
+
     // Constructor
     public ThreadSnapshot(long threadId, String threadName, Thread.State threadState,
                           StackTraceElement[] stackTrace,
@@ -25,10 +28,21 @@ public class ThreadSnapshot {
                           List<LockEvent> lockedSynchronizers,
                           LockEvent lockWaitingOn,
                           long sampleTime) {
+        this(threadId, threadName, threadState, StackTable.intern(stackTrace),
+                lockedMonitors, lockedSynchronizers, lockWaitingOn, sampleTime);
+    }
+
+    /** With a stack already interned in the {@link StackTable} */
+    public ThreadSnapshot(long threadId, String threadName, Thread.State threadState,
+                          int stackId,
+                          List<LockEvent> lockedMonitors,
+                          List<LockEvent> lockedSynchronizers,
+                          LockEvent lockWaitingOn,
+                          long sampleTime) {
         this.threadId = threadId;
         this.threadName = threadName;
         this.threadState = threadState;
-        this.stackTrace = stackTrace;
+        this.stackId = stackId;
         this.lockedMonitors = lockedMonitors;
         this.lockedSynchronizers = lockedSynchronizers;
         this.lockWaitingOn = lockWaitingOn;
@@ -39,27 +53,92 @@ public class ThreadSnapshot {
     public long getThreadId() { return threadId; }
     public String getThreadName() { return threadName; }
     public Thread.State getThreadState() { return threadState; }
-    public StackTraceElement[] getStackTrace() { return stackTrace; }
+    public StackTraceElement[] getStackTrace() { return StackTable.stack(stackId); }
+    public int getStackId() { return stackId; }
     public List<LockEvent> getLockedMonitors() { return lockedMonitors; }
     public List<LockEvent> getLockedSynchronizers() { return lockedSynchronizers; }
     public LockEvent getLockWaitingOn() { return lockWaitingOn; }
     public long getSampleTime() { return sampleTime; }
+    public long getBlockedTime() { return blockedTime; }
+    public long getBlockedCount() { return blockedCount; }
+    public long getWaitedTime() { return waitedTime; }
+    public long getWaitedCount() { return waitedCount; }
 
     // Setters
     public void setThreadId(long threadId) { this.threadId = threadId; }
     public void setThreadName(String threadName) { this.threadName = threadName; }
     public void setThreadState(Thread.State threadState) { this.threadState = threadState; }
-    public void setStackTrace(StackTraceElement[] stackTrace) { this.stackTrace = stackTrace; }
+    public void setStackTrace(StackTraceElement[] stackTrace) { this.stackId = StackTable.intern(stackTrace); }
     public void setLockedMonitors(List<LockEvent> lockedMonitors) { this.lockedMonitors = lockedMonitors; }
     public void setLockedSynchronizers(List<LockEvent> lockedSynchronizers) { this.lockedSynchronizers = lockedSynchronizers; }
     public void setLockWaitingOn(LockEvent lockWaitingOn) { this.lockWaitingOn = lockWaitingOn; }
     public void setSampleTime(long sampleTime) { this.sampleTime = sampleTime; }
+    public void setBlockedTime(long blockedTime) { this.blockedTime = blockedTime; }
+    public void setBlockedCount(long blockedCount) { this.blockedCount = blockedCount; }
+    public void setWaitedTime(long waitedTime) { this.waitedTime = waitedTime; }
+    public void setWaitedCount(long waitedCount) { this.waitedCount = waitedCount; }
+
+    /** Copy the cumulative blocked/waited counters reported by the JVM. */
+    public void setContentionCounters(ThreadInfo info) {
+        this.blockedTime = info.getBlockedTime();
+        this.blockedCount = info.getBlockedCount();
+        this.waitedTime = info.getWaitedTime();
+        this.waitedCount = info.getWaitedCount();
+    }
 
     // Other methods
     public boolean isBlocked() {
         return threadState == Thread.State.BLOCKED;
     }
 
+    /**
+     * Copy of this snapshot for a later sample in which the thread did not change.
+     * Stack and lock lists are shared, only the time and the moving counters differ.
+     */
+    public ThreadSnapshot restamp(long sampleTime, long blockedTime, long waitedTime) {
+        ThreadSnapshot copy = new ThreadSnapshot(
+                threadId, threadName, threadState, stackId,
+                lockedMonitors, lockedSynchronizers, lockWaitingOn, sampleTime
+        );
+        copy.blockedTime = blockedTime;
+        copy.blockedCount = blockedCount;
+        copy.waitedTime = waitedTime;
+        copy.waitedCount = waitedCount;
+        return copy;
+    }
+
+    public boolean hasContentionCounters() {
+        return blockedTime >= 0 && waitedTime >= 0;
+    }
+
+    /**
+     * Time this thread spent contending between {@code prev} and this snapshot, taken from the
+     * JVM counters so that short blocks between samples are included. Monitor entry counts as
+     * blocked time, park/wait as waited time. Falls back to the sample interval when either
+     * snapshot has no counters.
+     */
+    public long contentionTimeSince(ThreadSnapshot prev) {
+        if (!hasContentionCounters() || !prev.hasContentionCounters()) {
+            return sampleTime - prev.getSampleTime();
+        }
+        return prev.isBlocked() || isBlocked()
+                ? Math.max(0, blockedTime - prev.getBlockedTime())
+                : Math.max(0, waitedTime - prev.getWaitedTime());
+    }
+
+    /**
+     * Number of contention episodes between {@code prev} and this snapshot, or 1 when
+     * either snapshot has no counters.
+     */
+    public long contentionCountSince(ThreadSnapshot prev) {
+        if (!hasContentionCounters() || !prev.hasContentionCounters()) {
+            return 1;
+        }
+        return prev.isBlocked() || isBlocked()
+                ? Math.max(0, blockedCount - prev.getBlockedCount())
+                : Math.max(0, waitedCount - prev.getWaitedCount());
+    }
+
     public int getHeldLockCount() {
         int count = (lockedMonitors != null ? lockedMonitors.size() : 0)
                 + (lockedSynchronizers != null ? lockedSynchronizers.size() : 0)
@@ -67,62 +146,14 @@ public class ThreadSnapshot {
         return count;
     }
 
+    /**
+     * Build a snapshot straight from a ThreadInfo. This goes through a one-thread
+     * {@link SampleFrame} of its own, so a whole dump should rather be captured into one frame
+     * and converted with {@link SampleFrame#toSnapshots()}; samplers that run every cycle
+     * should capture into a pooled frame and only materialize the threads they keep.
+     */
     public static ThreadSnapshot from(ThreadInfo info, long sampleTime) {
-
-        List<LockEvent> monitors = Arrays.stream(info.getLockedMonitors())
-                .map(m -> new LockEvent(
-                        m.getIdentityHashCode() + "",
-                        m.getClassName(),
-                        LockType.MONITOR,
-                        info.getThreadId(),
-                        info.getThreadName(),
-                        LockEvent.getLockedStackTrace(info),
-                        sampleTime,
-                        false
-                ))
-                .toList();
-
-        List<LockEvent> synchronizers = Arrays.stream(info.getLockedSynchronizers())
-                .map(s -> new LockEvent(
-                        s.getIdentityHashCode() + "",
-                        s.getClassName(),
-                        LockType.SYNCHRONIZER,
-                        info.getThreadId(),
-                        info.getThreadName(),
-                        null,
-                        sampleTime,
-                        false
-                ))
-                .toList();
-
-        LockEvent waitingOn = null;
-        LockInfo lock = info.getLockInfo();
-
-        if (lock != null) {
-            waitingOn = new LockEvent(
-                    lock.getIdentityHashCode() + "",
-                    lock.getClassName(),
-                    info.getThreadState() == Thread.State.BLOCKED
-                            ? LockType.MONITOR
-                            : LockType.SYNCHRONIZER,
-                    info.getLockOwnerId(),
-                    info.getLockOwnerName(),
-                    info.getStackTrace(),
-                    sampleTime,
-                    true
-            );
-        }
-
-        return new ThreadSnapshot(
-                info.getThreadId(),
-                info.getThreadName(),
-                info.getThreadState(),
-                info.getStackTrace(),
-                monitors,
-                synchronizers,
-                waitingOn,
-                sampleTime
-        );
+        return new SampleFrame(1, 4).capture(new ThreadInfo[]{info}, sampleTime).toSnapshot(0);
     }
 
     @Override
@@ -1,10 +1,26 @@
 package org.example.profiler.server;
 
 import jakarta.annotation.PostConstruct;
+import org.example.profiler.agent.JfrContentionSource;
+import org.example.profiler.agent.SamplingBudgetController;
+import org.example.profiler.agent.SamplingPipeline;
+import org.example.profiler.agent.SnapshotSource;
+import org.example.profiler.agent.ThreadDumper;
+import org.example.profiler.agent.ThreadMXBeanSnapshotSource;
+import org.example.profiler.agent.VirtualThreadPinningSource;
+import org.example.profiler.analysis.ContentionAnalyzer;
+import org.example.profiler.analysis.ContentionRollups;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 @Configuration
 public class ProfilerConfig {
@@ -17,4 +33,123 @@ public class ProfilerConfig {
             mxBean.setThreadContentionMonitoringEnabled(true);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * {@code profiler.contention.retention} picks what the accumulated contention records
+     * cover: {@code cumulative} since start, a sliding {@code window} of
+     * {@code profiler.contention.window} in {@code window-buckets} buckets, or {@code decay}
+     * with a {@code profiler.contention.half-life}. {@code approximate} accumulates since
+     * start in fixed memory, tracking only the heaviest {@code profiler.contention.max-locks}
+     * locks and {@code max-stacks} stacks per lock.
+     */
+    @Bean
+    public ContentionAnalyzer contentionAnalyzer(
+            @Value("${profiler.contention.retention:cumulative}") String retention,
+            @Value("${profiler.contention.window:15m}") String window,
+            @Value("${profiler.contention.window-buckets:15}") int windowBuckets,
+            @Value("${profiler.contention.half-life:10m}") String halfLife,
+            @Value("${profiler.contention.max-locks:200}") int maxLocks,
+            @Value("${profiler.contention.max-stacks:16}") int maxStacks
+    ) {
+        return switch (retention.toLowerCase()) {
+            case "window" -> ContentionAnalyzer.slidingWindow(DurationStyle.detectAndParse(window), windowBuckets);
+            case "decay" -> ContentionAnalyzer.decaying(DurationStyle.detectAndParse(halfLife));
+            case "approximate" -> ContentionAnalyzer.approximate(maxLocks, maxStacks);
+            case "cumulative" -> new ContentionAnalyzer();
+            default -> throw new IllegalArgumentException("unknown profiler.contention.retention: " + retention);
+        };
+    }
+
+    /**
+     * {@code profiler.rollup.resolutions} lists {@code bucket:retention} pairs, finest first;
+     * each bucket must be a multiple of the previous one.
+     */
+    @Bean
+    public ContentionRollups contentionRollups(
+            @Value("${profiler.rollup.resolutions:10s:6h,1m:7d,1h:90d}") String resolutions
+    ) {
+        List<ContentionRollups.Resolution> parsed = new ArrayList<>();
+        for (String pair : resolutions.split(",")) {
+            String[] parts = pair.trim().split(":");
+            parsed.add(new ContentionRollups.Resolution(
+                    DurationStyle.detectAndParse(parts[0]),
+                    DurationStyle.detectAndParse(parts[1])
+            ));
+        }
+        return new ContentionRollups(parsed);
+    }
+
+    /**
+     * {@code profiler.sampling.mode=targeted} scans thread states first and takes
+     * stacks and lock lists only for contended threads and their owners.
+     */
+    @Bean
+    public ThreadDumper threadDumper(
+            @Value("${profiler.sampling.mode:full}") String mode,
+            @Value("${profiler.sampling.max-depth:2147483647}") int maxDepth
+    ) {
+        return new ThreadDumper(
+                ManagementFactory.getThreadMXBean(),
+                ThreadDumper.Mode.valueOf(mode.toUpperCase()),
+                maxDepth
+        );
+    }
+
+    /**
+     * Keeps sampling within {@code profiler.budget.fraction} of wall time, adapting the
+     * interval between {@code profiler.sampling.min-interval-ms} and {@code max-interval-ms}.
+     * {@code profiler.sampling.jitter=poisson} randomizes the delay around that interval.
+     */
+    @Bean
+    public SamplingBudgetController samplingBudgetController(
+            @Value("${profiler.budget.fraction:0.01}") double budgetFraction,
+            @Value("${profiler.sampling.min-interval-ms:50}") long minIntervalMs,
+            @Value("${profiler.sampling.max-interval-ms:5000}") long maxIntervalMs,
+            @Value("${profiler.sampling.interval-ms:1000}") long intervalMs,
+            @Value("${profiler.sampling.jitter:none}") String jitter
+    ) {
+        return new SamplingBudgetController(
+                budgetFraction, minIntervalMs, maxIntervalMs, intervalMs, "poisson".equals(jitter));
+    }
+
+    @Bean
+    public ThreadMXBeanSnapshotSource threadMXBeanSnapshotSource(ThreadDumper dumper) {
+        return new ThreadMXBeanSnapshotSource(dumper);
+    }
+
+    /**
+     * Selected with {@code profiler.source=jfr}; otherwise block events are
+     * derived from the periodic ThreadMXBean samples.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "profiler.source", havingValue = "jfr")
+    public JfrContentionSource jfrContentionSource(
+            @Value("${profiler.jfr.threshold-ms:1}") long thresholdMs
+    ) {
+        return new JfrContentionSource(Duration.ofMillis(thresholdMs));
+    }
+
+    /**
+     * {@code profiler.virtual-threads.enabled=true} reports virtual threads pinned to their
+     * carrier for longer than {@code profiler.virtual-threads.threshold-ms} (JDK 21+).
+     */
+    @Bean
+    @ConditionalOnProperty(name = "profiler.virtual-threads.enabled", havingValue = "true")
+    public VirtualThreadPinningSource virtualThreadPinningSource(
+            @Value("${profiler.virtual-threads.threshold-ms:20}") long thresholdMs
+    ) {
+        return new VirtualThreadPinningSource(Duration.ofMillis(thresholdMs));
+    }
+
+    /**
+     * Polls every {@link SnapshotSource} bean once per sampling tick.
+     */
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public SamplingPipeline samplingPipeline(
+            List<SnapshotSource> sources,
+            ContentionAnalyzer analyzer,
+            SamplingBudgetController budget
+    ) {
+        return new SamplingPipeline(sources, analyzer, budget);
+    }
+}
@@ -2,13 +2,28 @@ package org.example.profiler.server;
 
 import lombok.RequiredArgsConstructor;
 import org.example.profiler.agent.ProfilerSampler;
+import org.example.profiler.agent.SamplingBudgetController;
+import org.example.profiler.agent.SamplingBudgetStats;
+import org.example.profiler.agent.SamplingPipeline;
+import org.example.profiler.agent.VirtualThreadPinningSource;
 import org.example.profiler.agent.ProfilerStats;
+import org.example.profiler.analysis.BlockedThreadStats;
+import org.example.profiler.analysis.ContentionAnalyzer;
+import org.example.profiler.analysis.ContentionRecord;
+import org.example.profiler.analysis.ContentionRollups;
+import org.example.profiler.analysis.LockOrderViolation;
+import org.example.profiler.analysis.ProfilingWindow;
+import org.example.profiler.analysis.RollupReport;
+import org.example.profiler.analysis.RootBlocker;
 import org.example.profiler.monitor.ThreadSnapshot;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -19,11 +34,19 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class ProfilerController {
 
+    /** Samples returned by /stats; the store keeps far more */
+    private static final int STATS_SAMPLES = 20;
+
     private final SnapshotStore store;
+    private final ContentionAnalyzer analyzer;
+    private final ContentionRollups rollups;
+    private final SamplingPipeline pipeline;
+    private final SamplingBudgetController budget;
+    private final ObjectProvider<VirtualThreadPinningSource> pinningSource;
 
     @GetMapping("/stats")
     public Map<String, Object> stats() {
-        List<ThreadSnapshot> snapshots = store.all();
+        List<ThreadSnapshot> snapshots = store.recent(STATS_SAMPLES);
 
         long totalThreads = snapshots.stream()
                 .map(ThreadSnapshot::getThreadId)
@@ -43,7 +66,100 @@ public class ProfilerController {
                 "totalThreads", totalThreads,
                 "blockedThreads", blockedThreads,
                 "totalLocks", totalLocks,
+                "samplerPauseMicros", pipeline.getLastPauseNanos() / 1_000,
+                "storedSamples", store.getSampleCount(),
+                "storedBytes", store.getUsedBytes(),
                 "threads", snapshots
         );
     }
-}
\ No newline at end of file
+
+    /**
+     * Samples stored since sequence {@code since}. Pass the returned {@code nextSequence}
+     * on the next call to fetch only new samples.
+     */
+    @GetMapping("/samples")
+    public Map<String, Object> samples(@RequestParam(defaultValue = "0") long since,
+                                       @RequestParam(defaultValue = "20") int limit) {
+        List<Map<String, Object>> samples = new ArrayList<>();
+        long next = store.forEachSince(since, limit, view -> samples.add(Map.of(
+                "sequence", view.getSequence(),
+                "sampleTime", view.getSampleTime(),
+                "threads", view.toSnapshots()
+        )));
+        return Map.of("nextSequence", next, "samples", samples);
+    }
+
+    /**
+     * Samples taken between {@code from} and {@code to} (epoch millis), from the persistent
+     * log when {@code profiler.log.dir} is set.
+     */
+    @GetMapping("/history")
+    public List<Map<String, Object>> history(@RequestParam long from,
+                                             @RequestParam long to,
+                                             @RequestParam(defaultValue = "100") int limit) {
+        List<Map<String, Object>> samples = new ArrayList<>();
+        store.forEachBetween(from, to, limit, view -> samples.add(Map.of(
+                "sequence", view.getSequence(),
+                "sampleTime", view.getSampleTime(),
+                "threads", view.toSnapshots()
+        )));
+        return samples;
+    }
+
+    /**
+     * Contention between {@code from} and {@code to} (epoch millis) from the rollups, at the
+     * coarsest resolution that fits the window.
+     */
+    @GetMapping("/rollups")
+    public RollupReport rollups(@RequestParam long from,
+                                @RequestParam long to,
+                                @RequestParam(defaultValue = "20") int topK) {
+        return rollups.query(new ProfilingWindow(from, to), topK);
+    }
+
+    @GetMapping("/contention")
+    public List<ContentionRecord> contention(@RequestParam(defaultValue = "50") int topK) {
+        return analyzer.topRecords(topK);
+    }
+
+    @GetMapping("/blocked-threads")
+    public List<BlockedThreadStats> blockedThreads(@RequestParam(defaultValue = "20") int topK) {
+        return analyzer.topBlockedThreads(topK);
+    }
+
+    /** Deadlocked threads right now, as rings of thread ids */
+    @GetMapping("/deadlocks")
+    public List<List<Long>> deadlocks() {
+        return analyzer.currentDeadlocks();
+    }
+
+    @GetMapping("/root-blockers")
+    public List<RootBlocker> rootBlockers(@RequestParam(defaultValue = "10") int topK) {
+        return analyzer.topRootBlockers(topK);
+    }
+
+    @GetMapping("/lock-order-violations")
+    public List<LockOrderViolation> lockOrderViolations() {
+        return analyzer.lockOrderViolations();
+    }
+
+    @GetMapping("/budget")
+    public SamplingBudgetStats budget() {
+        return budget.stats();
+    }
+
+    /**
+     * Carrier view of virtual-thread pinning; empty unless {@code profiler.virtual-threads.enabled=true}.
+     */
+    @GetMapping("/carriers")
+    public Map<String, Object> carriers() {
+        VirtualThreadPinningSource source = pinningSource.getIfAvailable();
+        if (source == null) return Map.of("enabled", false);
+
+        return Map.of(
+                "enabled", true,
+                "carriers", source.getCarrierCount(),
+                "pinnedCarrierFraction", source.getPinnedCarrierFraction()
+        );
+    }
+}
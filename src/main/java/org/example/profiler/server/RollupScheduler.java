@@ -0,0 +1,56 @@
+package org.example.profiler.server;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.example.profiler.analysis.ContentionRollups;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Feeds stored samples into the {@link ContentionRollups} in the background, off the
+ * sampling thread. Tails the {@link SnapshotStore} with a sequence cursor; at startup the
+ * samples already in the persistent log are replayed first, so rollups survive restarts for
+ * as long as the log keeps the samples they were built from.
+ */
+@Component
+@RequiredArgsConstructor
+public class RollupScheduler {
+
+    /** Samples rolled up per run at most */
+    private static final int BATCH = 10_000;
+
+    private final SnapshotStore store;
+    private final ContentionRollups rollups;
+
+    // -1 until the replay of the persistent log is done
+    private volatile long cursor = -1;
+
+    @PostConstruct
+    public void replay() {
+        long start = store.getNextSequence();
+        if (store.getLogBytes() == 0) {
+            cursor = start;
+            return;
+        }
+
+        Thread replay = new Thread(() -> {
+            store.forEachBetween(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, view -> {
+                if (view.getSequence() < start) ingest(view);
+            });
+            cursor = start;
+        }, "rollup-replay");
+        replay.setDaemon(true);
+        replay.start();
+    }
+
+    @Scheduled(fixedDelayString = "${profiler.rollup.interval-ms:5000}")
+    public void roll() {
+        long current = cursor;
+        if (current < 0) return;
+        cursor = store.forEachSince(current, BATCH, this::ingest);
+    }
+
+    private void ingest(SampleView view) {
+        rollups.ingest(view.getSampleTime(), view.toSnapshots());
+    }
+}
@@ -0,0 +1,263 @@
+package org.example.profiler.server;
+
+import org.example.profiler.monitor.LockEvent;
+import org.example.profiler.monitor.SnapshotDelta;
+import org.example.profiler.monitor.ThreadSnapshot;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Binary layout of one sample in a {@link SnapshotStore} segment. Strings and stacks are
+ * refs into a {@link SampleDictionary}; everything else is stored inline so that
+ * {@link SampleView} can read fields in place.
+ *
+ * <pre>
+ * record: int length | long sampleTime | int threadCount | int[threadCount] threadOffsets | threads
+ * thread: long id | int nameRef | byte state | int stackRef | long blockedTime | long blockedCount
+ *         | long waitedTime | long waitedCount | short monitors | short synchronizers
+ *         | byte hasWaitingOn | lock[waitingOn?, monitors..., synchronizers...]
+ * marker: int recordsBack | int bytesBack | long blockedTime | long waitedTime
+ * lock:   int idRef | int nameRef | byte type | long ownerId | int ownerNameRef | int stackRef
+ *         | long acquiredTime | byte contended
+ * </pre>
+ *
+ * Like {@link SnapshotDelta}, a thread unchanged since an earlier sample of the same segment
+ * is a marker rather than a copy: its offset is stored complemented (negative), and the
+ * marker points back to the thread's full encoding and carries the counters that moved. The
+ * pointer is relative, {@code bytesBack} record bytes and {@code recordsBack} records back,
+ * so it holds wherever the records are stored in order, whatever framing goes between them
+ * (none in the store, a length and checksum in the {@link SampleLog}). {@link References}
+ * knows which threads have a full encoding in the current segment; it is reset whenever a
+ * segment starts, so markers never cross segments or dictionary generations.
+ */
+final class SampleCodec {
+
+    // Record header
+    static final int R_LENGTH = 0;
+    static final int R_TIME = 4;
+    static final int R_THREADS = 12;
+    static final int R_OFFSETS = 16;
+
+    // Thread, relative to its offset
+    static final int T_ID = 0;
+    static final int T_NAME = 8;
+    static final int T_STATE = 12;
+    static final int T_STACK = 13;
+    static final int T_BLOCKED_TIME = 17;
+    static final int T_BLOCKED_COUNT = 25;
+    static final int T_WAITED_TIME = 33;
+    static final int T_WAITED_COUNT = 41;
+    static final int T_MONITORS = 49;
+    static final int T_SYNCHRONIZERS = 51;
+    static final int T_HAS_WAITING = 53;
+    static final int T_LOCKS = 54;
+
+    // Lock, relative to its offset
+    static final int L_ID = 0;
+    static final int L_NAME = 4;
+    static final int L_TYPE = 8;
+    static final int L_OWNER = 9;
+    static final int L_OWNER_NAME = 17;
+    static final int L_STACK = 21;
+    static final int L_ACQUIRED = 25;
+    static final int L_CONTENDED = 33;
+    static final int LOCK_SIZE = 34;
+
+    // Unchanged-thread marker, relative to its offset
+    static final int M_RECORDS_BACK = 0;
+    static final int M_BYTES_BACK = 4;
+    static final int M_BLOCKED_TIME = 8;
+    static final int M_WAITED_TIME = 16;
+    static final int MARKER_SIZE = 24;
+
+    private SampleCodec() {}
+
+    /**
+     * Encode {@code delta} into {@code out} starting at position 0, as the next record of
+     * the segment {@code references} tracks: unchanged threads whose base is encoded earlier
+     * in that segment become markers, the others are written in full. {@code out} must be
+     * large enough; see {@link #maxSize(SnapshotDelta)}.
+     *
+     * @return the encoded length
+     */
+    static int encode(SnapshotDelta delta, SampleDictionary dictionary, References references, ByteBuffer out) {
+        int threads = delta.getThreadCount();
+        out.clear();
+        out.putLong(R_TIME, delta.getSampleTime());
+        out.putInt(R_THREADS, threads);
+
+        int pos = R_OFFSETS + threads * Integer.BYTES;
+        int t = 0;
+        for (ThreadSnapshot snapshot : delta.getChanged()) {
+            out.putInt(R_OFFSETS + t++ * Integer.BYTES, pos);
+            references.encoded(snapshot, pos);
+            pos = putThread(out, pos, snapshot, snapshot.getBlockedTime(), snapshot.getWaitedTime(),
+                    dictionary);
+        }
+        for (int i = 0; i < delta.getUnchangedCount(); i++) {
+            ThreadSnapshot base = delta.getUnchangedBase(i);
+            Location location = references.find(base);
+            if (location != null) {
+                out.putInt(R_OFFSETS + t++ * Integer.BYTES, ~pos);
+                out.putInt(pos + M_RECORDS_BACK, references.records - location.record);
+                out.putInt(pos + M_BYTES_BACK, (int) (references.bytes - location.position));
+                out.putLong(pos + M_BLOCKED_TIME, delta.getUnchangedBlockedTime(i));
+                out.putLong(pos + M_WAITED_TIME, delta.getUnchangedWaitedTime(i));
+                references.kept(base, location);
+                pos += MARKER_SIZE;
+                continue;
+            }
+
+            out.putInt(R_OFFSETS + t++ * Integer.BYTES, pos);
+            references.encoded(base, pos);
+            pos = putThread(out, pos, base, delta.getUnchangedBlockedTime(i),
+                    delta.getUnchangedWaitedTime(i), dictionary);
+        }
+
+        out.putInt(R_LENGTH, pos);
+        references.advance(pos);
+        return pos;
+    }
+
+    /** Upper bound of the encoded size of {@code delta}, with every thread in full */
+    static int maxSize(SnapshotDelta delta) {
+        int size = R_OFFSETS;
+        for (ThreadSnapshot snapshot : delta.getChanged()) {
+            size += threadSize(snapshot);
+        }
+        for (int i = 0; i < delta.getUnchangedCount(); i++) {
+            size += threadSize(delta.getUnchangedBase(i));
+        }
+        return size;
+    }
+
+    private static int threadSize(ThreadSnapshot snapshot) {
+        return Integer.BYTES + T_LOCKS + LOCK_SIZE * (size(snapshot.getLockedMonitors())
+                + size(snapshot.getLockedSynchronizers())
+                + (snapshot.getLockWaitingOn() != null ? 1 : 0));
+    }
+
+    private static int putThread(ByteBuffer out, int pos, ThreadSnapshot snapshot,
+                                 long blockedTime, long waitedTime, SampleDictionary dictionary) {
+        List<LockEvent> monitors = snapshot.getLockedMonitors();
+        List<LockEvent> synchronizers = snapshot.getLockedSynchronizers();
+        LockEvent waitingOn = snapshot.getLockWaitingOn();
+
+        out.putLong(pos + T_ID, snapshot.getThreadId());
+        out.putInt(pos + T_NAME, dictionary.stringRef(snapshot.getThreadName()));
+        out.put(pos + T_STATE, (byte) snapshot.getThreadState().ordinal());
+        out.putInt(pos + T_STACK, dictionary.stackRef(snapshot.getStackId()));
+        out.putLong(pos + T_BLOCKED_TIME, blockedTime);
+        out.putLong(pos + T_BLOCKED_COUNT, snapshot.getBlockedCount());
+        out.putLong(pos + T_WAITED_TIME, waitedTime);
+        out.putLong(pos + T_WAITED_COUNT, snapshot.getWaitedCount());
+        out.putShort(pos + T_MONITORS, (short) size(monitors));
+        out.putShort(pos + T_SYNCHRONIZERS, (short) size(synchronizers));
+        out.put(pos + T_HAS_WAITING, (byte) (waitingOn != null ? 1 : 0));
+
+        int lockPos = pos + T_LOCKS;
+        if (waitingOn != null) {
+            lockPos = putLock(out, lockPos, waitingOn, dictionary);
+        }
+        if (monitors != null) {
+            for (LockEvent lock : monitors) lockPos = putLock(out, lockPos, lock, dictionary);
+        }
+        if (synchronizers != null) {
+            for (LockEvent lock : synchronizers) lockPos = putLock(out, lockPos, lock, dictionary);
+        }
+        return lockPos;
+    }
+
+    private static int putLock(ByteBuffer out, int pos, LockEvent lock, SampleDictionary dictionary) {
+        out.putInt(pos + L_ID, dictionary.stringRef(lock.getLockId()));
+        out.putInt(pos + L_NAME, dictionary.stringRef(lock.getLockName()));
+        out.put(pos + L_TYPE, (byte) (lock.getLockType() != null ? lock.getLockType().ordinal() : -1));
+        out.putLong(pos + L_OWNER, lock.getOwnerThreadId());
+        out.putInt(pos + L_OWNER_NAME, dictionary.stringRef(lock.getOwnerThreadName()));
+        out.putInt(pos + L_STACK, dictionary.stackRef(lock.getStackId()));
+        out.putLong(pos + L_ACQUIRED, lock.getAcquiredTime());
+        out.put(pos + L_CONTENDED, (byte) (lock.isContended() ? 1 : 0));
+        return pos + LOCK_SIZE;
+    }
+
+    /**
+     * @return whether every string and stack the record at {@code base} refers to is in
+     *         {@code dictionary}; markers refer to nothing themselves
+     */
+    static boolean refersWithin(ByteBuffer record, int base, SampleDictionary dictionary) {
+        int threads = record.getInt(base + R_THREADS);
+        for (int t = 0; t < threads; t++) {
+            int offset = record.getInt(base + R_OFFSETS + t * Integer.BYTES);
+            if (offset < 0) continue;
+
+            int pos = base + offset;
+            if (!dictionary.hasString(record.getInt(pos + T_NAME))
+                    || !dictionary.hasStack(record.getInt(pos + T_STACK))) {
+                return false;
+            }
+            int locks = record.getShort(pos + T_MONITORS) + record.getShort(pos + T_SYNCHRONIZERS)
+                    + record.get(pos + T_HAS_WAITING);
+            for (int lock = pos + T_LOCKS; lock < pos + T_LOCKS + locks * LOCK_SIZE; lock += LOCK_SIZE) {
+                if (!dictionary.hasString(record.getInt(lock + L_ID))
+                        || !dictionary.hasString(record.getInt(lock + L_NAME))
+                        || !dictionary.hasString(record.getInt(lock + L_OWNER_NAME))
+                        || !dictionary.hasStack(record.getInt(lock + L_STACK))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int size(List<?> list) {
+        return list != null ? list.size() : 0;
+    }
+
+    /**
+     * Where the threads of the latest record have their full encoding in the current segment,
+     * keyed by the snapshot that {@link SnapshotDelta} markers reference. Only the latest
+     * record's threads are kept, so it holds one entry per live thread. Writer only.
+     */
+    static final class References {
+
+        private IdentityHashMap<ThreadSnapshot, Location> current = new IdentityHashMap<>();
+        private IdentityHashMap<ThreadSnapshot, Location> next = new IdentityHashMap<>();
+        // Records and record bytes written to the current segment so far
+        private int records;
+        private long bytes;
+
+        /** A segment starts: nothing before it can be referenced */
+        void reset() {
+            current.clear();
+            next.clear();
+            records = 0;
+            bytes = 0;
+        }
+
+        private Location find(ThreadSnapshot base) {
+            return current.get(base);
+        }
+
+        private void encoded(ThreadSnapshot snapshot, int offset) {
+            next.put(snapshot, new Location(records, bytes + offset));
+        }
+
+        private void kept(ThreadSnapshot base, Location location) {
+            next.put(base, location);
+        }
+
+        private void advance(int length) {
+            records++;
+            bytes += length;
+            IdentityHashMap<ThreadSnapshot, Location> done = current;
+            current = next;
+            next = done;
+            next.clear();
+        }
+    }
+
+    /** A full thread encoding: its record's index and its position, in record bytes, in the segment */
+    private record Location(int record, long position) {}
+}
@@ -0,0 +1,172 @@
+package org.example.profiler.server;
+
+import org.example.profiler.monitor.StackTable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Strings and stacks referenced by encoded samples, stored once and addressed by int refs.
+ * Grows with the number of distinct values, not with the number of samples. Stacks come in
+ * as {@link StackTable} ids, so looking one up never hashes its frames; refs are kept
+ * separate from those ids because they are persisted and ids are not.
+ *
+ * One dictionary is one generation: {@link SnapshotStore} replaces it with an empty one from
+ * time to time, so entries only used by evicted samples go away with them. {@link #getBytes()}
+ * estimates its heap footprint, which the store counts against its byte budget.
+ *
+ * Single writer, any number of readers: refs are only added by the {@link SnapshotStore}
+ * writer, and a reader only ever resolves refs found in a sample the writer published after
+ * adding them, so lookups need no lock.
+ */
+class SampleDictionary {
+
+    static final int NONE = -1;
+
+    // Estimated heap bytes per entry: the lookup map node and its boxes, the table slot and,
+    // for strings, the String itself plus two bytes per char at most
+    private static final int ENTRY_BYTES = 64;
+    private static final int STRING_BYTES = 40;
+
+    /** Receives every new entry, e.g. to persist it next to the samples that use it */
+    interface Journal {
+        void onString(int ref, String value);
+        void onStack(int ref, StackTraceElement[] stack);
+    }
+
+    private Journal journal;
+
+    // Writer-only lookup maps
+    private final Map<String, Integer> stringRefs = new HashMap<>();
+    private final Map<Integer, Integer> stackRefs = new HashMap<>();
+
+    private final AppendOnlyTable<String> strings = new AppendOnlyTable<>();
+    // StackTable id per ref
+    private final AppendOnlyTable<Integer> stacks = new AppendOnlyTable<>();
+
+    private volatile long bytes;
+
+    int stringRef(String value) {
+        if (value == null) return NONE;
+
+        Integer ref = stringRefs.get(value);
+        if (ref == null) {
+            ref = strings.add(value);
+            stringRefs.put(value, ref);
+            bytes += stringBytes(value);
+            if (journal != null) journal.onString(ref, value);
+        }
+        return ref;
+    }
+
+    String string(int ref) {
+        return ref == NONE ? null : strings.get(ref);
+    }
+
+    int stackRef(int stackId) {
+        if (stackId == StackTable.NO_STACK) return NONE;
+
+        Integer ref = stackRefs.get(stackId);
+        if (ref == null) {
+            ref = stacks.add(stackId);
+            stackRefs.put(stackId, ref);
+            bytes += ENTRY_BYTES;
+            if (journal != null) journal.onStack(ref, StackTable.stack(stackId));
+        }
+        return ref;
+    }
+
+    /** @return the {@link StackTable} id of stack {@code ref} */
+    int stackId(int ref) {
+        return ref == NONE ? StackTable.NO_STACK : stacks.get(ref);
+    }
+
+    int size() {
+        return strings.size() + stacks.size();
+    }
+
+    /** @return whether {@code ref} is {@link #NONE} or a string added so far */
+    boolean hasString(int ref) {
+        return ref >= NONE && ref < strings.size();
+    }
+
+    /** @return whether {@code ref} is {@link #NONE} or a stack added so far */
+    boolean hasStack(int ref) {
+        return ref >= NONE && ref < stacks.size();
+    }
+
+    /** @return estimated heap bytes of this generation; the frames of stacks live in the StackTable */
+    long getBytes() {
+        return bytes;
+    }
+
+    private static long stringBytes(String value) {
+        return ENTRY_BYTES + STRING_BYTES + 2L * value.length();
+    }
+
+    void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    /* ------------------------
+       Recovery
+       ------------------------ */
+
+    /** Re-add a journaled string; entries must be restored in their original order. */
+    void restoreString(int ref, String value) {
+        if (ref != strings.size()) {
+            throw new IllegalStateException("dictionary string " + ref + " restored out of order");
+        }
+        stringRefs.put(value, strings.add(value));
+        bytes += stringBytes(value);
+    }
+
+    /** Re-add a journaled stack; entries must be restored in their original order. */
+    void restoreStack(int ref, StackTraceElement[] stack) {
+        if (ref != stacks.size()) {
+            throw new IllegalStateException("dictionary stack " + ref + " restored out of order");
+        }
+        int stackId = StackTable.intern(stack);
+        stackRefs.put(stackId, stacks.add(stackId));
+        bytes += ENTRY_BYTES;
+    }
+
+    /**
+     * Chunked array that never moves published entries, so readers can index it while the
+     * writer appends.
+     */
+    private static final class AppendOnlyTable<T> {
+
+        private static final int CHUNK_BITS = 10;
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+        private volatile Object[][] chunks = new Object[16][];
+        private int size;
+
+        int add(T value) {
+            int ref = size;
+            int chunk = ref >>> CHUNK_BITS;
+            Object[][] current = chunks;
+            if (chunk == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            if (current[chunk] == null) {
+                current[chunk] = new Object[CHUNK_SIZE];
+            }
+            current[chunk][ref & (CHUNK_SIZE - 1)] = value;
+            chunks = current;
+            size++;
+            return ref;
+        }
+
+        @SuppressWarnings("unchecked")
+        T get(int ref) {
+            return (T) chunks[ref >>> CHUNK_BITS][ref & (CHUNK_SIZE - 1)];
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,649 @@
+package org.example.profiler.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk, append-only log of encoded samples, so history survives restarts.
+ *
+ * Samples are appended to segment files ({@code <firstSequence>.seg}) as
+ * {@code int length | int crc32 | record}; each segment has a sparse time index
+ * ({@code .idx}, one entry every {@link #INDEX_INTERVAL} bytes) so a time-range query maps
+ * only the segments that overlap the range and starts near the first matching sample. The
+ * active segment's file grows in chunks of {@link #ALLOCATION_CHUNK}, zero-filled past its
+ * last record, so a query maps it again only once per chunk rather than on every sample; a
+ * zero length ends the records of a segment.
+ *
+ * The dictionary the records refer to comes in generations (see {@link SnapshotStore}).
+ * Each generation is journaled to its own {@code <firstSequence>.dict}, and every segment
+ * lies within one generation: a new generation always starts a new segment. A segment
+ * belongs to the latest generation that starts at or before its first sample.
+ *
+ * New entries are written to the journal before the first sample that uses them, but the
+ * sampler never waits for a disk flush: the journal is forced together with its segment and
+ * index, when the segment is sealed and on close. Only the active segment and its journal
+ * can therefore lose writes in a crash, in any order. On open, the tail of the last segment
+ * and of every dictionary are scanned and truncated at the first torn or corrupt entry, and
+ * the last segment also at the first sample that refers to an entry its journal lost. Once a new segment has its first sample, older sealed
+ * segments are deleted oldest first while the log exceeds its size limit or their last
+ * sample is past retention, and so are the dictionaries no remaining segment refers to.
+ * Opening the log therefore loads only the dictionaries of retained samples.
+ *
+ * Single writer (the {@link SnapshotStore} writer), lock-free readers.
+ */
+class SampleLog implements SampleDictionary.Journal {
+
+    static final int INDEX_INTERVAL = 64 * 1024;
+    static final int ALLOCATION_CHUNK = 4 * 1024 * 1024;
+
+    private static final int HEADER = 8;
+    private static final int INDEX_ENTRY = 20;
+    private static final byte STRING = 0;
+    private static final byte STACK = 1;
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final long maxBytes;
+    private final long retentionMillis;
+
+    // Writer only: dictionaries of the retained segments, oldest first; the last one is current
+    private final ArrayDeque<Generation> generations = new ArrayDeque<>();
+    private FileChannel dictionaryChannel;
+    // a journal write failed; reported by the next append
+    private IOException journalError;
+
+    private volatile LogSegment[] segments;
+    private volatile long nextSequence;
+
+    // Writer scratch
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER);
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY);
+
+    private SampleLog(Path dir, long segmentBytes, long maxBytes, long retentionMillis) throws IOException {
+        // records and index entries address a segment with int offsets
+        if (segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("profiler.log.segment-bytes must be at most " + Integer.MAX_VALUE);
+        }
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        this.retentionMillis = retentionMillis;
+
+        Files.createDirectories(dir);
+        recoverDictionaries();
+        recoverSegments();
+    }
+
+    /**
+     * Open or create the log in {@code dir} and load the dictionaries of its samples. Call
+     * {@link #startGeneration} before the first {@link #append}.
+     */
+    static SampleLog open(Path dir, long segmentBytes, long maxBytes, long retentionMillis) {
+        try {
+            return new SampleLog(dir, segmentBytes, maxBytes, retentionMillis);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot open sample log in " + dir, e);
+        }
+    }
+
+    /** @return the sequence of the next sample, continuing after the recovered ones */
+    long getNextSequence() {
+        return nextSequence;
+    }
+
+    /* ------------------------
+       Writer
+       ------------------------ */
+
+    /**
+     * @return whether a record of up to {@code maxLength} bytes no longer fits the active
+     *         segment, so that the store must start a new generation before encoding it
+     */
+    boolean needsRoll(int maxLength) {
+        LogSegment[] current = segments;
+        LogSegment active = current.length > 0 ? current[current.length - 1] : null;
+        return active == null || (active.size > 0 && active.size + HEADER + maxLength > segmentBytes);
+    }
+
+    /**
+     * Seal the active segment and start a segment and a dictionary journal for
+     * {@code dictionary}, whose entries samples from {@link #getNextSequence()} on refer to.
+     */
+    void startGeneration(SampleDictionary dictionary) throws IOException {
+        // 1️⃣ Seal the active segment with its journal, before a newer segment exists; one
+        // that never got a sample is replaced
+        if (dictionaryChannel != null) {
+            dictionaryChannel.force(false);
+            dictionaryChannel.close();
+        }
+        LogSegment[] current = segments;
+        if (current.length > 0) {
+            LogSegment active = current[current.length - 1];
+            if (active.size == 0) {
+                current = Arrays.copyOf(current, current.length - 1);
+                segments = current;
+                active.delete();
+            } else {
+                active.channel.force(false);
+                active.indexChannel.force(false);
+            }
+        }
+
+        // 2️⃣ The journal starts empty: no sample refers to the new generation yet
+        Path file = dictionaryFile(nextSequence);
+        dictionaryChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        if (!generations.isEmpty() && generations.peekLast().start == nextSequence) {
+            generations.removeLast(); // an earlier generation that never got a sample
+        }
+        generations.addLast(new Generation(nextSequence, file, dictionary));
+        dictionary.setJournal(this);
+
+        LogSegment rolled = LogSegment.create(dir, nextSequence, dictionary);
+        LogSegment[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = rolled;
+        segments = next;
+    }
+
+    /**
+     * Append {@code length} bytes of {@code record}, which must be the sample with sequence
+     * {@link #getNextSequence()}, encoded with the dictionary of the latest generation.
+     */
+    void append(ByteBuffer record, int length, long sampleTime) throws IOException {
+        if (journalError != null) throw journalError;
+
+        LogSegment[] current = segments;
+        LogSegment active = current[current.length - 1];
+        long offset = active.size;
+
+        ByteBuffer body = record.slice(0, length);
+        crc.reset();
+        crc.update(body.duplicate());
+        header.clear();
+        header.putInt(length).putInt((int) crc.getValue()).flip();
+
+        active.allocate(offset + HEADER + length, segmentBytes);
+        active.channel.position(offset);
+        writeFully(active.channel, header);
+        writeFully(active.channel, body);
+
+        if (active.indexCount == 0 || offset - active.lastIndexedOffset() >= INDEX_INTERVAL) {
+            active.writeIndex(indexEntry, sampleTime, nextSequence, offset);
+        }
+        active.lastTime = sampleTime;
+        active.size = offset + HEADER + length;
+        nextSequence++;
+
+        // the segment before this one was just sealed
+        if (offset == 0) deleteExpired(sampleTime);
+    }
+
+    /**
+     * Delete sealed segments, oldest first, while over the size limit or when their last
+     * sample is past retention, then the dictionaries no remaining segment refers to.
+     */
+    private void deleteExpired(long now) throws IOException {
+        LogSegment[] current = segments;
+        long bytes = 0;
+        for (LogSegment segment : current) bytes += segment.size;
+
+        int drop = 0;
+        while (drop < current.length - 1
+                && (bytes > maxBytes || current[drop].lastTime < now - retentionMillis)) {
+            bytes -= current[drop].size;
+            drop++;
+        }
+        if (drop == 0) return;
+
+        segments = Arrays.copyOfRange(current, drop, current.length);
+        for (int i = 0; i < drop; i++) {
+            current[i].delete();
+        }
+
+        // a generation is done with once the next one starts at or before the oldest sample left
+        long oldest = current[drop].firstSequence;
+        while (generations.size() > 1) {
+            Iterator<Generation> it = generations.iterator();
+            it.next();
+            if (it.next().start > oldest) break;
+            Files.deleteIfExists(generations.removeFirst().file);
+        }
+    }
+
+    @Override
+    public void onString(int ref, String value) {
+        journal(STRING, ref, out -> out.writeUTF(value));
+    }
+
+    @Override
+    public void onStack(int ref, StackTraceElement[] stack) {
+        journal(STACK, ref, out -> {
+            out.writeInt(stack.length);
+            for (StackTraceElement frame : stack) {
+                out.writeUTF(frame.getClassName());
+                out.writeUTF(frame.getMethodName());
+                out.writeBoolean(frame.getFileName() != null);
+                if (frame.getFileName() != null) out.writeUTF(frame.getFileName());
+                out.writeInt(frame.getLineNumber());
+            }
+        });
+    }
+
+    private interface EntryWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private void journal(byte kind, int ref, EntryWriter writer) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(kind);
+            out.writeInt(ref);
+            writer.write(out);
+
+            byte[] body = bytes.toByteArray();
+            crc.reset();
+            crc.update(body);
+            ByteBuffer entry = ByteBuffer.allocate(HEADER + body.length);
+            entry.putInt(body.length).putInt((int) crc.getValue()).put(body).flip();
+
+            dictionaryChannel.position(dictionaryChannel.size());
+            writeFully(dictionaryChannel, entry);
+        } catch (IOException e) {
+            // called from inside the encoder, so fail the next append instead
+            journalError = e;
+        }
+    }
+
+    void close() throws IOException {
+        if (dictionaryChannel != null) {
+            dictionaryChannel.force(false);
+            dictionaryChannel.close();
+        }
+        for (LogSegment segment : segments) segment.close();
+    }
+
+    /* ------------------------
+       Readers, lock-free
+       ------------------------ */
+
+    /**
+     * Visit samples with {@code fromMillis <= sampleTime <= toMillis}, oldest first. Only
+     * segments overlapping the range are mapped.
+     *
+     * @return number of samples visited
+     */
+    int forEachBetween(long fromMillis, long toMillis, int limit, Consumer<SampleView> visitor) {
+        LogSegment[] current = segments;
+        SampleView view = new SampleView();
+        int visited = 0;
+
+        for (int i = 0; i < current.length && visited < limit; i++) {
+            LogSegment segment = current[i];
+            if (segment.indexCount == 0 || segment.lastTime < fromMillis) continue;
+            if (segment.firstTime() > toMillis) break;
+
+            long size = segment.size;
+            ByteBuffer mapped;
+            try {
+                mapped = segment.map(size);
+            } catch (UncheckedIOException e) {
+                continue; // deleted by retention while we were reading
+            }
+            int start = segment.floorIndex(fromMillis);
+            int offset = segment.indexOffsets[start];
+            long sequence = segment.indexSequences[start];
+
+            while (offset + HEADER <= size && visited < limit) {
+                int length = mapped.getInt(offset);
+                int record = offset + HEADER;
+                long sampleTime = mapped.getLong(record + SampleCodec.R_TIME);
+                if (sampleTime > toMillis) return visited;
+                if (sampleTime >= fromMillis) {
+                    visitor.accept(view.at(segment.dictionary, mapped, record, sequence, HEADER));
+                    visited++;
+                }
+                offset = record + length;
+                sequence++;
+            }
+        }
+        return visited;
+    }
+
+    long getSizeBytes() {
+        long bytes = 0;
+        for (LogSegment segment : segments) bytes += segment.size;
+        return bytes;
+    }
+
+    /* ------------------------
+       Recovery
+       ------------------------ */
+
+    private Path dictionaryFile(long firstSequence) {
+        return dir.resolve(String.format("%020d.dict", firstSequence));
+    }
+
+    private void recoverDictionaries() throws IOException {
+        for (long start : sequencesOf(".dict")) {
+            Path file = dictionaryFile(start);
+            SampleDictionary dictionary = new SampleDictionary();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                recoverDictionary(channel, dictionary);
+            }
+            generations.addLast(new Generation(start, file, dictionary));
+        }
+    }
+
+    private void recoverDictionary(FileChannel channel, SampleDictionary dictionary) throws IOException {
+        long size = channel.size();
+        ByteBuffer data = size > 0
+                ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+                : ByteBuffer.allocate(0);
+
+        long valid = 0;
+        while (valid + HEADER <= size) {
+            int length = data.getInt((int) valid);
+            int checksum = data.getInt((int) valid + 4);
+            if (length <= 0 || valid + HEADER + length > size) break;
+
+            byte[] body = new byte[length];
+            data.get((int) valid + HEADER, body);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != checksum) break;
+
+            restore(new DataInputStream(new ByteArrayInputStream(body)), dictionary);
+            valid += HEADER + length;
+        }
+        // torn tail of an interrupted write
+        channel.truncate(valid);
+    }
+
+    private void restore(DataInputStream in, SampleDictionary dictionary) throws IOException {
+        byte kind = in.readByte();
+        int ref = in.readInt();
+        if (kind == STRING) {
+            dictionary.restoreString(ref, in.readUTF());
+            return;
+        }
+
+        StackTraceElement[] stack = new StackTraceElement[in.readInt()];
+        for (int i = 0; i < stack.length; i++) {
+            String className = in.readUTF();
+            String method = in.readUTF();
+            String file = in.readBoolean() ? in.readUTF() : null;
+            stack[i] = new StackTraceElement(className, method, file, in.readInt());
+        }
+        dictionary.restoreStack(ref, stack);
+    }
+
+    private void recoverSegments() throws IOException {
+        List<LogSegment> recovered = new ArrayList<>();
+        for (long first : sequencesOf(".seg")) {
+            SampleDictionary dictionary = generationOf(first);
+            if (dictionary == null) {
+                // its dictionary is gone, so its samples cannot be read
+                System.err.println("[SampleLog] dropping segment " + first + " without a dictionary");
+                LogSegment.open(dir, first, null).delete();
+                continue;
+            }
+            recovered.add(LogSegment.open(dir, first, dictionary));
+        }
+        segments = recovered.toArray(new LogSegment[0]);
+        nextSequence = 0;
+
+        for (int i = 0; i < recovered.size(); i++) {
+            LogSegment segment = recovered.get(i);
+            long end = scanTail(segment, i == recovered.size() - 1);
+            if (i == recovered.size() - 1) nextSequence = end;
+        }
+    }
+
+    /** @return the dictionary of the latest generation starting at or before {@code sequence} */
+    private SampleDictionary generationOf(long sequence) {
+        SampleDictionary found = null;
+        for (Generation generation : generations) {
+            if (generation.start <= sequence) found = generation.dictionary;
+        }
+        return found;
+    }
+
+    private List<Long> sequencesOf(String suffix) throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(name -> name.endsWith(suffix))
+                    .forEach(name -> sequences.add(Long.parseLong(name.substring(0, name.length() - suffix.length()))));
+        }
+        sequences.sort(null);
+        return sequences;
+    }
+
+    /**
+     * Scan a segment from its last index entry to find its last sample time and where its
+     * records end. For the last segment, also re-index what the index missed and truncate at the first torn record or
+     * the first one referring to a dictionary entry that did not survive.
+     *
+     * @return sequence following the last intact record
+     */
+    private long scanTail(LogSegment segment, boolean repair) throws IOException {
+        long fileSize = segment.channel.size();
+        int start = segment.indexCount > 0 ? segment.indexCount - 1 : -1;
+        long offset = start >= 0 ? segment.indexOffsets[start] : 0;
+        long sequence = start >= 0 ? segment.indexSequences[start] : segment.firstSequence;
+
+        ByteBuffer data = fileSize > 0 ? segment.map(fileSize) : ByteBuffer.allocate(0);
+        while (offset + HEADER <= fileSize) {
+            int length = data.getInt((int) offset);
+            int checksum = data.getInt((int) offset + 4);
+            if (length < SampleCodec.R_OFFSETS || offset + HEADER + length > fileSize) break;
+
+            if (repair) {
+                crc.reset();
+                crc.update(data.slice((int) offset + HEADER, length));
+                if ((int) crc.getValue() != checksum) break;
+                if (!SampleCodec.refersWithin(data, (int) offset + HEADER, segment.dictionary)) break;
+            }
+
+            long sampleTime = data.getLong((int) offset + HEADER + SampleCodec.R_TIME);
+            if (repair && (segment.indexCount == 0 || offset - segment.lastIndexedOffset() >= INDEX_INTERVAL)) {
+                segment.writeIndex(indexEntry, sampleTime, sequence, offset);
+            }
+            segment.lastTime = sampleTime;
+            offset += HEADER + length;
+            sequence++;
+        }
+
+        if (repair) {
+            segment.channel.truncate(offset);
+            segment.truncated(offset);
+        }
+        segment.size = offset;
+        return sequence;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) position += channel.write(buffer, position);
+    }
+
+    private record Generation(long start, Path file, SampleDictionary dictionary) {}
+
+    /**
+     * One segment file and its sparse index. The index arrays are replaced, never resized in
+     * place, and {@code indexCount} is written after them so readers see complete entries.
+     */
+    private static final class LogSegment {
+
+        final long firstSequence;
+        final Path file;
+        final Path indexFile;
+        final FileChannel channel;
+        final FileChannel indexChannel;
+        // generation the samples of this segment were encoded with
+        final SampleDictionary dictionary;
+
+        volatile long size;
+        // file length, at least size; the zero-filled rest is room for the next records
+        volatile long allocated;
+        volatile long lastTime = Long.MIN_VALUE;
+        volatile long[] indexTimes = new long[16];
+        volatile long[] indexSequences = new long[16];
+        volatile int[] indexOffsets = new int[16];
+        volatile int indexCount;
+
+        private volatile MappedByteBuffer mapped;
+
+        private LogSegment(Path dir, long firstSequence, SampleDictionary dictionary) throws IOException {
+            this.firstSequence = firstSequence;
+            this.dictionary = dictionary;
+            this.file = dir.resolve(String.format("%020d.seg", firstSequence));
+            this.indexFile = dir.resolve(String.format("%020d.idx", firstSequence));
+            this.channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.indexChannel = FileChannel.open(indexFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        static LogSegment create(Path dir, long firstSequence, SampleDictionary dictionary) throws IOException {
+            return new LogSegment(dir, firstSequence, dictionary);
+        }
+
+        static LogSegment open(Path dir, long firstSequence, SampleDictionary dictionary) throws IOException {
+            LogSegment segment = new LogSegment(dir, firstSequence, dictionary);
+            segment.allocated = segment.channel.size();
+            segment.size = segment.allocated;
+            segment.loadIndex();
+            return segment;
+        }
+
+        private void loadIndex() throws IOException {
+            long entries = indexChannel.size() / INDEX_ENTRY;
+            ByteBuffer data = ByteBuffer.allocate((int) (entries * INDEX_ENTRY));
+            indexChannel.read(data, 0);
+            data.flip();
+
+            for (int i = 0; i < entries; i++) {
+                long time = data.getLong();
+                long sequence = data.getLong();
+                int offset = data.getInt();
+                if (offset >= size) break;
+                addIndex(time, sequence, offset);
+            }
+            // drop a torn entry and entries pointing past the data
+            indexChannel.truncate((long) indexCount * INDEX_ENTRY);
+        }
+
+        void writeIndex(ByteBuffer entry, long time, long sequence, long offset) throws IOException {
+            entry.clear();
+            entry.putLong(time).putLong(sequence).putInt((int) offset).flip();
+            indexChannel.position((long) indexCount * INDEX_ENTRY);
+            writeFully(indexChannel, entry);
+            addIndex(time, sequence, (int) offset);
+        }
+
+        private void addIndex(long time, long sequence, int offset) {
+            int n = indexCount;
+            if (n == indexTimes.length) {
+                indexTimes = Arrays.copyOf(indexTimes, n * 2);
+                indexSequences = Arrays.copyOf(indexSequences, n * 2);
+                indexOffsets = Arrays.copyOf(indexOffsets, n * 2);
+            }
+            indexTimes[n] = time;
+            indexSequences[n] = sequence;
+            indexOffsets[n] = offset;
+            indexCount = n + 1;
+        }
+
+        long firstTime() {
+            return indexTimes[0];
+        }
+
+        long lastIndexedOffset() {
+            return indexOffsets[indexCount - 1];
+        }
+
+        /** @return the last index entry at or before {@code time}, or the first one */
+        int floorIndex(long time) {
+            int count = indexCount;
+            long[] times = indexTimes;
+            int lo = 0;
+            int hi = count - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (times[mid] <= time) lo = mid; else hi = mid - 1;
+            }
+            return lo;
+        }
+
+        /**
+         * Writer only: grow the file to hold {@code end} bytes, by a whole chunk at a time but
+         * not past {@code limit} unless a record needs it.
+         */
+        void allocate(long end, long limit) throws IOException {
+            if (end <= allocated) return;
+            long next = Math.max(end, Math.min(allocated + ALLOCATION_CHUNK, limit));
+            writeFully(channel, ByteBuffer.allocate(1), next - 1);
+            allocated = next;
+        }
+
+        /** The file was cut to {@code length}: forget the room and the mapping beyond it */
+        void truncated(long length) {
+            allocated = length;
+            mapped = null;
+        }
+
+        /**
+         * Map at least the first {@code length} bytes. The whole allocated file is mapped, so
+         * the mapping is reused until the writer allocates the next chunk.
+         */
+        ByteBuffer map(long length) {
+            MappedByteBuffer current = mapped;
+            if (current != null && current.capacity() >= length) return current;
+            try {
+                // never past the file's end: mapping a read-write channel there would grow it
+                current = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.max(length, allocated));
+            } catch (IOException e) {
+                throw new UncheckedIOException("cannot map " + file, e);
+            }
+            mapped = current;
+            return current;
+        }
+
+        void close() throws IOException {
+            channel.force(false);
+            channel.close();
+            indexChannel.close();
+        }
+
+        void delete() throws IOException {
+            channel.close();
+            indexChannel.close();
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(indexFile);
+        }
+    }
+}
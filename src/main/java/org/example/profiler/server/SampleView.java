@@ -0,0 +1,166 @@
+package org.example.profiler.server;
+
+import org.example.profiler.monitor.LockEvent;
+import org.example.profiler.monitor.LockType;
+import org.example.profiler.monitor.ThreadSnapshot;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.example.profiler.server.SampleCodec.*;
+
+/**
+ * Read-only view of one sample encoded in a {@link SnapshotStore} segment. Accessors read
+ * straight from the off-heap buffer; only {@link #toSnapshot(int)} and {@link #toSnapshots()}
+ * build objects.
+ *
+ * A thread left unchanged since an earlier sample is a marker in this record (see
+ * {@link SampleCodec}); the view follows it back to the earlier full encoding and takes only
+ * the moving counters from the marker, as {@link org.example.profiler.monitor.SnapshotDelta}
+ * does.
+ *
+ * A view is a flyweight: it is only valid inside the callback that received it.
+ */
+public class SampleView {
+
+    private static final Thread.State[] STATES = Thread.State.values();
+    private static final LockType[] LOCK_TYPES = LockType.values();
+
+    private SampleDictionary dictionary;
+    private ByteBuffer buffer;
+    private int base;
+    private long sequence;
+    private int framing;
+
+    /**
+     * @param dictionary the generation the sample was encoded with
+     * @param framing    bytes stored between two consecutive records of {@code buffer}
+     */
+    SampleView at(SampleDictionary dictionary, ByteBuffer buffer, int base, long sequence, int framing) {
+        this.dictionary = dictionary;
+        this.buffer = buffer;
+        this.base = base;
+        this.sequence = sequence;
+        this.framing = framing;
+        return this;
+    }
+
+    /** @return position of this sample in the store, increasing by one per sample */
+    public long getSequence() { return sequence; }
+    public long getSampleTime() { return buffer.getLong(base + R_TIME); }
+    public int getThreadCount() { return buffer.getInt(base + R_THREADS); }
+    public int getEncodedSize() { return buffer.getInt(base + R_LENGTH); }
+
+    public long getThreadId(int t) { return buffer.getLong(thread(t) + T_ID); }
+    public String getThreadName(int t) { return dictionary.string(buffer.getInt(thread(t) + T_NAME)); }
+    public Thread.State getThreadState(int t) { return STATES[buffer.get(thread(t) + T_STATE)]; }
+    public long getBlockedTime(int t) {
+        int marker = marker(t);
+        return marker >= 0 ? buffer.getLong(marker + M_BLOCKED_TIME) : buffer.getLong(thread(t) + T_BLOCKED_TIME);
+    }
+
+    public long getWaitedTime(int t) {
+        int marker = marker(t);
+        return marker >= 0 ? buffer.getLong(marker + M_WAITED_TIME) : buffer.getLong(thread(t) + T_WAITED_TIME);
+    }
+
+    /** @return whether thread {@code t} is unchanged since an earlier sample of this segment */
+    public boolean isUnchanged(int t) {
+        return marker(t) >= 0;
+    }
+
+    public boolean isWaiting(int t) {
+        return buffer.get(thread(t) + T_HAS_WAITING) != 0;
+    }
+
+    /** @return id of the lock thread {@code t} waits on, or null */
+    public String getWaitingLockId(int t) {
+        int pos = thread(t);
+        return buffer.get(pos + T_HAS_WAITING) != 0
+                ? dictionary.string(buffer.getInt(pos + T_LOCKS + L_ID))
+                : null;
+    }
+
+    public int getHeldLockCount(int t) {
+        int pos = thread(t);
+        return buffer.getShort(pos + T_MONITORS) + buffer.getShort(pos + T_SYNCHRONIZERS);
+    }
+
+    public ThreadSnapshot toSnapshot(int t) {
+        int pos = thread(t);
+        long sampleTime = getSampleTime();
+        int monitorCount = buffer.getShort(pos + T_MONITORS);
+        int synchronizerCount = buffer.getShort(pos + T_SYNCHRONIZERS);
+        int lockPos = pos + T_LOCKS;
+
+        LockEvent waitingOn = null;
+        if (buffer.get(pos + T_HAS_WAITING) != 0) {
+            waitingOn = lock(lockPos);
+            lockPos += LOCK_SIZE;
+        }
+
+        List<LockEvent> monitors = new ArrayList<>(monitorCount);
+        for (int i = 0; i < monitorCount; i++, lockPos += LOCK_SIZE) {
+            monitors.add(lock(lockPos));
+        }
+        List<LockEvent> synchronizers = new ArrayList<>(synchronizerCount);
+        for (int i = 0; i < synchronizerCount; i++, lockPos += LOCK_SIZE) {
+            synchronizers.add(lock(lockPos));
+        }
+
+        ThreadSnapshot snapshot = new ThreadSnapshot(
+                buffer.getLong(pos + T_ID),
+                dictionary.string(buffer.getInt(pos + T_NAME)),
+                STATES[buffer.get(pos + T_STATE)],
+                dictionary.stackId(buffer.getInt(pos + T_STACK)),
+                monitors,
+                synchronizers,
+                waitingOn,
+                sampleTime
+        );
+        snapshot.setBlockedTime(getBlockedTime(t));
+        snapshot.setBlockedCount(buffer.getLong(pos + T_BLOCKED_COUNT));
+        snapshot.setWaitedTime(getWaitedTime(t));
+        snapshot.setWaitedCount(buffer.getLong(pos + T_WAITED_COUNT));
+        return snapshot;
+    }
+
+    public List<ThreadSnapshot> toSnapshots() {
+        int threads = getThreadCount();
+        List<ThreadSnapshot> snapshots = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            snapshots.add(toSnapshot(t));
+        }
+        return snapshots;
+    }
+
+    /** @return position of the full encoding of thread {@code t}, in this record or an earlier one */
+    private int thread(int t) {
+        int offset = buffer.getInt(base + R_OFFSETS + t * Integer.BYTES);
+        if (offset >= 0) return base + offset;
+
+        int marker = base + ~offset;
+        return base - buffer.getInt(marker + M_BYTES_BACK) - buffer.getInt(marker + M_RECORDS_BACK) * framing;
+    }
+
+    /** @return position of the marker of thread {@code t}, or -1 if it is encoded in full */
+    private int marker(int t) {
+        int offset = buffer.getInt(base + R_OFFSETS + t * Integer.BYTES);
+        return offset >= 0 ? -1 : base + ~offset;
+    }
+
+    private LockEvent lock(int pos) {
+        byte type = buffer.get(pos + L_TYPE);
+        return new LockEvent(
+                dictionary.string(buffer.getInt(pos + L_ID)),
+                dictionary.string(buffer.getInt(pos + L_NAME)),
+                type >= 0 ? LOCK_TYPES[type] : null,
+                buffer.getLong(pos + L_OWNER),
+                dictionary.string(buffer.getInt(pos + L_OWNER_NAME)),
+                dictionary.stackId(buffer.getInt(pos + L_STACK)),
+                buffer.getLong(pos + L_ACQUIRED),
+                buffer.get(pos + L_CONTENDED) != 0
+        );
+    }
+}
@@ -1,18 +1,40 @@
 package org.example.profiler.server;
 
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.example.profiler.agent.SamplingBudgetController;
+import org.example.profiler.agent.SamplingPipeline;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
 import org.springframework.stereotype.Component;
 
+import java.time.Instant;
+
 @Component
 @RequiredArgsConstructor
-public class SamplingScheduler {
+public class SamplingScheduler implements SchedulingConfigurer {
 
-    private final ThreadSampler sampler;
+    private final SamplingPipeline pipeline;
     private final SnapshotStore store;
+    private final SamplingBudgetController budget;
+
+    @PostConstruct
+    public void registerStore() {
+        pipeline.addFrameListener(store::add);
+    }
+
+    /**
+     * Runs {@link #sample()} with the delay chosen by the budget controller after each cycle.
+     */
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar registrar) {
+        registrar.addTriggerTask(this::sample, context -> {
+            Instant last = context.lastCompletion();
+            return (last != null ? last : Instant.now()).plusMillis(budget.nextDelayMs());
+        });
+    }
 
-    @Scheduled(fixedDelay = 1000)
     public void sample() {
-        store.add(sampler.sample());
+        pipeline.runCycle();
     }
-}
\ No newline at end of file
+}
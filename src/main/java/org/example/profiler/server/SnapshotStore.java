@@ -1,28 +1,448 @@
 package org.example.profiler.server;
 
+import jakarta.annotation.PreDestroy;
+import org.example.profiler.monitor.SnapshotDelta;
+import org.example.profiler.monitor.StackTable;
 import org.example.profiler.monitor.ThreadSnapshot;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
+/**
+ * Sample history kept off-heap. Each sample is encoded (see {@link SampleCodec}) into a
+ * segment backed by a direct ByteBuffer; the oldest segments are dropped once the store
+ * exceeds its byte budget or they are older than the retention period. Only the segment
+ * list and the string/stack dictionary live on the heap.
+ *
+ * The direct buffers are allocated up front, as many segments as the budget holds, and
+ * recycled: a dropped segment's buffer goes back to the pool once no reader holds it, so
+ * direct memory stays within the budget. Only a sample larger than a segment gets a buffer
+ * of its own, freed by the GC once dropped. When every pooled buffer is still held by a
+ * reader, the store drops its oldest segment early and, if that one is held too, the new
+ * sample, counted in {@link #getDroppedSamples()}.
+ *
+ * The dictionary comes in generations. Every segment refers to the generation its samples
+ * were encoded with, and a new generation always starts a new segment, so a generation is
+ * freed with the last segment that uses it. A new generation starts when the ring wraps
+ * (the generation already spans as many segments as the budget holds), when the current
+ * one grows past a quarter of the budget, and when the log rolls. The dictionaries of
+ * retained segments count against the budget, so the heap they take is bounded as well.
+ *
+ * Single writer, lock-free readers. The writer appends to the last segment and then
+ * publishes the new sample count through a volatile; the segment list itself is an
+ * immutable array replaced on every roll. A reader takes the array and each segment's
+ * published count once and so sees a consistent prefix of the history without blocking the
+ * writer. Readers retain each segment while they read it: a segment object is never reused,
+ * and a dropped one that a reader has not retained yet is skipped, so a reader never sees a
+ * recycled buffer's new samples.
+ *
+ * With {@code profiler.log.dir} set, every sample is also appended to a {@link SampleLog} on
+ * disk, which keeps history across restarts and answers time-range queries beyond the
+ * in-memory window.
+ */
 @Component
 public class SnapshotStore {
 
-    private final Deque<List<ThreadSnapshot>> window =
-            new ArrayDeque<>();
+    // Share of the budget one dictionary generation may take before a new one is started
+    private static final int DICTIONARY_SHARE = 4;
 
-    private static final int MAX_SAMPLES = 20;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final long retentionMillis;
+    private volatile SampleLog log;
 
-    public synchronized void add(List<ThreadSnapshot> sample) {
-        window.addLast(sample);
-        if (window.size() > MAX_SAMPLES) {
-            window.removeFirst();
+    private volatile Segment[] segments = new Segment[0];
+    private volatile long dropped;
+    // Segment buffers no segment holds; released by the writer or by the last reader
+    private final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+
+    // Writer state, guarded by the writer lock
+    private final Object writeLock = new Object();
+    // Dictionary generation new samples are encoded with, and the segments it spans so far
+    private SampleDictionary dictionary = new SampleDictionary();
+    private int generationSegments;
+    // Full thread encodings in the last segment, for unchanged-thread markers
+    private final SampleCodec.References references = new SampleCodec.References();
+    private ByteBuffer scratch = ByteBuffer.allocate(64 * 1024);
+    private volatile long nextSequence;
+
+    /**
+     * @param maxBytes         off-heap budget for all segments together
+     * @param segmentBytes     size of one segment; eviction drops whole segments
+     * @param retentionSeconds samples older than this are evicted even when there is room
+     * @param logDir           directory of the persistent log, or blank to keep history in memory only
+     */
+    public SnapshotStore(@Value("${profiler.store.max-bytes:67108864}") long maxBytes,
+                         @Value("${profiler.store.segment-bytes:4194304}") int segmentBytes,
+                         @Value("${profiler.store.retention-seconds:1800}") long retentionSeconds,
+                         @Value("${profiler.log.dir:}") String logDir,
+                         @Value("${profiler.log.segment-bytes:67108864}") long logSegmentBytes,
+                         @Value("${profiler.log.max-bytes:1073741824}") long logMaxBytes,
+                         @Value("${profiler.log.retention-hours:72}") long logRetentionHours) {
+        this.maxBytes = maxBytes;
+        this.segmentBytes = (int) Math.min(segmentBytes, maxBytes);
+        this.retentionMillis = retentionSeconds * 1000;
+
+        for (long i = 0; i < Math.max(1, maxBytes / this.segmentBytes); i++) {
+            pool.add(ByteBuffer.allocateDirect(this.segmentBytes));
+        }
+
+        if (!logDir.isBlank()) {
+            log = SampleLog.open(Path.of(logDir), logSegmentBytes, logMaxBytes,
+                    logRetentionHours * 3_600_000);
+            // keep sequences unique across restarts
+            nextSequence = log.getNextSequence();
+            startGeneration();
+        }
+    }
+
+    /** In-memory only */
+    public SnapshotStore(long maxBytes, int segmentBytes, long retentionSeconds) {
+        this(maxBytes, segmentBytes, retentionSeconds, "", 0, 0, 0);
+    }
+
+    /* ------------------------
+       Writer
+       ------------------------ */
+
+    public void add(SnapshotDelta sample) {
+        synchronized (writeLock) {
+            int maxSize = SampleCodec.maxSize(sample);
+            if (maxSize > maxBytes) {
+                dropped++;
+                return;
+            }
+            if (scratch.capacity() < maxSize) {
+                scratch = ByteBuffer.allocate(Math.max(maxSize, scratch.capacity() * 2));
+            }
+
+            // the segments, and so the dictionary, are chosen before encoding
+            if (needsNewGeneration(maxSize)) {
+                startGeneration();
+            }
+            Segment segment = writableSegment(maxSize);
+            if (segment == null) {
+                dropped++;
+                return;
+            }
+            int length = SampleCodec.encode(sample, segment.dictionary, references, scratch);
+            segment.append(scratch, length, sample.getSampleTime());
+            persist(length, sample.getSampleTime());
+            nextSequence++;
+
+            evict(sample.getSampleTime() - retentionMillis);
+        }
+    }
+
+    private void persist(int length, long sampleTime) {
+        SampleLog current = log;
+        if (current == null) return;
+
+        try {
+            current.append(scratch, length, sampleTime);
+        } catch (IOException e) {
+            disableLog(e);
+        }
+    }
+
+    private boolean needsNewGeneration(int maxSize) {
+        SampleLog currentLog = log;
+        if (currentLog != null && currentLog.needsRoll(maxSize)) return true;
+        if (dictionary.getBytes() > maxBytes / DICTIONARY_SHARE) return true;
+
+        // the ring wraps: the next segment would hold samples the oldest one of this generation outlives
+        Segment[] current = segments;
+        Segment last = current.length > 0 ? current[current.length - 1] : null;
+        boolean rolls = last == null || last.dictionary != dictionary || last.remaining() < maxSize;
+        return rolls && generationSegments >= Math.max(1, maxBytes / segmentBytes);
+    }
+
+    /**
+     * Encode samples from now on with a new, empty dictionary. The next sample starts a new
+     * segment, here and in the log. The {@link StackTable} follows, releasing the frame
+     * arrays no one asked for during the generation before.
+     */
+    private void startGeneration() {
+        dictionary = new SampleDictionary();
+        generationSegments = 0;
+        StackTable.startGeneration();
+        SampleLog current = log;
+        if (current == null) return;
+
+        try {
+            current.startGeneration(dictionary);
+        } catch (IOException e) {
+            disableLog(e);
+        }
+    }
+
+    private void disableLog(IOException e) {
+        // keep sampling in memory rather than failing the sampler
+        System.err.println("[SnapshotStore] disabling sample log: " + e);
+        dictionary.setJournal(null);
+        log = null;
+    }
+
+    public void add(List<ThreadSnapshot> sample) {
+        long sampleTime = sample.isEmpty() ? System.currentTimeMillis() : sample.get(0).getSampleTime();
+        add(SnapshotDelta.full(sampleTime, sample));
+    }
+
+    /** @return the segment to append {@code length} bytes to, or null when no buffer is free */
+    private Segment writableSegment(int length) {
+        Segment[] current = segments;
+        Segment last = current.length > 0 ? current[current.length - 1] : null;
+        if (last != null && last.dictionary == dictionary && last.remaining() >= length) {
+            return last;
+        }
+
+        // a sample larger than a segment gets a buffer of its own
+        ByteBuffer buffer = length > segmentBytes ? ByteBuffer.allocateDirect(length) : pool.poll();
+        if (buffer == null && current.length > 0) {
+            // every pooled buffer is in use: give up the oldest segment, which frees one unless a reader holds it
+            segments = Arrays.copyOfRange(current, 1, current.length);
+            current[0].release();
+            current = segments;
+            buffer = pool.poll();
+        }
+        if (buffer == null) return null;
+
+        Segment segment = new Segment(buffer.clear(), length <= segmentBytes ? pool : null, nextSequence, dictionary);
+        references.reset();
+        generationSegments++;
+        Segment[] rolled = Arrays.copyOf(current, current.length + 1);
+        rolled[current.length] = segment;
+        segments = rolled;
+        return segment;
+    }
+
+    /**
+     * Drop the oldest segments while over budget or past retention; keep the active one. A
+     * dictionary generation counts until its last segment is dropped.
+     */
+    private void evict(long cutoff) {
+        Segment[] current = segments;
+        long bytes = 0;
+        for (int i = 0; i < current.length; i++) {
+            bytes += current[i].capacity();
+            if (i == 0 || current[i].dictionary != current[i - 1].dictionary) {
+                bytes += current[i].dictionary.getBytes();
+            }
+        }
+
+        int drop = 0;
+        while (drop < current.length - 1
+                && (bytes > maxBytes || current[drop].lastSampleTime < cutoff)) {
+            bytes -= current[drop].capacity();
+            if (current[drop].dictionary != current[drop + 1].dictionary) {
+                bytes -= current[drop].dictionary.getBytes();
+            }
+            drop++;
+        }
+        if (drop > 0) {
+            segments = Arrays.copyOfRange(current, drop, current.length);
+            for (int i = 0; i < drop; i++) current[i].release();
+        }
+    }
+
+    /* ------------------------
+       Readers, lock-free
+       ------------------------ */
+
+    /**
+     * Visit samples with a sequence of at least {@code sequence}, oldest first, in place.
+     * Samples already evicted are skipped.
+     *
+     * @param limit maximum number of samples to visit
+     * @return the sequence to pass on the next call to continue after the last visited sample
+     */
+    public long forEachSince(long sequence, int limit, Consumer<SampleView> visitor) {
+        SampleView view = new SampleView();
+        long next = sequence;
+        int visited = 0;
+
+        for (Segment segment : segments) {
+            // dropped since the array was read; its buffer may already hold newer samples
+            if (!segment.retain()) continue;
+            try {
+                int published = segment.published;
+                long end = segment.firstSequence + published;
+                if (end <= next) continue;
+
+                ByteBuffer buffer = segment.buffer;
+                int offset = 0;
+                for (long seq = segment.firstSequence; seq < end; seq++) {
+                    int length = buffer.getInt(offset + SampleCodec.R_LENGTH);
+                    if (seq >= next) {
+                        if (visited == limit) return next;
+                        visitor.accept(view.at(segment.dictionary, buffer, offset, seq, 0));
+                        visited++;
+                        next = seq + 1;
+                    }
+                    offset += length;
+                }
+            } finally {
+                segment.release();
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Visit samples taken between {@code fromMillis} and {@code toMillis}, inclusive, oldest
+     * first. Served from the persistent log when there is one, so the range may reach back
+     * past the in-memory window.
+     *
+     * @return number of samples visited
+     */
+    public int forEachBetween(long fromMillis, long toMillis, int limit, Consumer<SampleView> visitor) {
+        SampleLog current = log;
+        if (current != null) {
+            return current.forEachBetween(fromMillis, toMillis, limit, visitor);
+        }
+
+        int[] visited = {0};
+        forEachSince(0, Integer.MAX_VALUE, view -> {
+            long time = view.getSampleTime();
+            if (visited[0] < limit && time >= fromMillis && time <= toMillis) {
+                visitor.accept(view);
+                visited[0]++;
+            }
+        });
+        return visited[0];
+    }
+
+    /** Visit every retained sample, oldest first, without copying it out of the store. */
+    public void forEach(Consumer<SampleView> visitor) {
+        forEachSince(0, Integer.MAX_VALUE, visitor);
+    }
+
+    /** Materialize the {@code samples} most recent samples. */
+    public List<ThreadSnapshot> recent(int samples) {
+        List<ThreadSnapshot> snapshots = new ArrayList<>();
+        forEachSince(getNextSequence() - samples, samples, view -> snapshots.addAll(view.toSnapshots()));
+        return snapshots;
+    }
+
+    /** Materialize the whole retained history; prefer {@link #forEach} or {@link #forEachSince}. */
+    public List<ThreadSnapshot> all() {
+        List<ThreadSnapshot> snapshots = new ArrayList<>();
+        forEach(view -> snapshots.addAll(view.toSnapshots()));
+        return snapshots;
+    }
+
+    /** @return the sequence the next sample will get */
+    public long getNextSequence() {
+        return nextSequence;
+    }
+
+    public int getSampleCount() {
+        Segment[] current = segments;
+        return current.length == 0 ? 0 : (int) (getNextSequence() - current[0].firstSequence);
+    }
+
+    /** @return bytes of retained samples, plus the estimated heap bytes of their dictionaries */
+    public long getUsedBytes() {
+        Segment[] current = segments;
+        long used = 0;
+        for (int i = 0; i < current.length; i++) {
+            used += current[i].usedBytes;
+            if (i == 0 || current[i].dictionary != current[i - 1].dictionary) {
+                used += current[i].dictionary.getBytes();
+            }
         }
+        return used;
+    }
+
+    /** @return bytes in the persistent log, 0 without one */
+    public long getLogBytes() {
+        SampleLog current = log;
+        return current != null ? current.getSizeBytes() : 0;
     }
 
-    public synchronized List<ThreadSnapshot> all() {
-        return window.stream().flatMap(List::stream).toList();
+    @PreDestroy
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            SampleLog current = log;
+            log = null;
+            if (current != null) current.close();
+        }
+    }
+
+    public long getCapacityBytes() {
+        return maxBytes;
+    }
+
+    /** @return samples too large for the whole store, or written while readers held every buffer */
+    public long getDroppedSamples() {
+        return dropped;
+    }
+
+    /**
+     * A run of consecutive samples in one direct buffer. Bytes below {@code usedBytes} never
+     * change once {@code published} covers them, and not until the last reference is released.
+     * The store holds one reference while the segment is listed; each reader holds one while
+     * it reads.
+     */
+    private static final class Segment {
+
+        final ByteBuffer buffer;
+        final long firstSequence;
+        // generation the samples of this segment were encoded with
+        final SampleDictionary dictionary;
+        // where the buffer goes once released, null for a buffer of its own
+        private final Queue<ByteBuffer> pool;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        volatile int published;
+        volatile int usedBytes;
+        volatile long lastSampleTime;
+
+        Segment(ByteBuffer buffer, Queue<ByteBuffer> pool, long firstSequence, SampleDictionary dictionary) {
+            this.buffer = buffer;
+            this.pool = pool;
+            this.firstSequence = firstSequence;
+            this.dictionary = dictionary;
+        }
+
+        /** @return false if the segment was already released for good */
+        boolean retain() {
+            for (int count = references.get(); count > 0; count = references.get()) {
+                if (references.compareAndSet(count, count + 1)) return true;
+            }
+            return false;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0 && pool != null) {
+                pool.add(buffer);
+            }
+        }
+
+        int capacity() {
+            return buffer.capacity();
+        }
+
+        int remaining() {
+            return buffer.capacity() - usedBytes;
+        }
+
+        /** Writer only: copy the record, then publish it. */
+        void append(ByteBuffer record, int length, long sampleTime) {
+            buffer.put(usedBytes, record, 0, length);
+            usedBytes += length;
+            lastSampleTime = sampleTime;
+            published++;
+        }
     }
 }
@@ -0,0 +1,163 @@
+package org.example.profiler.agent;
+
+import org.example.profiler.monitor.SampleFrame;
+import org.example.profiler.monitor.SnapshotDelta;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * What a warmed-up sampling cycle allocates, with {@code ThreadMXBean.getCurrentThreadAllocatedBytes()}.
+ *
+ * Parks, blocks and sleeps a few hundred threads so that every dump sees them unchanged, then
+ * measures, on one dump at a time:
+ * <ul>
+ *   <li>the ThreadInfo getters alone (stack and lock arrays are cloned on every call);</li>
+ *   <li>{@link SampleFrame#capture}, which should cost no more than those getters;</li>
+ *   <li>{@link SnapshotDeltaEncoder#encode}, which on top of that builds the returned delta:
+ *       one marker slot per stable thread.</li>
+ * </ul>
+ * The smallest of the warm cycles is kept, so cycles where a thread changed do not count.
+ */
+class CaptureAllocationTest {
+
+    private static final int THREADS = 300;
+    private static final int CYCLES = 200;
+    // Headers of the delta, its three marker arrays and the removed-ids array
+    private static final long DELTA_OVERHEAD = 256;
+    // Per stable thread: a snapshot reference and two counters
+    private static final long BYTES_PER_MARKER = 4 + 8 + 8;
+    private static final long SLACK = 512;
+
+    private com.sun.management.ThreadMXBean mx;
+    private boolean contentionMonitoring;
+    private List<Thread> started;
+
+    @BeforeEach
+    void startIdleThreads() throws InterruptedException {
+        mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(mx.isThreadAllocatedMemorySupported() && mx.isThreadAllocatedMemoryEnabled(),
+                "per-thread allocation counters not available");
+        contentionMonitoring = mx.isThreadContentionMonitoringEnabled();
+        mx.setThreadContentionMonitoringEnabled(true);
+        started = startIdleThreads(THREADS);
+    }
+
+    @AfterEach
+    void stopIdleThreads() {
+        if (started != null) {
+            for (Thread thread : started) thread.interrupt();
+        }
+        if (mx != null) mx.setThreadContentionMonitoringEnabled(contentionMonitoring);
+    }
+
+    @Test
+    void stableThreadsCostNoMoreThanTheirMarkers() {
+        SampleFrame frame = new SampleFrame();
+        SnapshotDeltaEncoder encoder = new SnapshotDeltaEncoder();
+
+        long getters = Long.MAX_VALUE;
+        long capture = Long.MAX_VALUE;
+        long encode = Long.MAX_VALUE;
+        int dumped = 0;
+
+        for (int cycle = 0; cycle < CYCLES; cycle++) {
+            ThreadInfo[] infos = mx.dumpAllThreads(true, true);
+            dumped = infos.length;
+            long time = System.currentTimeMillis();
+
+            long before = mx.getCurrentThreadAllocatedBytes();
+            touchGetters(infos);
+            long afterGetters = mx.getCurrentThreadAllocatedBytes();
+            frame.capture(infos, time);
+            long afterCapture = mx.getCurrentThreadAllocatedBytes();
+            SnapshotDelta delta = encoder.encode(infos, time);
+            long afterEncode = mx.getCurrentThreadAllocatedBytes();
+            frame.clear();
+
+            // only warm cycles where every thread was stable say what a stable thread costs
+            if (cycle < CYCLES / 2 || !delta.getChanged().isEmpty()) continue;
+            getters = Math.min(getters, afterGetters - before);
+            capture = Math.min(capture, afterCapture - afterGetters);
+            encode = Math.min(encode, afterEncode - afterCapture);
+        }
+
+        assertNotEquals(Long.MAX_VALUE, getters, "no cycle without changed threads, nothing measured");
+
+        long captureLimit = getters + SLACK;
+        long encodeLimit = getters + DELTA_OVERHEAD + BYTES_PER_MARKER * dumped + SLACK;
+        assertTrue(capture <= captureLimit,
+                "capture allocated " + capture + " bytes/cycle, limit " + captureLimit + " for " + dumped + " threads");
+        assertTrue(encode <= encodeLimit,
+                "encode allocated " + encode + " bytes/cycle, limit " + encodeLimit + " for " + dumped + " threads");
+    }
+
+    /** The clones that capture cannot avoid through the public ThreadInfo API */
+    private static void touchGetters(ThreadInfo[] infos) {
+        for (ThreadInfo info : infos) {
+            if (info == null) continue;
+            info.getStackTrace();
+            info.getLockedMonitors();
+            info.getLockedSynchronizers();
+        }
+    }
+
+    /** A third parked, a third blocked on a monitor held by a sleeping owner, a third sleeping */
+    private static List<Thread> startIdleThreads(int count) throws InterruptedException {
+        Object monitor = new Object();
+        CountDownLatch ownerIn = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>(count + 1);
+
+        Thread owner = new Thread(() -> {
+            synchronized (monitor) {
+                ownerIn.countDown();
+                sleepUntilInterrupted();
+            }
+        }, "owner");
+        owner.setDaemon(true);
+        owner.start();
+        threads.add(owner);
+        ownerIn.await();
+
+        for (int i = 0; i < count; i++) {
+            Runnable idle = switch (i % 3) {
+                case 0 -> () -> {
+                    while (!Thread.currentThread().isInterrupted()) LockSupport.park();
+                };
+                case 1 -> () -> {
+                    synchronized (monitor) {
+                        Thread.onSpinWait();
+                    }
+                };
+                default -> CaptureAllocationTest::sleepUntilInterrupted;
+            };
+            Thread thread = new Thread(idle, "idle-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
+        // let every thread reach its idle state
+        Thread.sleep(500);
+        return threads;
+    }
+
+    private static void sleepUntilInterrupted() {
+        try {
+            Thread.sleep(Long.MAX_VALUE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.example.profiler.bench;
+
+import org.example.profiler.analysis.ContentionAnalyzer;
+import org.example.profiler.analysis.ContentionRecord;
+import org.example.profiler.monitor.LockEvent;
+import org.example.profiler.monitor.LockType;
+import org.example.profiler.monitor.StackTable;
+import org.example.profiler.monitor.ThreadSnapshot;
+
+import java.lang.ref.Reference;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Heap and time of the since-start accumulators at scale: {@code events} exact block events
+ * spread uniformly over {@code locks} locks and {@code threads} waiting threads, each waiter
+ * on one of {@value #STACKS} stacks, then {@code topRecords(50)} and {@code topRecords(0)}.
+ *
+ * Lives with the tests so it stays out of the jar; after {@code mvn test-compile}, run with
+ * enough heap for the locks, e.g.
+ * {@code java -Xmx4g -cp target/classes:target/test-classes org.example.profiler.bench.AccumulatorBenchmark [events] [locks] [threads]}.
+ */
+public class AccumulatorBenchmark {
+
+    private static final int STACKS = 500;
+    private static final int QUERY_RUNS = 3;
+
+    // Consumes every query result so the JIT cannot drop the work that built it
+    private static volatile int sink;
+
+    public static void main(String[] args) {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int lockCount = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int threadCount = args.length > 2 ? Integer.parseInt(args[2]) : 5_000;
+
+        // 1️⃣ Locks, waiters and stacks, created before the heap baseline
+        SplittableRandom random = new SplittableRandom(42);
+        int[] stackIds = new int[STACKS];
+        for (int s = 0; s < STACKS; s++) {
+            stackIds[s] = StackTable.intern(new StackTraceElement[]{
+                    new StackTraceElement("bench.Worker" + s, "run", "Worker.java", s),
+                    new StackTraceElement("java.lang.Thread", "run", "Thread.java", 1)
+            });
+        }
+        ThreadSnapshot[] waiters = new ThreadSnapshot[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            waiters[t] = new ThreadSnapshot(t + 1, "worker-" + t, Thread.State.BLOCKED,
+                    stackIds[random.nextInt(STACKS)], List.of(), List.of(), null, 0);
+        }
+        LockEvent[] locks = new LockEvent[lockCount];
+        for (int l = 0; l < lockCount; l++) {
+            long owner = random.nextInt(threadCount) + 1;
+            locks[l] = new LockEvent("java.lang.Object@" + Integer.toHexString(l), "java.lang.Object",
+                    LockType.MONITOR, owner, "worker-" + (owner - 1), StackTable.NO_STACK, 0, true);
+        }
+        int[] lockOf = new int[events];
+        int[] waiterOf = new int[events];
+        for (int e = 0; e < events; e++) {
+            lockOf[e] = random.nextInt(lockCount);
+            waiterOf[e] = random.nextInt(threadCount);
+        }
+
+        long baseline = usedHeap();
+
+        // 2️⃣ Per-event path
+        ContentionAnalyzer analyzer = new ContentionAnalyzer();
+        long start = System.nanoTime();
+        for (int e = 0; e < events; e++) {
+            analyzer.recordBlock(locks[lockOf[e]], waiters[waiterOf[e]], 1 + (e & 15), e);
+        }
+        long recordNanos = System.nanoTime() - start;
+        long retained = usedHeap() - baseline;
+
+        System.out.printf("events %d, locks %d, threads %d%n", events, lockCount, threadCount);
+        System.out.printf("retained heap      %d MB%n", retained >> 20);
+        System.out.printf("recordBlock        %.2f us/event%n", recordNanos / 1000.0 / events);
+
+        // 3️⃣ Queries, best of a few runs
+        System.out.printf("topRecords(50)     %d ms%n", bestQueryMillis(analyzer, 50));
+        System.out.printf("topRecords(all)    %d ms%n", bestQueryMillis(analyzer, 0));
+
+        // the inputs were in the baseline, so they must stay reachable until the last measurement
+        Reference.reachabilityFence(lockOf);
+        Reference.reachabilityFence(waiterOf);
+        Reference.reachabilityFence(locks);
+        Reference.reachabilityFence(waiters);
+    }
+
+    private static long bestQueryMillis(ContentionAnalyzer analyzer, int topK) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < QUERY_RUNS; run++) {
+            long start = System.nanoTime();
+            List<ContentionRecord> records = analyzer.topRecords(topK);
+            best = Math.min(best, System.nanoTime() - start);
+            sink = records.size() + (records.isEmpty() ? 0 : System.identityHashCode(records.get(0)));
+        }
+        return best / 1_000_000;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,112 @@
+package org.example.profiler.server;
+
+import org.example.profiler.monitor.LockEvent;
+import org.example.profiler.monitor.LockType;
+import org.example.profiler.monitor.SnapshotDelta;
+import org.example.profiler.monitor.StackTable;
+import org.example.profiler.monitor.ThreadSnapshot;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Samples written with unchanged-thread markers read back as {@link SnapshotDelta#expand()},
+ * from the in-memory segments and from the log, also across segment rolls.
+ */
+class SampleCodecTest {
+
+    private static final int THREADS = 20;
+    private static final int SAMPLES = 50;
+
+    @TempDir
+    Path logDir;
+
+    @Test
+    void unchangedThreadsReadBackFromMarkers() throws IOException {
+        // small segments, so that several rolls happen in the store and in the log
+        SnapshotStore store = new SnapshotStore(1 << 20, 8 * 1024, 3600,
+                logDir.toString(), 16 * 1024, 1 << 30, 72);
+        List<List<ThreadSnapshot>> written = writeSamples(store);
+
+        List<List<ThreadSnapshot>> fromStore = new ArrayList<>();
+        boolean[] sawMarker = {false};
+        store.forEach(view -> {
+            for (int t = 0; t < view.getThreadCount(); t++) sawMarker[0] |= view.isUnchanged(t);
+            fromStore.add(view.toSnapshots());
+        });
+        List<List<ThreadSnapshot>> fromLog = new ArrayList<>();
+        store.forEachBetween(0, Long.MAX_VALUE, Integer.MAX_VALUE, view -> fromLog.add(view.toSnapshots()));
+        store.close();
+
+        assertTrue(sawMarker[0], "no thread was written as a marker");
+        assertSamples(written, fromStore);
+        assertSamples(written, fromLog);
+    }
+
+    /** Every fifth thread changes state on each sample; the others only move their counters */
+    private static List<List<ThreadSnapshot>> writeSamples(SnapshotStore store) {
+        int stackId = StackTable.intern(new StackTraceElement[]{
+                new StackTraceElement("test.Worker", "run", "Worker.java", 10)
+        });
+        LockEvent lock = new LockEvent("java.lang.Object@1", "java.lang.Object", LockType.MONITOR,
+                1, "worker-0", StackTable.NO_STACK, 0, true);
+
+        ThreadSnapshot[] bases = new ThreadSnapshot[THREADS];
+        List<List<ThreadSnapshot>> written = new ArrayList<>();
+        for (int sample = 0; sample < SAMPLES; sample++) {
+            long time = 1_000 + sample * 100L;
+            List<ThreadSnapshot> changed = new ArrayList<>();
+            List<ThreadSnapshot> unchanged = new ArrayList<>();
+            List<Long> blocked = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                if (bases[t] == null || (t + sample) % 5 == 0) {
+                    Thread.State state = sample % 2 == 0 ? Thread.State.BLOCKED : Thread.State.RUNNABLE;
+                    bases[t] = new ThreadSnapshot(t + 1, "worker-" + t, state, stackId, List.of(), List.of(),
+                            state == Thread.State.BLOCKED ? lock : null, time);
+                    bases[t].setBlockedTime(sample);
+                    bases[t].setWaitedTime(sample);
+                    changed.add(bases[t]);
+                } else {
+                    unchanged.add(bases[t]);
+                    blocked.add(sample * 10L + t);
+                }
+            }
+
+            long[] blockedTimes = blocked.stream().mapToLong(Long::longValue).toArray();
+            long[] waitedTimes = blocked.stream().mapToLong(b -> b + 1).toArray();
+            SnapshotDelta delta = new SnapshotDelta(time, changed, unchanged.toArray(new ThreadSnapshot[0]),
+                    blockedTimes, waitedTimes);
+            store.add(delta);
+            written.add(delta.expand());
+        }
+        return written;
+    }
+
+    private static void assertSamples(List<List<ThreadSnapshot>> expected, List<List<ThreadSnapshot>> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int s = 0; s < expected.size(); s++) {
+            assertEquals(expected.get(s).size(), actual.get(s).size());
+            for (int t = 0; t < expected.get(s).size(); t++) {
+                ThreadSnapshot want = expected.get(s).get(t);
+                ThreadSnapshot got = actual.get(s).get(t);
+                String where = "sample " + s + " thread " + t;
+                assertEquals(want.getThreadId(), got.getThreadId(), where);
+                assertEquals(want.getThreadName(), got.getThreadName(), where);
+                assertEquals(want.getThreadState(), got.getThreadState(), where);
+                assertEquals(want.getStackId(), got.getStackId(), where);
+                assertEquals(want.getSampleTime(), got.getSampleTime(), where);
+                assertEquals(want.getBlockedTime(), got.getBlockedTime(), where);
+                assertEquals(want.getWaitedTime(), got.getWaitedTime(), where);
+                assertEquals(want.getLockWaitingOn() != null ? want.getLockWaitingOn().getLockId() : null,
+                        got.getLockWaitingOn() != null ? got.getLockWaitingOn().getLockId() : null, where);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.example.profiler.server;
+
+import org.example.profiler.monitor.SnapshotDelta;
+import org.example.profiler.monitor.StackTable;
+import org.example.profiler.monitor.ThreadSnapshot;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SampleLogTest {
+
+    private static final int SAMPLES = 20;
+
+    @TempDir
+    Path logDir;
+
+    /** The journal is not forced per sample, so a crash can lose its tail but keep samples that use it */
+    @Test
+    void recoveryDropsSamplesReferringToATornDictionaryTail() throws IOException {
+        SnapshotStore store = open();
+        for (int sample = 0; sample < SAMPLES; sample++) {
+            // a new thread name per sample, so every sample adds one journal entry of the same size
+            ThreadSnapshot thread = new ThreadSnapshot(sample, String.format("worker-%02d", sample), Thread.State.RUNNABLE,
+                    StackTable.NO_STACK, List.of(), List.of(), null, 1_000 + sample);
+            store.add(SnapshotDelta.full(1_000 + sample, List.of(thread)));
+        }
+        store.close();
+
+        // tear the last five entries off the journal, and one byte into the entry before them
+        Path journal;
+        try (Stream<Path> files = Files.list(logDir)) {
+            journal = files.filter(file -> file.toString().endsWith(".dict")).findFirst().orElseThrow();
+        }
+        long entry = Files.size(journal) / SAMPLES;
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 5 * entry - 1);
+        }
+
+        SnapshotStore reopened = open();
+        List<String> names = new ArrayList<>();
+        reopened.forEachBetween(0, Long.MAX_VALUE, Integer.MAX_VALUE, view -> names.add(view.getThreadName(0)));
+        reopened.close();
+
+        assertEquals(SAMPLES - 6, names.size());
+        for (int sample = 0; sample < names.size(); sample++) {
+            assertEquals(String.format("worker-%02d", sample), names.get(sample));
+        }
+        assertTrue(reopened.getNextSequence() >= names.size());
+    }
+
+    private SnapshotStore open() {
+        return new SnapshotStore(1 << 20, 64 * 1024, 3600, logDir.toString(), 1 << 20, 1 << 30, 72);
+    }
+}